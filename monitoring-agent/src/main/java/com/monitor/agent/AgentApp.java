@@ -1,9 +1,11 @@
 package com.monitor.agent;
 
+import com.monitor.agent.alert.AlertStateMachine;
 import com.monitor.agent.collectors.CpuCollector;
 import com.monitor.agent.collectors.DiskCollector;
 import com.monitor.agent.collectors.ICollector;
 import com.monitor.agent.collectors.MemoryCollector;
+import com.monitor.agent.net.AlertOutbox;
 import com.monitor.agent.net.TcpClient;
 import com.monitor.agent.net.UdpSender;
 import com.monitor.model.Alert;
@@ -11,6 +13,7 @@ import com.monitor.model.Metric;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.file.Paths;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -25,7 +28,22 @@ public class AgentApp {
     private static final String SERVER_HOST = "localhost";
     private static final int UDP_PORT = 9876;
     private static final int TCP_PORT = 9877;
-    private static final int COLLECTION_INTERVAL_SECONDS = 5;
+    private static final long COLLECTION_INTERVAL_MS = Long.getLong("monitor.agent.intervalMs", 5000);
+    
+    // Set -Dmonitor.udp.legacy=true to send Java-serialized metrics to older servers
+    private static final boolean LEGACY_UDP_SERIALIZATION = Boolean.getBoolean("monitor.udp.legacy");
+    
+    // UDP batching: samples per datagram (1 = no batching) and max wait before a partial batch is sent
+    private static final int UDP_BATCH_SIZE = Integer.getInteger("monitor.udp.batchSize", 1);
+    private static final long UDP_BATCH_MAX_DELAY_MS = Long.getLong("monitor.udp.batchDelayMs", 10_000);
+    
+    // The server evaluates alert rules on incoming metrics; set -Dmonitor.alerts.local=true
+    // to also check thresholds on the agent (e.g. for servers without the alert engine)
+    private static final boolean LOCAL_ALERTS = Boolean.getBoolean("monitor.alerts.local");
+    
+    // Undelivered alerts are spooled to this file and replayed at this rate (alerts/s)
+    private static final String ALERT_OUTBOX_FILE = System.getProperty("monitor.alerts.outbox", "alert-outbox.dat");
+    private static final int ALERT_REPLAY_RATE = Integer.getInteger("monitor.alerts.replayRate", 20);
     
     // Alert thresholds (percentage)
     private static final double CPU_WARNING_THRESHOLD = 70.0;
@@ -35,12 +53,20 @@ public class AgentApp {
     private static final double DISK_WARNING_THRESHOLD = 85.0;
     private static final double DISK_CRITICAL_THRESHOLD = 95.0;
     
+    // Points below a threshold a metric must fall to clear it, and reminder interval while alerting
+    private static final double ALERT_HYSTERESIS = Double.parseDouble(System.getProperty("monitor.alerts.hysteresis", "5.0"));
+    private static final long ALERT_RENOTIFY_INTERVAL_MS = Long.getLong("monitor.alerts.renotifyMs", 15 * 60_000);
+    
     private final String agentId;
     private final ICollector cpuCollector;
     private final ICollector memoryCollector;
     private final ICollector diskCollector;
     private final UdpSender udpSender;
     private final TcpClient tcpClient;
+    private final AlertOutbox alertOutbox;
+    private final AlertStateMachine cpuAlerts;
+    private final AlertStateMachine ramAlerts;
+    private final AlertStateMachine diskAlerts;
     private final ScheduledExecutorService scheduler;
     
     public AgentApp() throws IOException {
@@ -53,9 +79,19 @@ public class AgentApp {
         this.memoryCollector = new MemoryCollector();
         this.diskCollector = new DiskCollector();
         
+        // Initialize alert state per metric
+        this.cpuAlerts = new AlertStateMachine("CPU", CPU_WARNING_THRESHOLD, CPU_CRITICAL_THRESHOLD,
+                                               ALERT_HYSTERESIS, ALERT_RENOTIFY_INTERVAL_MS);
+        this.ramAlerts = new AlertStateMachine("RAM", RAM_WARNING_THRESHOLD, RAM_CRITICAL_THRESHOLD,
+                                               ALERT_HYSTERESIS, ALERT_RENOTIFY_INTERVAL_MS);
+        this.diskAlerts = new AlertStateMachine("DISK", DISK_WARNING_THRESHOLD, DISK_CRITICAL_THRESHOLD,
+                                                ALERT_HYSTERESIS, ALERT_RENOTIFY_INTERVAL_MS);
+        
         // Initialize network clients
-        this.udpSender = new UdpSender(SERVER_HOST, UDP_PORT);
-        this.tcpClient = new TcpClient(SERVER_HOST, TCP_PORT);
+        this.udpSender = new UdpSender(SERVER_HOST, UDP_PORT, LEGACY_UDP_SERIALIZATION,
+                                      UDP_BATCH_SIZE, UDP_BATCH_MAX_DELAY_MS);
+        this.tcpClient = new TcpClient(SERVER_HOST, TCP_PORT, agentId);
+        this.alertOutbox = new AlertOutbox(tcpClient, Paths.get(ALERT_OUTBOX_FILE), ALERT_REPLAY_RATE);
         
         // Initialize scheduler
         this.scheduler = Executors.newSingleThreadScheduledExecutor();
@@ -66,7 +102,9 @@ public class AgentApp {
         System.out.println("   Server: " + SERVER_HOST);
         System.out.println("   UDP Port: " + UDP_PORT);
         System.out.println("   TCP Port: " + TCP_PORT);
-        System.out.println("   Interval: " + COLLECTION_INTERVAL_SECONDS + "s");
+        System.out.println("   Interval: " + COLLECTION_INTERVAL_MS + "ms");
+        System.out.println("   UDP batch: " + UDP_BATCH_SIZE);
+        System.out.println("   Local alerts: " + (LOCAL_ALERTS ? "enabled" : "disabled (server-side)"));
         System.out.println("===========================================");
     }
     
@@ -87,8 +125,8 @@ public class AgentApp {
         scheduler.scheduleAtFixedRate(
             this::collectAndSend,
             0,
-            COLLECTION_INTERVAL_SECONDS,
-            TimeUnit.SECONDS
+            COLLECTION_INTERVAL_MS,
+            TimeUnit.MILLISECONDS
         );
         
         System.out.println("[Agent] Collection started...");
@@ -112,7 +150,9 @@ public class AgentApp {
             udpSender.sendMetric(metric);
             
             // Check thresholds and send alerts via TCP
-            checkAndSendAlerts(cpu, ram, disk);
+            if (LOCAL_ALERTS) {
+                checkAndSendAlerts(cpu, ram, disk);
+            }
             
         } catch (Exception e) {
             System.err.println("[Agent] Error during collection: " + e.getMessage());
@@ -121,38 +161,22 @@ public class AgentApp {
     }
     
     /**
-     * Check thresholds and send alerts if needed.
+     * Check thresholds and send alerts on state changes and reminders only.
      */
     private void checkAndSendAlerts(double cpu, double ram, double disk) {
-        // CPU alerts
-        if (cpu >= CPU_CRITICAL_THRESHOLD) {
-            sendAlert("CPU", cpu, Alert.Severity.CRITICAL);
-        } else if (cpu >= CPU_WARNING_THRESHOLD) {
-            sendAlert("CPU", cpu, Alert.Severity.WARNING);
-        }
-        
-        // RAM alerts
-        if (ram >= RAM_CRITICAL_THRESHOLD) {
-            sendAlert("RAM", ram, Alert.Severity.CRITICAL);
-        } else if (ram >= RAM_WARNING_THRESHOLD) {
-            sendAlert("RAM", ram, Alert.Severity.WARNING);
-        }
-        
-        // Disk alerts
-        if (disk >= DISK_CRITICAL_THRESHOLD) {
-            sendAlert("DISK", disk, Alert.Severity.CRITICAL);
-        } else if (disk >= DISK_WARNING_THRESHOLD) {
-            sendAlert("DISK", disk, Alert.Severity.WARNING);
-        }
+        long now = System.currentTimeMillis();
+        sendAlert(cpuAlerts.evaluate(agentId, cpu, now));
+        sendAlert(ramAlerts.evaluate(agentId, ram, now));
+        sendAlert(diskAlerts.evaluate(agentId, disk, now));
     }
     
     /**
-     * Send an alert via TCP.
+     * Queue an alert for delivery via TCP; never blocks the collection loop.
      */
-    private void sendAlert(String metricType, double value, Alert.Severity severity) {
-        String message = String.format("%s usage at %.1f%% (threshold exceeded)", metricType, value);
-        Alert alert = new Alert(agentId, message, severity, metricType);
-        tcpClient.sendAlert(alert);
+    private void sendAlert(Alert alert) {
+        if (alert != null) {
+            alertOutbox.offer(alert);
+        }
     }
     
     /**
@@ -167,6 +191,8 @@ public class AgentApp {
             Thread.currentThread().interrupt();
         }
         udpSender.close();
+        alertOutbox.close();
+        tcpClient.close();
         System.out.println("[Agent] Stopped");
     }
     
@@ -0,0 +1,113 @@
+package com.monitor.agent.alert;
+
+import com.monitor.model.Alert;
+
+/**
+ * Alert state of one metric on the agent.
+ *
+ * Moves between OK, WARNING and CRITICAL as the value crosses its thresholds.
+ * A level is only left once the value falls below its clear threshold
+ * (threshold minus hysteresis), so a value hovering around a threshold does
+ * not flap. Leaving the alerting levels passes through RECOVERED for one cycle.
+ *
+ * Only transitions produce an alert, plus a reminder every re-notify interval
+ * while the metric stays in WARNING or CRITICAL.
+ */
+public class AlertStateMachine {
+    
+    /**
+     * States of a metric.
+     */
+    public enum State {
+        OK,
+        WARNING,
+        CRITICAL,
+        RECOVERED
+    }
+    
+    private final String metricType;
+    private final double warningThreshold;
+    private final double criticalThreshold;
+    private final double hysteresis;
+    private final long renotifyIntervalMs;
+    
+    private State state = State.OK;
+    private long alertingSince;
+    private long lastNotified;
+    
+    /**
+     * @param hysteresis         Points below a threshold the value must fall to clear it
+     * @param renotifyIntervalMs Reminder interval while alerting (0 = no reminders)
+     */
+    public AlertStateMachine(String metricType, double warningThreshold, double criticalThreshold,
+                             double hysteresis, long renotifyIntervalMs) {
+        this.metricType = metricType;
+        this.warningThreshold = warningThreshold;
+        this.criticalThreshold = criticalThreshold;
+        this.hysteresis = Math.max(0, hysteresis);
+        this.renotifyIntervalMs = renotifyIntervalMs;
+    }
+    
+    public synchronized State getState() {
+        return state;
+    }
+    
+    /**
+     * Feed a new value.
+     * @return The alert to send, or null if nothing changed worth reporting
+     */
+    public synchronized Alert evaluate(String agentId, double value, long now) {
+        State previous = state;
+        State next = nextState(value);
+        state = next;
+        
+        if (next != previous) {
+            switch (next) {
+                case WARNING:
+                case CRITICAL:
+                    if (!isAlerting(previous)) {
+                        alertingSince = now;
+                    }
+                    lastNotified = now;
+                    String message = String.format("%s usage at %.1f%% (threshold exceeded)", metricType, value);
+                    return new Alert(agentId, message, severityOf(next), metricType);
+                case RECOVERED:
+                    lastNotified = now;
+                    return new Alert(agentId,
+                        String.format("%s usage back to normal at %.1f%%", metricType, value),
+                        Alert.Severity.INFO, metricType);
+                default:
+                    return null;
+            }
+        }
+        
+        // Still alerting: remind periodically
+        if (isAlerting(next) && renotifyIntervalMs > 0 && now - lastNotified >= renotifyIntervalMs) {
+            lastNotified = now;
+            String message = String.format("%s usage still at %.1f%% (%s for %d min)",
+                metricType, value, next, (now - alertingSince) / 60_000);
+            return new Alert(agentId, message, severityOf(next), metricType);
+        }
+        return null;
+    }
+    
+    private State nextState(double value) {
+        if (value >= criticalThreshold
+                || (state == State.CRITICAL && value >= criticalThreshold - hysteresis)) {
+            return State.CRITICAL;
+        }
+        if (value >= warningThreshold
+                || (isAlerting(state) && value >= warningThreshold - hysteresis)) {
+            return State.WARNING;
+        }
+        return isAlerting(state) ? State.RECOVERED : State.OK;
+    }
+    
+    private static boolean isAlerting(State state) {
+        return state == State.WARNING || state == State.CRITICAL;
+    }
+    
+    private static Alert.Severity severityOf(State state) {
+        return state == State.CRITICAL ? Alert.Severity.CRITICAL : Alert.Severity.WARNING;
+    }
+}
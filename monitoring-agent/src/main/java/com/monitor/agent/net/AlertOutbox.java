@@ -0,0 +1,266 @@
+package com.monitor.agent.net;
+
+import com.monitor.codec.AlertCodec;
+import com.monitor.model.Alert;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous alert delivery for the agent.
+ *
+ * {@link #offer} only puts the alert in a bounded queue, so the collection
+ * loop never waits for the network. A sender thread drains the queue through
+ * the {@link TcpClient}. Alerts it cannot deliver are appended to a spool file
+ * in the working directory, and so is everything after them until the spool
+ * has been replayed, to keep alerts in order. Replay runs once the server is
+ * reachable again, at a limited rate, and the file is deleted once drained.
+ *
+ * Alerts the client sent but the server did not acknowledge are taken back
+ * from it whenever a send fails (including when the server stops
+ * acknowledging) and on {@link #close()}, and written to the spool ahead of
+ * everything sent after them.
+ *
+ * The spool holds {@link AlertCodec} frames and survives agent restarts.
+ * Delivery is at-least-once: an agent stopped mid-replay sends the replayed
+ * part of the spool again, and unacknowledged alerts may already have
+ * reached the server.
+ */
+public class AlertOutbox {
+    
+    private static final int QUEUE_CAPACITY = 1000;
+    private static final long RETRY_INTERVAL_MS = 1000;
+    
+    private final TcpClient tcpClient;
+    private final Path spoolFile;
+    private final long replayIntervalMs;
+    private final BlockingQueue<Alert> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread sender;
+    private volatile boolean running = true;
+    
+    // Spool state, only touched by the sender thread (and by close() once it has stopped)
+    private DataOutputStream spoolOut;
+    private long replayOffset;
+    private boolean spoolPending;
+    
+    /**
+     * @param replayRate Alerts per second sent when replaying the spool
+     */
+    public AlertOutbox(TcpClient tcpClient, Path spoolFile, int replayRate) {
+        this.tcpClient = tcpClient;
+        this.spoolFile = spoolFile;
+        this.replayIntervalMs = 1000L / Math.max(1, replayRate);
+        
+        try {
+            spoolPending = Files.size(spoolFile) > 0;
+            if (spoolPending) {
+                System.out.println("[AlertOutbox] Found " + Files.size(spoolFile)
+                    + " bytes of undelivered alerts in " + spoolFile + ", will replay");
+            }
+        } catch (IOException e) {
+            // No spool file yet
+        }
+        
+        this.sender = new Thread(this::sendLoop, "AlertOutbox-sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+    
+    /**
+     * Queue an alert for delivery. Never blocks; if the queue is full the
+     * alert is dropped.
+     * @return false if the alert was dropped
+     */
+    public boolean offer(Alert alert) {
+        if (!queue.offer(alert)) {
+            System.err.println("[AlertOutbox] Queue full, dropped alert: " + alert);
+            return false;
+        }
+        return true;
+    }
+    
+    private void sendLoop() {
+        while (running) {
+            try {
+                Alert alert = queue.poll(RETRY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                
+                if (spoolPending) {
+                    // Keep order: everything queued goes behind the spooled alerts
+                    if (alert != null) {
+                        spool(alert);
+                    }
+                    spoolQueued();
+                    replay();
+                } else if (alert != null && !tcpClient.sendAlert(alert)) {
+                    System.err.println("[AlertOutbox] Server unreachable, spooling alerts to " + spoolFile);
+                    spoolUnacknowledged();
+                    spool(alert);
+                }
+                
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                System.err.println("[AlertOutbox] Spool error: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Move every queued alert to the spool.
+     */
+    private void spoolQueued() throws IOException {
+        Alert alert;
+        while ((alert = queue.poll()) != null) {
+            spool(alert);
+        }
+    }
+    
+    private void spool(Alert alert) throws IOException {
+        if (spoolOut == null) {
+            spoolOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(spoolFile.toFile(), true)));
+        }
+        spoolOut.write(AlertCodec.encodeAlertFrame(0, alert));
+        spoolOut.flush();
+        spoolPending = true;
+    }
+    
+    /**
+     * Take back the alerts the client has not had acknowledged and spool
+     * them in front of the part of the spool not replayed yet, which was
+     * sent after them.
+     */
+    private void spoolUnacknowledged() throws IOException {
+        List<Alert> unacked = tcpClient.takeUnacknowledged();
+        if (unacked.isEmpty()) {
+            return;
+        }
+        System.err.println("[AlertOutbox] Spooling " + unacked.size() + " unacknowledged alerts");
+        if (!spoolPending) {
+            for (Alert alert : unacked) {
+                spool(alert);
+            }
+            return;
+        }
+        
+        if (spoolOut != null) {
+            spoolOut.close();
+            spoolOut = null;
+        }
+        Path temp = spoolFile.resolveSibling(spoolFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp.toFile())));
+             RandomAccessFile in = new RandomAccessFile(spoolFile.toFile(), "r")) {
+            for (Alert alert : unacked) {
+                out.write(AlertCodec.encodeAlertFrame(0, alert));
+            }
+            in.seek(replayOffset);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        try {
+            Files.move(temp, spoolFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, spoolFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        replayOffset = 0;
+    }
+    
+    /**
+     * Send spooled alerts from the replay offset, in order and rate limited,
+     * until the spool is drained or the server becomes unreachable again.
+     */
+    private void replay() throws IOException, InterruptedException {
+        int replayed = 0;
+        boolean failed = false;
+        
+        try (RandomAccessFile in = new RandomAccessFile(spoolFile.toFile(), "r")) {
+            while (running && replayOffset < in.length()) {
+                in.seek(replayOffset);
+                Alert alert;
+                try {
+                    byte[] body = new byte[AlertCodec.checkFrameLength(in.readInt())];
+                    in.readFully(body);
+                    alert = AlertCodec.decodeFrame(ByteBuffer.wrap(body)).getAlert();
+                } catch (EOFException e) {
+                    System.err.println("[AlertOutbox] Truncated alert at the end of the spool, discarding it");
+                    break;
+                } catch (IOException e) {
+                    System.err.println("[AlertOutbox] Corrupt spool (" + e.getMessage() + "), discarding the rest");
+                    break;
+                }
+                
+                if (!tcpClient.sendAlert(alert)) {
+                    failed = true;
+                    break;
+                }
+                replayOffset = in.getFilePointer();
+                replayed++;
+                
+                // New alerts queue up behind the spool while it is replayed
+                spoolQueued();
+                Thread.sleep(replayIntervalMs);
+            }
+        }
+        
+        if (failed) {
+            spoolUnacknowledged();
+            return;
+        }
+        if (!running) {
+            return;
+        }
+        
+        // Drained: start over with an empty spool
+        if (spoolOut != null) {
+            spoolOut.close();
+            spoolOut = null;
+        }
+        Files.deleteIfExists(spoolFile);
+        replayOffset = 0;
+        spoolPending = false;
+        System.out.println("[AlertOutbox] Replayed " + replayed + " spooled alerts");
+    }
+    
+    /**
+     * Stop the sender. Alerts not acknowledged by the server and those still
+     * queued are spooled for the next start.
+     */
+    public void close() {
+        running = false;
+        sender.interrupt();
+        try {
+            sender.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        try {
+            spoolUnacknowledged();
+            if (!queue.isEmpty()) {
+                System.out.println("[AlertOutbox] Spooling " + queue.size() + " undelivered alerts");
+                spoolQueued();
+            }
+            if (spoolOut != null) {
+                spoolOut.close();
+            }
+        } catch (IOException e) {
+            System.err.println("[AlertOutbox] Failed to spool alerts: " + e.getMessage());
+        }
+    }
+}
@@ -1,40 +1,271 @@
 package com.monitor.agent.net;
 
+import com.monitor.codec.AlertCodec;
 import com.monitor.model.Alert;
 
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Sends alerts via TCP for guaranteed delivery.
- * Opens a new connection for each alert.
+ *
+ * Keeps one long-lived connection to the server and writes each alert as a
+ * length-prefixed {@link AlertCodec} frame without waiting for a reply.
+ * When acknowledgements are enabled, sent alerts are kept until the server
+ * acknowledges them (acks are cumulative and batched on the server side) and
+ * are sent again after a reconnect. Reconnection uses exponential backoff.
+ *
+ * Unacknowledged alerts are only held in memory: a caller that must not lose
+ * them takes them back with {@link #takeUnacknowledged()}, e.g. once the
+ * server has left {@link #MAX_UNACKED} of them unacknowledged and further
+ * alerts are refused.
  */
 public class TcpClient {
     
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final long INITIAL_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 30_000;
+    private static final long RECONNECT_CHECK_MS = 1000;
+    public static final int MAX_UNACKED = 1000;
+    
     private final String serverHost;
     private final int serverPort;
+    private final String agentId;
+    private final boolean acks;
+    
+    // Connection state, guarded by this
+    private Socket socket;
+    private OutputStream out;
+    private long nextSequence = 1;
+    private long backoffMs = INITIAL_BACKOFF_MS;
+    private long nextConnectAttempt = 0;
+    private final Deque<PendingAlert> unacked = new ArrayDeque<>();
     
-    public TcpClient(String serverHost, int serverPort) {
+    private final ScheduledExecutorService reconnectScheduler;
+    
+    public TcpClient(String serverHost, int serverPort, String agentId) {
+        this(serverHost, serverPort, agentId, true);
+    }
+    
+    public TcpClient(String serverHost, int serverPort, String agentId, boolean acks) {
         this.serverHost = serverHost;
         this.serverPort = serverPort;
-        System.out.println("[TcpClient] Initialized, will send alerts to " + serverHost + ":" + serverPort);
+        this.agentId = agentId;
+        this.acks = acks;
+        
+        // Re-delivers unacknowledged alerts when the server comes back
+        this.reconnectScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "TcpClient-reconnect");
+            t.setDaemon(true);
+            return t;
+        });
+        reconnectScheduler.scheduleWithFixedDelay(this::reconnectIfPending,
+            RECONNECT_CHECK_MS, RECONNECT_CHECK_MS, TimeUnit.MILLISECONDS);
+        
+        System.out.println("[TcpClient] Initialized, will send alerts to " + serverHost + ":" + serverPort
+            + (acks ? " (acknowledged)" : ""));
     }
     
     /**
      * Send an alert to the server via TCP.
+     * The alert is written to the open connection without waiting for a reply.
+     * Connecting may block up to the connect timeout.
      * @param alert The alert to send
+     * @return false if the server is unreachable or has too many alerts
+     *         unacknowledged, and the alert was not taken; with
+     *         acknowledgements, a taken alert is re-sent after a reconnect
      */
-    public void sendAlert(Alert alert) {
-        try (Socket socket = new Socket(serverHost, serverPort);
-             ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream())) {
-            
-            oos.writeObject(alert);
-            oos.flush();
+    public synchronized boolean sendAlert(Alert alert) {
+        if (acks && unacked.size() >= MAX_UNACKED) {
+            // The connection is open but the server stopped reading or acknowledging
+            if (socket != null) {
+                disconnect("Server left " + unacked.size() + " alerts unacknowledged, reconnecting");
+            }
+            return false;
+        }
+        
+        // Connect first: a new connection re-sends the older unacknowledged alerts
+        if (!ensureConnected()) {
+            return false;
+        }
+        
+        long sequence = nextSequence++;
+        byte[] frame = AlertCodec.encodeAlertFrame(sequence, alert);
+        
+        if (acks) {
+            unacked.addLast(new PendingAlert(sequence, alert, frame));
+        }
+        
+        try {
+            out.write(frame);
+            out.flush();
             System.out.println("[TcpClient] Sent alert: " + alert);
+            return true;
+        } catch (IOException e) {
+            disconnect("Failed to send alert: " + e.getMessage());
+            return acks;
+        }
+    }
+    
+    /**
+     * Open the connection if needed, honouring the reconnect backoff.
+     * On a new connection, unacknowledged alerts are sent again first.
+     */
+    private boolean ensureConnected() {
+        if (socket != null) {
+            return true;
+        }
+        
+        long now = System.currentTimeMillis();
+        if (now < nextConnectAttempt) {
+            return false;
+        }
+        
+        Socket s = new Socket();
+        try {
+            s.connect(new InetSocketAddress(serverHost, serverPort), CONNECT_TIMEOUT_MS);
+            s.setTcpNoDelay(true);
+            s.setKeepAlive(true);
+            
+            OutputStream o = new BufferedOutputStream(s.getOutputStream());
+            o.write(AlertCodec.encodePreamble(agentId, acks));
+            for (PendingAlert pending : unacked) {
+                o.write(pending.frame);
+            }
+            o.flush();
+            
+            socket = s;
+            out = o;
+            backoffMs = INITIAL_BACKOFF_MS;
             
+            if (acks) {
+                Thread reader = new Thread(() -> readAcks(s), "TcpClient-acks");
+                reader.setDaemon(true);
+                reader.start();
+            }
+            
+            System.out.println("[TcpClient] Connected to " + serverHost + ":" + serverPort
+                + (unacked.isEmpty() ? "" : ", resent " + unacked.size() + " unacknowledged alerts"));
+            return true;
+            
+        } catch (IOException e) {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+                // Ignore
+            }
+            nextConnectAttempt = now + backoffMs;
+            System.err.println("[TcpClient] Connection failed (" + e.getMessage() + "), retrying in " + backoffMs + "ms");
+            backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+            return false;
+        }
+    }
+    
+    /**
+     * Read cumulative acknowledgements until the connection closes.
+     */
+    private void readAcks(Socket s) {
+        try {
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            while (true) {
+                int length = AlertCodec.checkFrameLength(in.readInt());
+                byte[] body = new byte[length];
+                in.readFully(body);
+                
+                AlertCodec.Frame frame = AlertCodec.decodeFrame(ByteBuffer.wrap(body));
+                if (frame.getType() == AlertCodec.FRAME_ACK) {
+                    acknowledge(frame.getSequence());
+                }
+            }
         } catch (IOException e) {
-            System.err.println("[TcpClient] Failed to send alert: " + e.getMessage());
+            synchronized (this) {
+                if (socket == s) {
+                    disconnect("Connection lost: " + e.getMessage());
+                }
+            }
+        }
+    }
+    
+    private synchronized void acknowledge(long sequence) {
+        while (!unacked.isEmpty() && unacked.peekFirst().sequence <= sequence) {
+            unacked.removeFirst();
+        }
+    }
+    
+    /**
+     * Remove the alerts sent but not acknowledged yet, so that the caller
+     * can keep them elsewhere; they are no longer re-sent.
+     * @return The alerts, oldest first
+     */
+    public synchronized List<Alert> takeUnacknowledged() {
+        List<Alert> alerts = new ArrayList<>(unacked.size());
+        for (PendingAlert pending : unacked) {
+            alerts.add(pending.alert);
+        }
+        unacked.clear();
+        return alerts;
+    }
+    
+    private synchronized void reconnectIfPending() {
+        if (socket == null && !unacked.isEmpty()) {
+            ensureConnected();
+        }
+    }
+    
+    private void disconnect(String reason) {
+        System.err.println("[TcpClient] " + reason);
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+        socket = null;
+        out = null;
+        nextConnectAttempt = System.currentTimeMillis() + backoffMs;
+    }
+    
+    /**
+     * Close the connection. Alerts still unacknowledged are lost unless
+     * taken back with {@link #takeUnacknowledged()} first.
+     */
+    public synchronized void close() {
+        reconnectScheduler.shutdown();
+        if (!unacked.isEmpty()) {
+            System.err.println("[TcpClient] Closing with " + unacked.size() + " unacknowledged alerts");
+        }
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            socket = null;
+        }
+    }
+    
+    private static final class PendingAlert {
+        final long sequence;
+        final Alert alert;
+        final byte[] frame;
+        
+        PendingAlert(long sequence, Alert alert, byte[] frame) {
+            this.sequence = sequence;
+            this.alert = alert;
+            this.frame = frame;
         }
     }
 }
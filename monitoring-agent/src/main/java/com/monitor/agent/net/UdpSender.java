@@ -1,5 +1,6 @@
 package com.monitor.agent.net;
 
+import com.monitor.codec.MetricCodec;
 import com.monitor.model.Metric;
 
 import java.io.ByteArrayOutputStream;
@@ -8,20 +9,63 @@ import java.io.ObjectOutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Sends metrics via UDP (fire and forget).
  * Suitable for high-frequency, loss-tolerant data.
+ * Uses the compact {@link MetricCodec} format by default; Java serialization
+ * can still be selected to talk to servers that predate the binary codec.
+ *
+ * In batch mode, samples are held until either {@code batchSize} samples or
+ * {@code maxBatchDelayMs} milliseconds have accumulated, then packed into a
+ * single MTU-sized datagram.
+ *
+ * Every metric is stamped with a monotonically increasing sequence number so
+ * the server can measure loss and reordering.
  */
 public class UdpSender {
     
     private final String serverHost;
     private final int serverPort;
+    private final boolean legacySerialization;
+    private final int batchSize;
+    private final long maxBatchDelayMs;
     private DatagramSocket socket;
+    private InetAddress address;
+    private final AtomicLong nextSequence = new AtomicLong(1);
+    
+    // Batch state, guarded by this
+    private final List<Metric> pending = new ArrayList<>();
+    private ScheduledExecutorService flushScheduler;
+    private ScheduledFuture<?> flushTask;
     
     public UdpSender(String serverHost, int serverPort) {
+        this(serverHost, serverPort, false);
+    }
+    
+    public UdpSender(String serverHost, int serverPort, boolean legacySerialization) {
+        this(serverHost, serverPort, legacySerialization, 1, 0);
+    }
+    
+    /**
+     * @param batchSize       Samples per datagram (1 disables batching)
+     * @param maxBatchDelayMs Maximum time a sample may wait for its batch to fill
+     */
+    public UdpSender(String serverHost, int serverPort, boolean legacySerialization,
+                     int batchSize, long maxBatchDelayMs) {
         this.serverHost = serverHost;
         this.serverPort = serverPort;
+        this.legacySerialization = legacySerialization;
+        // Batches only exist in the binary format
+        this.batchSize = legacySerialization ? 1 : Math.max(1, batchSize);
+        this.maxBatchDelayMs = maxBatchDelayMs;
     }
     
     /**
@@ -29,29 +73,98 @@ public class UdpSender {
      */
     public void init() throws IOException {
         this.socket = new DatagramSocket();
-        System.out.println("[UdpSender] Initialized, will send to " + serverHost + ":" + serverPort);
+        this.address = InetAddress.getByName(serverHost);
+        
+        if (isBatching()) {
+            this.flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "UdpSender-flush");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        
+        System.out.println("[UdpSender] Initialized, will send to " + serverHost + ":" + serverPort
+                + (legacySerialization ? " (legacy serialization)" : " (binary codec)")
+                + (isBatching() ? ", batches of " + batchSize + " / " + maxBatchDelayMs + "ms" : ""));
     }
     
     /**
      * Send a metric to the server via UDP.
+     * In batch mode the metric is queued and sent with the next batch.
      * @param metric The metric to send
      */
     public void sendMetric(Metric metric) {
+        metric.setSequence(nextSequence.getAndIncrement());
+        
+        if (!isBatching()) {
+            try {
+                byte[] data = serialize(metric);
+                send(data);
+                System.out.println("[UdpSender] Sent: " + metric);
+            } catch (IOException e) {
+                System.err.println("[UdpSender] Failed to send metric: " + e.getMessage());
+            }
+            return;
+        }
+        
+        synchronized (this) {
+            // Never let a batch grow past one datagram
+            if (!pending.isEmpty() && pending.size() >= MetricCodec.maxBatchSamples(metric.getAgentId())) {
+                flush();
+            }
+            
+            pending.add(metric);
+            
+            if (pending.size() >= batchSize) {
+                flush();
+            } else if (flushTask == null && maxBatchDelayMs > 0) {
+                flushTask = flushScheduler.schedule(this::flush, maxBatchDelayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+    
+    /**
+     * Send any pending samples as one batch datagram.
+     */
+    public synchronized void flush() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        
+        if (pending.isEmpty()) {
+            return;
+        }
+        
+        List<Metric> batch = new ArrayList<>(pending);
+        pending.clear();
+        
         try {
-            byte[] data = serialize(metric);
-            InetAddress address = InetAddress.getByName(serverHost);
-            DatagramPacket packet = new DatagramPacket(data, data.length, address, serverPort);
-            socket.send(packet);
-            System.out.println("[UdpSender] Sent: " + metric);
+            byte[] data = MetricCodec.encodeBatch(batch.get(0).getAgentId(), batch);
+            send(data);
+            System.out.println("[UdpSender] Sent batch of " + batch.size() + " metrics (" + data.length + " bytes)");
         } catch (IOException e) {
-            System.err.println("[UdpSender] Failed to send metric: " + e.getMessage());
+            System.err.println("[UdpSender] Failed to send batch: " + e.getMessage());
         }
     }
     
+    private boolean isBatching() {
+        return batchSize > 1;
+    }
+    
+    private void send(byte[] data) throws IOException {
+        DatagramPacket packet = new DatagramPacket(data, data.length, address, serverPort);
+        socket.send(packet);
+    }
+    
     /**
      * Serialize a Metric object to byte array.
      */
     private byte[] serialize(Metric metric) throws IOException {
+        if (!legacySerialization) {
+            return MetricCodec.encode(metric);
+        }
+        
         try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
              ObjectOutputStream oos = new ObjectOutputStream(baos)) {
             oos.writeObject(metric);
@@ -63,6 +176,11 @@ public class UdpSender {
      * Close the socket.
      */
     public void close() {
+        if (flushScheduler != null) {
+            flush();
+            flushScheduler.shutdown();
+        }
+        
         if (socket != null && !socket.isClosed()) {
             socket.close();
             System.out.println("[UdpSender] Closed");
@@ -0,0 +1,123 @@
+package com.monitor.benchmarks;
+
+import com.monitor.model.Metric;
+import com.monitor.server.storage.DataManager;
+import com.monitor.server.storage.RollupSlice;
+import com.monitor.server.storage.StorageConfig;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingest throughput of one agent's history, alone and while dashboard-style
+ * queries copy the same history out.
+ *
+ * The {@code ingestAlone} group has the writer only. In {@code ingestUnderQueries}
+ * the same writer runs beside three readers calling {@code getAllMetrics}, the
+ * largest copy an RMI client asks for. {@code ingestUnderRollupQueries} has the
+ * readers copy half a day of one-minute buckets instead, as a dashboard graph
+ * does. Readers never lock the history, so the ingest scores should stay close
+ * to {@code ingestAlone}; a drop shows writers being held up by readers.
+ *
+ * Run with {@code mvn -P benchmarks package} and
+ * {@code java -jar monitoring-benchmarks/target/benchmarks.jar MetricIngestBenchmark}.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricIngestBenchmark {
+    
+    private static final String AGENT_ID = "bench-agent";
+    
+    // Span of the rollup queries, filled with one sample a minute before the raw history
+    private static final long ROLLUP_SPAN_MS = 12 * 60 * 60 * 1000L;
+    
+    @Param({"1000", "10000"})
+    int metricsPerAgent;
+    
+    private DataManager dataManager;
+    
+    // Only touched by the writer thread of the group
+    private Metric metric;
+    private long timestamp;
+    
+    @Setup
+    public void setUp() {
+        StorageConfig config = new StorageConfig();
+        config.setMetricsPerAgent(metricsPerAgent);
+        config.setMemoryBudgetBytes(0);
+        dataManager = new DataManager(config);
+        
+        metric = new Metric(AGENT_ID, 42.0, 60.0, 75.0);
+        timestamp = System.currentTimeMillis() - metricsPerAgent * 1000L - ROLLUP_SPAN_MS;
+        // Minute buckets over the span queried, then a full ring, as a long-running agent has
+        for (long t = 0; t < ROLLUP_SPAN_MS; t += 60_000) {
+            timestamp += 60_000;
+            metric.setTimestamp(timestamp);
+            dataManager.addMetric(metric);
+        }
+        for (int i = 0; i < metricsPerAgent; i++) {
+            addNext();
+        }
+    }
+    
+    private void addNext() {
+        timestamp += 1000;
+        metric.setTimestamp(timestamp);
+        dataManager.addMetric(metric);
+    }
+    
+    @Benchmark
+    @Group("ingestAlone")
+    @GroupThreads(1)
+    public void ingestAlone() {
+        addNext();
+    }
+    
+    @Benchmark
+    @Group("ingestUnderQueries")
+    @GroupThreads(1)
+    public void ingest() {
+        addNext();
+    }
+    
+    @Benchmark
+    @Group("ingestUnderQueries")
+    @GroupThreads(3)
+    public List<Metric> query() {
+        return dataManager.getAllMetrics(AGENT_ID);
+    }
+    
+    @Benchmark
+    @Group("ingestUnderRollupQueries")
+    @GroupThreads(1)
+    public void ingestBesideRollups() {
+        addNext();
+    }
+    
+    @Benchmark
+    @Group("ingestUnderRollupQueries")
+    @GroupThreads(3)
+    public RollupSlice rollupQuery() {
+        // Up to the newest sample, which runs ahead of the clock as fast as the writer goes
+        long newest = dataManager.getMetrics(AGENT_ID, 1).get(0).getTimestamp();
+        return dataManager.getRollupSlice(AGENT_ID, newest - ROLLUP_SPAN_MS, newest);
+    }
+}
@@ -0,0 +1,236 @@
+package com.monitor.codec;
+
+import com.monitor.model.Alert;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Framing and binary encoding for the persistent agent-to-server alert channel.
+ *
+ * A connection starts with a preamble, then carries length-prefixed frames in
+ * both directions (big-endian):
+ * <pre>
+ *   preamble:  u16 magic 0x4D41 ("MA"), u8 version, u8 flags, str agentId
+ *   frame:     u32 body length, u8 frame type, body
+ *   ALERT:     i64 sequence, i64 timestamp, u8 severity, str agentId, str metricType, str message
+ *   ACK:       i64 highest sequence received (cumulative)
+ * </pre>
+ * Strings are a u16 byte length followed by UTF-8 bytes. Agents that still
+ * send a Java-serialized {@link Alert} start with 0xACED instead of the magic.
+ */
+public final class AlertCodec {
+
+    public static final short MAGIC = 0x4D41;
+    public static final byte VERSION = 1;
+
+    /** First two bytes of a legacy, Java-serialized alert connection. */
+    public static final short JAVA_SERIAL_MAGIC = MetricCodec.JAVA_SERIAL_MAGIC;
+
+    /** Preamble flag: the agent wants cumulative acknowledgements. */
+    public static final byte FLAG_ACKS = 0x01;
+
+    public static final byte FRAME_ALERT = 1;
+    public static final byte FRAME_ACK = 2;
+
+    /** Upper bound for a frame body, to reject garbage length prefixes. */
+    public static final int MAX_FRAME_SIZE = 64 * 1024;
+
+    public static final int LENGTH_PREFIX_SIZE = 4;
+
+    private AlertCodec() {
+    }
+
+    /**
+     * A decoded frame. {@code alert} is only set for {@link #FRAME_ALERT}.
+     */
+    public static final class Frame {
+        private final byte type;
+        private final long sequence;
+        private final Alert alert;
+
+        Frame(byte type, long sequence, Alert alert) {
+            this.type = type;
+            this.sequence = sequence;
+            this.alert = alert;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Alert getAlert() {
+            return alert;
+        }
+    }
+
+    /**
+     * Connection preamble sent by the agent.
+     */
+    public static final class Preamble {
+        private final byte version;
+        private final byte flags;
+        private final String agentId;
+
+        Preamble(byte version, byte flags, String agentId) {
+            this.version = version;
+            this.flags = flags;
+            this.agentId = agentId;
+        }
+
+        public byte getVersion() {
+            return version;
+        }
+
+        public boolean wantsAcks() {
+            return (flags & FLAG_ACKS) != 0;
+        }
+
+        public String getAgentId() {
+            return agentId;
+        }
+    }
+
+    /**
+     * Encode the connection preamble.
+     */
+    public static byte[] encodePreamble(String agentId, boolean acks) {
+        byte[] id = agentId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 2 + id.length);
+        buffer.putShort(MAGIC);
+        buffer.put(VERSION);
+        buffer.put(acks ? FLAG_ACKS : 0);
+        putString(buffer, id);
+        return buffer.array();
+    }
+
+    /**
+     * Decode a preamble. Returns null if the buffer does not yet hold a complete
+     * one, leaving its position unchanged.
+     */
+    public static Preamble decodePreamble(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        if (buffer.remaining() < 6) {
+            return null;
+        }
+        if (buffer.getShort(start) != MAGIC) {
+            throw new IOException("Not an alert channel preamble");
+        }
+        int idLength = buffer.getShort(start + 4) & 0xFFFF;
+        if (buffer.remaining() < 6 + idLength) {
+            return null;
+        }
+
+        buffer.getShort();
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported alert channel version: " + version);
+        }
+        byte flags = buffer.get();
+        return new Preamble(version, flags, getString(buffer));
+    }
+
+    /**
+     * Encode an alert as a complete frame, length prefix included.
+     */
+    public static byte[] encodeAlertFrame(long sequence, Alert alert) {
+        byte[] agentId = bytes(alert.getAgentId());
+        byte[] metricType = bytes(alert.getMetricType());
+        byte[] message = bytes(alert.getMessage());
+
+        int bodyLength = 1 + 8 + 8 + 1 + 6 + agentId.length + metricType.length + message.length;
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH_PREFIX_SIZE + bodyLength);
+        buffer.putInt(bodyLength);
+        buffer.put(FRAME_ALERT);
+        buffer.putLong(sequence);
+        buffer.putLong(alert.getTimestamp());
+        buffer.put((byte) (alert.getLevel() == null ? Alert.Severity.INFO : alert.getLevel()).ordinal());
+        putString(buffer, agentId);
+        putString(buffer, metricType);
+        putString(buffer, message);
+        return buffer.array();
+    }
+
+    /**
+     * Encode a cumulative acknowledgement frame, length prefix included.
+     */
+    public static byte[] encodeAckFrame(long sequence) {
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH_PREFIX_SIZE + 1 + 8);
+        buffer.putInt(1 + 8);
+        buffer.put(FRAME_ACK);
+        buffer.putLong(sequence);
+        return buffer.array();
+    }
+
+    /**
+     * Validate a frame length prefix.
+     */
+    public static int checkFrameLength(int length) throws IOException {
+        if (length <= 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid alert frame length: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Decode a frame body (without its length prefix).
+     */
+    public static Frame decodeFrame(ByteBuffer body) throws IOException {
+        try {
+            byte type = body.get();
+            long sequence = body.getLong();
+
+            if (type == FRAME_ACK) {
+                return new Frame(type, sequence, null);
+            }
+            if (type != FRAME_ALERT) {
+                throw new IOException("Unknown alert frame type: " + type);
+            }
+
+            long timestamp = body.getLong();
+            int level = body.get();
+            Alert.Severity[] severities = Alert.Severity.values();
+            if (level < 0 || level >= severities.length) {
+                throw new IOException("Unknown alert severity: " + level);
+            }
+
+            Alert alert = new Alert(getString(body), null, severities[level], null);
+            alert.setMetricType(getString(body));
+            alert.setMessage(getString(body));
+            alert.setTimestamp(timestamp);
+            return new Frame(type, sequence, alert);
+
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated alert frame");
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("String too long for alert frame");
+        }
+        return bytes;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
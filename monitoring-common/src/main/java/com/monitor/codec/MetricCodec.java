@@ -0,0 +1,295 @@
+package com.monitor.codec;
+
+import com.monitor.model.Metric;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact fixed-layout binary codec for metrics sent over UDP.
+ *
+ * Layout (big-endian, version 2):
+ * <pre>
+ *   u16  magic      0x4D43 ("MC")
+ *   u8   version
+ *   u8   type       TYPE_SINGLE
+ *   i64  timestamp
+ *   u32  sequence
+ *   f32  cpu, ram, disk
+ *   u8   agentId length, followed by the UTF-8 bytes
+ * </pre>
+ *
+ * Batches ({@code TYPE_BATCH}) share the same header and carry the agent ID once.
+ * Samples of a batch have consecutive sequence numbers starting at the first one:
+ * <pre>
+ *   u8   agentId length, followed by the UTF-8 bytes
+ *   u16  sample count
+ *   u32  sequence of the first sample
+ *   n x (i64 timestamp, f32 cpu, f32 ram, f32 disk)
+ * </pre>
+ *
+ * Version 1 is the same layout without the sequence fields; it is still
+ * decoded, with a sequence of 0 (unknown).
+ *
+ * A typical sample is around 45 bytes, against several hundred for Java
+ * serialization. Payloads produced by {@link java.io.ObjectOutputStream}
+ * start with 0xACED, so both formats can be told apart on the first two bytes.
+ */
+public final class MetricCodec {
+
+    public static final short MAGIC = 0x4D43;
+    public static final byte VERSION = 2;
+    public static final byte TYPE_SINGLE = 1;
+    public static final byte TYPE_BATCH = 2;
+
+    /** First two bytes of any Java serialization stream. */
+    public static final short JAVA_SERIAL_MAGIC = (short) 0xACED;
+
+    public static final int MAX_AGENT_ID_BYTES = 255;
+
+    /** Largest UDP payload that fits a 1500-byte Ethernet MTU without fragmentation. */
+    public static final int MAX_DATAGRAM_SIZE = 1472;
+
+    private static final byte VERSION_1 = 1;
+    private static final int HEADER_SIZE = 4;
+    private static final int SEQUENCE_SIZE = 4;
+    private static final int SAMPLE_SIZE = 8 + 3 * 4;
+
+    private MetricCodec() {
+    }
+
+    /**
+     * Wire formats a UDP payload can be in.
+     */
+    public enum Format {
+        BINARY,
+        JAVA_SERIALIZATION,
+        UNKNOWN
+    }
+
+    /**
+     * Detect the format of a payload without consuming it.
+     */
+    public static Format detect(ByteBuffer buffer) {
+        if (buffer.remaining() < 2) {
+            return Format.UNKNOWN;
+        }
+        short magic = buffer.getShort(buffer.position());
+        if (magic == MAGIC) {
+            return Format.BINARY;
+        }
+        if (magic == JAVA_SERIAL_MAGIC) {
+            return Format.JAVA_SERIALIZATION;
+        }
+        return Format.UNKNOWN;
+    }
+
+    /**
+     * Hash of the agent ID bytes of a binary payload, computed in place without
+     * decoding. Used to route all samples of an agent to the same worker.
+     * Returns 0 if the payload is too short to contain an agent ID.
+     */
+    public static int agentIdHash(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_SIZE + 1) {
+            return 0;
+        }
+        int sequenceSize = buffer.get(start + 2) == VERSION_1 ? 0 : SEQUENCE_SIZE;
+        int idOffset = buffer.get(start + 3) == TYPE_SINGLE
+                ? start + HEADER_SIZE + SAMPLE_SIZE + sequenceSize
+                : start + HEADER_SIZE;
+        if (idOffset >= buffer.limit()) {
+            return 0;
+        }
+        int length = Math.min(buffer.get(idOffset) & 0xFF, buffer.limit() - idOffset - 1);
+
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + buffer.get(idOffset + 1 + i);
+        }
+        return hash;
+    }
+
+    /**
+     * Encode a metric into a new byte array.
+     */
+    public static byte[] encode(Metric metric) {
+        byte[] agentId = agentIdBytes(metric.getAgentId());
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + SAMPLE_SIZE + SEQUENCE_SIZE + 1 + agentId.length);
+        writeHeader(buffer, TYPE_SINGLE);
+        buffer.putLong(metric.getTimestamp());
+        buffer.putInt((int) metric.getSequence());
+        writeGauges(buffer, metric);
+        writeAgentId(buffer, agentId);
+        return buffer.array();
+    }
+
+    /**
+     * Number of samples of the given agent that fit in one MTU-sized batch datagram.
+     */
+    public static int maxBatchSamples(String agentId) {
+        int fixed = HEADER_SIZE + 1 + agentIdBytes(agentId).length + 2 + SEQUENCE_SIZE;
+        return (MAX_DATAGRAM_SIZE - fixed) / SAMPLE_SIZE;
+    }
+
+    /**
+     * Encode several samples of the same agent into one batch payload.
+     * The samples must carry consecutive sequence numbers.
+     */
+    public static byte[] encodeBatch(String agentId, List<Metric> metrics) {
+        byte[] id = agentIdBytes(agentId);
+        if (metrics.isEmpty() || metrics.size() > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid batch size: " + metrics.size());
+        }
+        long firstSequence = metrics.get(0).getSequence();
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 1 + id.length + 2 + SEQUENCE_SIZE
+                + metrics.size() * SAMPLE_SIZE);
+        writeHeader(buffer, TYPE_BATCH);
+        writeAgentId(buffer, id);
+        buffer.putShort((short) metrics.size());
+        buffer.putInt((int) firstSequence);
+        for (int i = 0; i < metrics.size(); i++) {
+            Metric metric = metrics.get(i);
+            if (firstSequence != 0 && metric.getSequence() != firstSequence + i) {
+                throw new IllegalArgumentException("Batch sequence numbers are not consecutive");
+            }
+            buffer.putLong(metric.getTimestamp());
+            writeGauges(buffer, metric);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decode a binary payload of any type into the metrics it carries.
+     */
+    public static List<Metric> decodeAll(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new IOException("Truncated metric payload");
+        }
+        byte type = buffer.get(buffer.position() + 3);
+        if (type == TYPE_SINGLE) {
+            return List.of(decode(buffer));
+        }
+        return decodeBatch(buffer);
+    }
+
+    /**
+     * Decode a batch payload.
+     */
+    public static List<Metric> decodeBatch(ByteBuffer buffer) throws IOException {
+        try {
+            byte version = readHeader(buffer, TYPE_BATCH);
+            String agentId = readAgentId(buffer);
+            int count = buffer.getShort() & 0xFFFF;
+            long firstSequence = version == VERSION_1 ? 0 : buffer.getInt() & 0xFFFFFFFFL;
+            if (count * SAMPLE_SIZE > buffer.remaining()) {
+                throw new IOException("Truncated metric batch: " + count + " samples announced");
+            }
+
+            List<Metric> metrics = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long timestamp = buffer.getLong();
+                Metric metric = new Metric(agentId, buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+                metric.setTimestamp(timestamp);
+                metric.setSequence(firstSequence == 0 ? 0 : firstSequence + i);
+                metrics.add(metric);
+            }
+            return metrics;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated metric batch");
+        }
+    }
+
+    /**
+     * Decode a binary payload. The buffer is read from its position to its limit.
+     */
+    public static Metric decode(ByteBuffer buffer) throws IOException {
+        try {
+            byte version = readHeader(buffer, TYPE_SINGLE);
+            long timestamp = buffer.getLong();
+            long sequence = version == VERSION_1 ? 0 : buffer.getInt() & 0xFFFFFFFFL;
+            float cpu = buffer.getFloat();
+            float ram = buffer.getFloat();
+            float disk = buffer.getFloat();
+            String agentId = readAgentId(buffer);
+
+            Metric metric = new Metric(agentId, cpu, ram, disk);
+            metric.setTimestamp(timestamp);
+            metric.setSequence(sequence);
+            return metric;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated metric payload");
+        }
+    }
+
+    /**
+     * Decode a binary payload held in a byte array.
+     */
+    public static Metric decode(byte[] data, int offset, int length) throws IOException {
+        return decode(ByteBuffer.wrap(data, offset, length));
+    }
+
+    static void writeHeader(ByteBuffer buffer, byte type) {
+        buffer.putShort(MAGIC);
+        buffer.put(VERSION);
+        buffer.put(type);
+    }
+
+    /**
+     * Read and validate the header, returning the payload version.
+     */
+    static byte readHeader(ByteBuffer buffer, byte expectedType) throws IOException {
+        if (buffer.getShort() != MAGIC) {
+            throw new IOException("Not a binary metric payload");
+        }
+        byte version = buffer.get();
+        if (version != VERSION && version != VERSION_1) {
+            throw new IOException("Unsupported metric codec version: " + version);
+        }
+        byte type = buffer.get();
+        if (type != expectedType) {
+            throw new IOException("Unexpected metric payload type: " + type);
+        }
+        return version;
+    }
+
+    static void writeGauges(ByteBuffer buffer, Metric metric) {
+        buffer.putFloat((float) metric.getCpuUsage());
+        buffer.putFloat((float) metric.getRamUsage());
+        buffer.putFloat((float) metric.getDiskUsage());
+    }
+
+    static byte[] agentIdBytes(String agentId) {
+        byte[] bytes = agentId.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_AGENT_ID_BYTES) {
+            throw new IllegalArgumentException("Agent ID too long for metric codec: " + agentId);
+        }
+        return bytes;
+    }
+
+    static void writeAgentId(ByteBuffer buffer, byte[] agentId) {
+        buffer.put((byte) agentId.length);
+        buffer.put(agentId);
+    }
+
+    static String readAgentId(ByteBuffer buffer) {
+        int length = buffer.get() & 0xFF;
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        if (buffer.hasArray()) {
+            String agentId = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return agentId;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,86 @@
+package com.monitor.model;
+
+import java.io.Serializable;
+
+/**
+ * UDP delivery statistics for one agent, derived from metric sequence numbers.
+ */
+public class AgentLinkStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String agentId;
+    private long expected;   // Sequence numbers spanned since the first one seen
+    private long received;   // Distinct samples received
+    private long lost;       // Samples never received
+    private long duplicates; // Samples received more than once
+    private long late;       // Samples received after a higher sequence number
+
+    public AgentLinkStats() {
+    }
+
+    public AgentLinkStats(String agentId) {
+        this.agentId = agentId;
+    }
+
+    // Getters and Setters
+    public String getAgentId() {
+        return agentId;
+    }
+
+    public void setAgentId(String agentId) {
+        this.agentId = agentId;
+    }
+
+    public long getExpected() {
+        return expected;
+    }
+
+    public void setExpected(long expected) {
+        this.expected = expected;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public void setReceived(long received) {
+        this.received = received;
+    }
+
+    public long getLost() {
+        return lost;
+    }
+
+    public void setLost(long lost) {
+        this.lost = lost;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public void setDuplicates(long duplicates) {
+        this.duplicates = duplicates;
+    }
+
+    public long getLate() {
+        return late;
+    }
+
+    public void setLate(long late) {
+        this.late = late;
+    }
+
+    /**
+     * Loss rate as a percentage of expected samples.
+     */
+    public double getLossRate() {
+        return expected == 0 ? 0 : lost * 100.0 / expected;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LinkStats[agent=%s, received=%d, lost=%d (%.1f%%), dup=%d, late=%d]",
+                agentId, received, lost, getLossRate(), duplicates, late);
+    }
+}
@@ -14,6 +14,7 @@ public class Metric implements Serializable {
     private double cpuUsage;
     private double ramUsage;
     private double diskUsage;
+    private long sequence; // Per-agent sequence number assigned by the sender, 0 if unknown
 
     public Metric() {
     }
@@ -67,6 +68,14 @@ public class Metric implements Serializable {
         this.diskUsage = diskUsage;
     }
 
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
     @Override
     public String toString() {
         return String.format("Metric[agent=%s, cpu=%.1f%%, ram=%.1f%%, disk=%.1f%%, time=%d]",
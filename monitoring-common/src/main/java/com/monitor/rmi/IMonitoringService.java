@@ -1,5 +1,6 @@
 package com.monitor.rmi;
 
+import com.monitor.model.AgentLinkStats;
 import com.monitor.model.Alert;
 import com.monitor.model.AlertConfig;
 import com.monitor.model.Metric;
@@ -71,6 +72,19 @@ public interface IMonitoringService extends Remote {
      */
     List<String> searchAgents(String query) throws RemoteException;
 
+    /**
+     * Search agents whose ID contains the query, best matches first
+     * (exact, prefix, start of a name part, anywhere).
+     * 
+     * @param limit Maximum number of agents to return
+     */
+    List<String> searchAgents(String query, int limit) throws RemoteException;
+
+    /**
+     * Get UDP delivery statistics (loss, duplicates, reordering) per agent.
+     */
+    List<AgentLinkStats> getAgentLinkStats() throws RemoteException;
+
     // ==================== Metrics ====================
 
     /**
@@ -91,6 +105,15 @@ public interface IMonitoringService extends Remote {
      */
     List<Metric> getMetricsByDateRange(String agentId, long fromTime, long toTime) throws RemoteException;
 
+    /**
+     * Get metrics within a date range with at least the given resolution.
+     * Ranges the raw samples do not reach come from per-minute or per-hour
+     * rollups, as one metric (the averages) per bucket.
+     * 
+     * @param resolutionMs Widest acceptable interval between points, 0 for raw samples
+     */
+    List<Metric> getMetricsByDateRange(String agentId, long fromTime, long toTime, long resolutionMs) throws RemoteException;
+
     // ==================== Statistics ====================
 
     /**
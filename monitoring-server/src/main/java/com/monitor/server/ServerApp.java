@@ -1,17 +1,21 @@
 package com.monitor.server;
 
 import com.monitor.rmi.IMonitoringService;
+import com.monitor.server.alert.AlertEngine;
+import com.monitor.server.exec.ServerExecutors;
+import com.monitor.server.handler.AlertHandler;
+import com.monitor.server.handler.NioTcpAlertHandler;
 import com.monitor.server.handler.TcpAlertHandler;
 import com.monitor.server.handler.UdpListener;
 import com.monitor.server.service.MonitoringServiceImpl;
 import com.monitor.server.storage.AlertConfigManager;
 import com.monitor.server.storage.DataManager;
 import com.monitor.server.storage.MetricsPersistence;
+import com.monitor.server.storage.StorageConfig;
 import com.monitor.server.security.UserManager;
 
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -27,12 +31,37 @@ public class ServerApp {
     private static final int RMI_PORT = 1099;
     private static final String RMI_SERVICE_NAME = "MonitoringService";
     
+    // UDP ingest pipeline (override with -Dmonitor.udp.*)
+    private static final int UDP_RECEIVER_THREADS = Integer.getInteger("monitor.udp.receivers", 1);
+    private static final int UDP_WORKER_THREADS = Integer.getInteger("monitor.udp.workers",
+        Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int UDP_QUEUE_CAPACITY = Integer.getInteger("monitor.udp.queueCapacity", 1024);
+    
+    // TCP alert handler: "blocking" (thread per connection) or "nio" (fixed event loops)
+    private static final String TCP_MODE = System.getProperty("monitor.tcp.mode", "blocking");
+    private static final int TCP_EVENT_LOOPS = Integer.getInteger("monitor.tcp.eventLoops", 2);
+    private static final long TCP_IDLE_TIMEOUT_MS = Long.getLong("monitor.tcp.idleTimeoutMs", 600_000);
+    
+    // Server-side alerting: points below a threshold to clear it, reminder interval while alerting
+    private static final double ALERT_HYSTERESIS = Double.parseDouble(System.getProperty("monitor.alerts.hysteresis", "5.0"));
+    private static final long ALERT_RENOTIFY_INTERVAL_MS = Long.getLong("monitor.alerts.renotifyMs", 15 * 60_000);
+    
+    // Seconds between memory budget checks of the metric store
+    private static final long BUDGET_CHECK_INTERVAL_S = Long.getLong("monitor.storage.budgetCheckSeconds", 10);
+    
+    // Threads for blocking per-connection work: "platform", "virtual" or "compare"
+    private static final String THREAD_MODE = System.getProperty("monitor.threads", "platform");
+    
+    private ServerExecutors executors;
+    private AlertEngine alertEngine;
     private UdpListener udpListener;
-    private TcpAlertHandler tcpAlertHandler;
+    private AlertHandler tcpAlertHandler;
     private MetricsPersistence metricsPersistence;
     private Thread udpThread;
     private Thread tcpThread;
     private ScheduledExecutorService statsScheduler;
+    private ScheduledExecutorService livenessScheduler;
+    private ScheduledExecutorService budgetScheduler;
     
     public void start() throws Exception {
         System.out.println("===========================================");
@@ -42,31 +71,49 @@ public class ServerApp {
         System.out.println("   RMI Port: " + RMI_PORT);
         System.out.println("===========================================");
         
-        // Initialize DataManager (singleton)
-        DataManager dataManager = DataManager.getInstance();
+        executors = new ServerExecutors(ServerExecutors.Mode.parse(THREAD_MODE));
+        
+        // Create the metric and alert store, shared by all handlers
+        DataManager dataManager = new DataManager(StorageConfig.fromSystemProperties());
         
         // Initialize managers
-        AlertConfigManager.getInstance();
+        AlertConfigManager alertConfigManager = AlertConfigManager.getInstance();
         UserManager.getInstance();
         
         // Start metrics persistence (loads existing data)
-        metricsPersistence = new MetricsPersistence(dataManager);
+        metricsPersistence = new MetricsPersistence(dataManager, executors);
         metricsPersistence.start();
         
+        // Evaluate alert rules on incoming metrics
+        alertEngine = new AlertEngine(dataManager, alertConfigManager, ALERT_HYSTERESIS, ALERT_RENOTIFY_INTERVAL_MS);
+        
+        // Expire agent liveness deadlines once per second
+        livenessScheduler = executors.newScheduler("AgentLiveness");
+        livenessScheduler.scheduleAtFixedRate(
+            () -> dataManager.getLiveness().advance(System.currentTimeMillis()), 1, 1, TimeUnit.SECONDS);
+        
+        // Keep the agent histories within the memory budget
+        budgetScheduler = executors.newScheduler("StorageBudget");
+        budgetScheduler.scheduleAtFixedRate(dataManager::enforceMemoryBudget,
+            BUDGET_CHECK_INTERVAL_S, BUDGET_CHECK_INTERVAL_S, TimeUnit.SECONDS);
+        
         // Start UDP listener
-        udpListener = new UdpListener(UDP_PORT);
-        udpThread = new Thread(udpListener, "UdpListener");
-        udpThread.start();
+        udpListener = new UdpListener(UDP_PORT, UDP_RECEIVER_THREADS, UDP_WORKER_THREADS, UDP_QUEUE_CAPACITY,
+            dataManager, executors, alertEngine);
+        udpThread = executors.startThread(udpListener, "UdpListener");
         
         // Start TCP alert handler
-        tcpAlertHandler = new TcpAlertHandler(TCP_PORT);
-        tcpThread = new Thread(tcpAlertHandler, "TcpAlertHandler");
-        tcpThread.start();
+        if ("nio".equalsIgnoreCase(TCP_MODE)) {
+            tcpAlertHandler = new NioTcpAlertHandler(TCP_PORT, TCP_EVENT_LOOPS, TCP_IDLE_TIMEOUT_MS, dataManager, executors);
+        } else {
+            tcpAlertHandler = new TcpAlertHandler(TCP_PORT, dataManager, executors);
+        }
+        tcpThread = executors.startThread(tcpAlertHandler, "TcpAlertHandler");
         
         // Create and export RMI service
         try {
             Registry registry = LocateRegistry.createRegistry(RMI_PORT);
-            IMonitoringService service = new MonitoringServiceImpl();
+            IMonitoringService service = new MonitoringServiceImpl(dataManager, udpListener.getSequenceTracker());
             registry.rebind(RMI_SERVICE_NAME, service);
             System.out.println("[RMI] Service '" + RMI_SERVICE_NAME + "' exported on port " + RMI_PORT);
         } catch (Exception e) {
@@ -75,15 +122,19 @@ public class ServerApp {
         }
         
         // Start periodic stats logging
-        statsScheduler = Executors.newSingleThreadScheduledExecutor();
+        statsScheduler = executors.newScheduler("Stats");
         statsScheduler.scheduleAtFixedRate(() -> {
             System.out.println("[Stats] " + dataManager.getStats());
+            System.out.println("[Stats] " + dataManager.getLiveness().getStats());
+            System.out.println("[Stats] " + udpListener.getStats());
+            System.out.println("[Stats] " + alertEngine.getStats());
+            System.out.println("[Stats] " + executors.getStats());
         }, 30, 30, TimeUnit.SECONDS);
         
         System.out.println("===========================================");
         System.out.println("   SERVER STARTED SUCCESSFULLY");
         System.out.println("   Features enabled:");
-        System.out.println("   - Metrics persistence (JSON)");
+        System.out.println("   - Metrics persistence (" + (dataManager.isMetricStoragePersistent() ? "memory-mapped" : "segment files") + ")");
         System.out.println("   - Statistics calculation");
         System.out.println("   - Configurable alerts");
         System.out.println("   - User authentication");
@@ -115,6 +166,18 @@ public class ServerApp {
             statsScheduler.shutdown();
         }
         
+        if (livenessScheduler != null) {
+            livenessScheduler.shutdown();
+        }
+        
+        if (budgetScheduler != null) {
+            budgetScheduler.shutdown();
+        }
+        
+        if (executors != null) {
+            executors.shutdown();
+        }
+        
         System.out.println("[Server] Stopped");
     }
     
@@ -0,0 +1,243 @@
+package com.monitor.server.alert;
+
+import com.monitor.model.Alert;
+import com.monitor.model.AlertConfig;
+import com.monitor.model.Metric;
+import com.monitor.server.storage.AgentLiveness;
+import com.monitor.server.storage.AlertConfigManager;
+import com.monitor.server.storage.DataManager;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Evaluates incoming metrics against the alert configurations as they are
+ * ingested, and raises alerts directly into the {@link DataManager}.
+ *
+ * The {@link AlertConfig} set is compiled into flat per-gauge threshold
+ * arrays, swapped in as one immutable snapshot whenever a configuration
+ * changes, so a threshold update applies to every agent on its next sample.
+ * Evaluating a metric reads those arrays and the agent's level bytes only and
+ * allocates nothing unless an alert is raised.
+ *
+ * Like the agent-side checks, an alert is raised when a gauge changes level
+ * (with a hysteresis margin before a level is cleared), when it recovers, and
+ * as a reminder every re-notify interval while it stays above a threshold.
+ */
+public class AlertEngine {
+    
+    // Gauges carried by every metric, in array order
+    private static final String[] GAUGES = {"CPU", "RAM", "DISK"};
+    private static final int CPU = 0;
+    private static final int RAM = 1;
+    private static final int DISK = 2;
+    
+    private static final byte LEVEL_OK = 0;
+    private static final byte LEVEL_WARNING = 1;
+    private static final byte LEVEL_CRITICAL = 2;
+    
+    private final DataManager dataManager;
+    private final AlertConfigManager configManager;
+    private final double hysteresis;
+    private final long renotifyIntervalMs;
+    private final Map<String, AgentLevels> agents = new ConcurrentHashMap<>();
+    private volatile Rules rules;
+    
+    // Counters
+    private final LongAdder evaluated = new LongAdder();
+    private final LongAdder raised = new LongAdder();
+    
+    /**
+     * @param hysteresis         Points below a threshold a gauge must fall to clear it
+     * @param renotifyIntervalMs Reminder interval while alerting (0 = no reminders)
+     */
+    public AlertEngine(DataManager dataManager, AlertConfigManager configManager,
+                       double hysteresis, long renotifyIntervalMs) {
+        this.dataManager = dataManager;
+        this.configManager = configManager;
+        this.hysteresis = Math.max(0, hysteresis);
+        this.renotifyIntervalMs = renotifyIntervalMs;
+        
+        this.rules = compile();
+        configManager.addChangeListener(() -> rules = compile());
+        dataManager.getLiveness().addListener(this::onAgentStateChange);
+        dataManager.addEvictionListener((agentId, samples) -> removeAgent(agentId));
+    }
+    
+    /**
+     * Build the threshold arrays from the current configurations.
+     * Gauges without an enabled configuration are not evaluated.
+     */
+    private Rules compile() {
+        Rules compiled = new Rules();
+        for (AlertConfig config : configManager.getAllConfigs()) {
+            int gauge = gaugeIndex(config.getMetricType());
+            if (gauge < 0) {
+                System.err.println("[AlertEngine] Ignoring configuration for unknown metric: " + config.getMetricType());
+                continue;
+            }
+            compiled.enabled[gauge] = config.isEnabled();
+            compiled.warning[gauge] = config.getWarningThreshold();
+            compiled.critical[gauge] = config.getCriticalThreshold();
+        }
+        System.out.println("[AlertEngine] Compiled alert rules: " + compiled);
+        return compiled;
+    }
+    
+    private static int gaugeIndex(String metricType) {
+        if (metricType == null) {
+            return -1;
+        }
+        String type = metricType.toUpperCase(Locale.ROOT);
+        for (int i = 0; i < GAUGES.length; i++) {
+            if (GAUGES[i].equals(type)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Evaluate one incoming metric.
+     */
+    public void evaluate(Metric metric) {
+        Rules current = rules;
+        String agentId = metric.getAgentId();
+        AgentLevels levels = agents.get(agentId);
+        if (levels == null) {
+            levels = agents.computeIfAbsent(agentId, k -> new AgentLevels());
+        }
+        long now = metric.getTimestamp();
+        
+        synchronized (levels) {
+            check(current, levels, CPU, metric.getCpuUsage(), agentId, now);
+            check(current, levels, RAM, metric.getRamUsage(), agentId, now);
+            check(current, levels, DISK, metric.getDiskUsage(), agentId, now);
+        }
+        evaluated.increment();
+    }
+    
+    private void check(Rules current, AgentLevels levels, int gauge, double value, String agentId, long now) {
+        byte previous = levels.level[gauge];
+        if (!current.enabled[gauge]) {
+            levels.level[gauge] = LEVEL_OK;
+            return;
+        }
+        
+        byte level;
+        if (value >= current.critical[gauge]
+                || (previous == LEVEL_CRITICAL && value >= current.critical[gauge] - hysteresis)) {
+            level = LEVEL_CRITICAL;
+        } else if (value >= current.warning[gauge]
+                || (previous != LEVEL_OK && value >= current.warning[gauge] - hysteresis)) {
+            level = LEVEL_WARNING;
+        } else {
+            level = LEVEL_OK;
+        }
+        
+        if (level != previous) {
+            levels.level[gauge] = level;
+            levels.lastNotified[gauge] = now;
+            if (level == LEVEL_OK) {
+                raise(agentId, gauge, Alert.Severity.INFO,
+                    String.format("%s usage back to normal at %.1f%%", GAUGES[gauge], value), now);
+            } else {
+                if (previous == LEVEL_OK) {
+                    levels.alertingSince[gauge] = now;
+                }
+                raise(agentId, gauge, severityOf(level),
+                    String.format("%s usage at %.1f%% (threshold exceeded)", GAUGES[gauge], value), now);
+            }
+        } else if (level != LEVEL_OK && renotifyIntervalMs > 0
+                && now - levels.lastNotified[gauge] >= renotifyIntervalMs) {
+            levels.lastNotified[gauge] = now;
+            raise(agentId, gauge, severityOf(level),
+                String.format("%s usage still at %.1f%% (%s for %d min)", GAUGES[gauge], value,
+                    severityOf(level), (now - levels.alertingSince[gauge]) / 60_000), now);
+        }
+    }
+    
+    private void raise(String agentId, int gauge, Alert.Severity severity, String message, long timestamp) {
+        Alert alert = new Alert(agentId, message, severity, GAUGES[gauge]);
+        alert.setTimestamp(timestamp);
+        dataManager.addAlert(alert);
+        raised.increment();
+    }
+    
+    private static Alert.Severity severityOf(byte level) {
+        return level == LEVEL_CRITICAL ? Alert.Severity.CRITICAL : Alert.Severity.WARNING;
+    }
+    
+    /**
+     * Raise an alert when an agent stops reporting and when it comes back.
+     * A DOWN agent's gauge levels are forgotten, so it starts from OK.
+     */
+    private void onAgentStateChange(String agentId, AgentLiveness.State from, AgentLiveness.State to) {
+        System.out.println("[AlertEngine] Agent " + agentId + ": " + from + " -> " + to);
+        long now = System.currentTimeMillis();
+        
+        if (to == AgentLiveness.State.DOWN) {
+            removeAgent(agentId);
+            raiseAgent(agentId, Alert.Severity.WARNING, String.format("Agent stopped reporting (no metrics for %d s)",
+                (now - dataManager.getLiveness().getLastSeen(agentId)) / 1000), now);
+        } else if (from == AgentLiveness.State.DOWN && to == AgentLiveness.State.ACTIVE) {
+            raiseAgent(agentId, Alert.Severity.INFO, "Agent reporting again", now);
+        }
+    }
+    
+    private void raiseAgent(String agentId, Alert.Severity severity, String message, long timestamp) {
+        Alert alert = new Alert(agentId, message, severity, "AGENT");
+        alert.setTimestamp(timestamp);
+        dataManager.addAlert(alert);
+        raised.increment();
+    }
+    
+    /**
+     * Forget the alert levels of an agent that is no longer tracked.
+     */
+    public void removeAgent(String agentId) {
+        agents.remove(agentId);
+    }
+    
+    /**
+     * Get statistics for logging.
+     */
+    public String getStats() {
+        return String.format("Alert engine: %d metrics evaluated, %d alerts raised, %d agents tracked",
+            evaluated.sum(), raised.sum(), agents.size());
+    }
+    
+    /**
+     * Immutable compiled thresholds, indexed by gauge.
+     */
+    private static final class Rules {
+        final boolean[] enabled = new boolean[GAUGES.length];
+        final double[] warning = new double[GAUGES.length];
+        final double[] critical = new double[GAUGES.length];
+        
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < GAUGES.length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(GAUGES[i]).append(enabled[i]
+                    ? String.format(" %.1f/%.1f", warning[i], critical[i])
+                    : " off");
+            }
+            return sb.toString();
+        }
+    }
+    
+    /**
+     * Current alert level of each gauge of one agent.
+     */
+    private static final class AgentLevels {
+        final byte[] level = new byte[GAUGES.length];
+        final long[] alertingSince = new long[GAUGES.length];
+        final long[] lastNotified = new long[GAUGES.length];
+    }
+}
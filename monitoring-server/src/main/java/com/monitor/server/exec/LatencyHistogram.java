@@ -0,0 +1,68 @@
+package com.monitor.server.exec;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power-of-two microsecond buckets.
+ * Percentiles are reported as the upper bound of their bucket.
+ */
+public class LatencyHistogram {
+    
+    // Bucket i holds latencies below 2^i microseconds; the last one is open-ended
+    private static final int BUCKETS = 32;
+    
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    
+    /**
+     * Record one latency.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        totalNanos.add(nanos);
+    }
+    
+    public long getCount() {
+        return count.sum();
+    }
+    
+    /**
+     * Mean latency in microseconds.
+     */
+    public double getMeanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / 1000.0 / n;
+    }
+    
+    /**
+     * Latency in microseconds below which the given fraction of samples fall.
+     * @param quantile Between 0 and 1, e.g. 0.99
+     */
+    public long getPercentileMicros(double quantile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("n=%d, mean=%.0fus, p50<=%dus, p99<=%dus, p99.9<=%dus",
+            getCount(), getMeanMicros(), getPercentileMicros(0.5),
+            getPercentileMicros(0.99), getPercentileMicros(0.999));
+    }
+}
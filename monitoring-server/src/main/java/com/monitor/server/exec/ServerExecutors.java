@@ -0,0 +1,234 @@
+package com.monitor.server.exec;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Creates the threads and executors used across the server, so the threading
+ * model is chosen in one place.
+ *
+ * Blocking per-connection and per-request work runs either on a cached pool of
+ * platform threads or on one virtual thread per task. Long-running loops (UDP
+ * receivers and workers, selector loops) and schedulers always get dedicated
+ * platform threads.
+ *
+ * In {@link Mode#COMPARE} mode tasks alternate between both models under the
+ * same load, and each model keeps its own scheduling delay and request latency
+ * histograms, printed with the server stats.
+ *
+ * Virtual threads need Java 21. On older runtimes the server falls back to
+ * platform threads with a warning.
+ */
+public class ServerExecutors {
+    
+    /**
+     * Threading mode for blocking tasks.
+     */
+    public enum Mode {
+        PLATFORM,
+        VIRTUAL,
+        COMPARE;
+        
+        public static Mode parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                System.err.println("[ServerExecutors] Unknown thread mode '" + value + "', using PLATFORM");
+                return PLATFORM;
+            }
+        }
+    }
+    
+    private static final ThreadLocal<ModelStats> CURRENT = new ThreadLocal<>();
+    
+    private final Mode mode;
+    private final ExecutorService platformTasks;
+    private final ExecutorService virtualTasks;
+    private final ModelStats platformStats = new ModelStats("platform");
+    private final ModelStats virtualStats = new ModelStats("virtual");
+    private final AtomicLong submitted = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    
+    public ServerExecutors(Mode mode) {
+        this.platformTasks = Executors.newCachedThreadPool(namedFactory("ServerTask", true));
+        
+        ExecutorService virtual = mode == Mode.PLATFORM ? null : newVirtualExecutor();
+        if (virtual == null && mode != Mode.PLATFORM) {
+            System.err.println("[ServerExecutors] Virtual threads need Java 21 (running "
+                + System.getProperty("java.version") + "), using platform threads");
+            mode = Mode.PLATFORM;
+        }
+        this.virtualTasks = virtual;
+        this.mode = mode;
+        
+        System.out.println("[ServerExecutors] Blocking tasks run on " + describe(mode));
+    }
+    
+    public Mode getMode() {
+        return mode;
+    }
+    
+    /**
+     * Run a blocking task, such as serving one connection, on the configured
+     * thread model.
+     */
+    public void execute(Runnable task) {
+        ModelStats stats = pick();
+        ExecutorService target = stats == virtualStats ? virtualTasks : platformTasks;
+        long queuedAt = System.nanoTime();
+        
+        target.execute(() -> {
+            stats.startDelay.record(System.nanoTime() - queuedAt);
+            stats.active.increment();
+            CURRENT.set(stats);
+            try {
+                task.run();
+            } finally {
+                CURRENT.remove();
+                stats.active.decrement();
+                stats.completed.increment();
+            }
+        });
+    }
+    
+    /**
+     * Record the latency of one request served by the current task, against
+     * the thread model running it. Ignored outside {@link #execute} tasks.
+     */
+    public void recordRequest(long nanos) {
+        ModelStats stats = CURRENT.get();
+        if (stats != null) {
+            stats.requests.record(nanos);
+        }
+    }
+    
+    /**
+     * Start a dedicated daemon platform thread for a long-running loop.
+     */
+    public Thread startThread(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+    
+    /**
+     * Create a single-threaded scheduler with a named daemon thread.
+     */
+    public ScheduledExecutorService newScheduler(String name) {
+        return Executors.newSingleThreadScheduledExecutor(namedFactory(name, false));
+    }
+    
+    /**
+     * Create a fixed pool of named daemon platform threads for CPU-bound
+     * batch work, such as loading persisted data. The caller shuts it down.
+     */
+    public ExecutorService newWorkerPool(String name, int threads) {
+        return Executors.newFixedThreadPool(Math.max(1, threads), namedFactory(name, true));
+    }
+    
+    /**
+     * Thread counts and, per thread model, task and latency statistics.
+     */
+    public String getStats() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        double seconds = Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+        
+        StringBuilder sb = new StringBuilder();
+        sb.append("Threads: mode=").append(mode)
+          .append(", platform threads=").append(threads.getThreadCount())
+          .append(" (peak ").append(threads.getPeakThreadCount()).append(")");
+        if (mode != Mode.VIRTUAL) {
+            sb.append("; ").append(platformStats.describe(seconds));
+        }
+        if (mode != Mode.PLATFORM) {
+            sb.append("; ").append(virtualStats.describe(seconds));
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Stop accepting tasks. Running tasks end when their sockets are closed.
+     */
+    public void shutdown() {
+        platformTasks.shutdownNow();
+        if (virtualTasks != null) {
+            virtualTasks.shutdownNow();
+        }
+    }
+    
+    private ModelStats pick() {
+        switch (mode) {
+            case VIRTUAL:
+                return virtualStats;
+            case COMPARE:
+                // Alternate so both models see the same load
+                return (submitted.getAndIncrement() & 1) == 0 ? platformStats : virtualStats;
+            default:
+                return platformStats;
+        }
+    }
+    
+    private static String describe(Mode mode) {
+        switch (mode) {
+            case VIRTUAL:
+                return "virtual threads";
+            case COMPARE:
+                return "platform and virtual threads, alternating (comparison mode)";
+            default:
+                return "a cached platform thread pool";
+        }
+    }
+    
+    /**
+     * Look up Executors.newVirtualThreadPerTaskExecutor(), which only exists
+     * from Java 21 on. Returns null when it is not available.
+     */
+    private static ExecutorService newVirtualExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+    
+    private static ThreadFactory namedFactory(String name, boolean numbered) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, numbered ? name + "-" + counter.incrementAndGet() : name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+    
+    /**
+     * Counters for the tasks run by one thread model.
+     */
+    private static final class ModelStats {
+        private final String name;
+        private final LatencyHistogram startDelay = new LatencyHistogram();
+        private final LatencyHistogram requests = new LatencyHistogram();
+        private final LongAdder active = new LongAdder();
+        private final LongAdder completed = new LongAdder();
+        
+        ModelStats(String name) {
+            this.name = name;
+        }
+        
+        String describe(double seconds) {
+            return String.format("%s: %d active, %d done, start delay [%s], requests %.1f/s [%s]",
+                name, active.sum(), completed.sum(), startDelay,
+                requests.getCount() / seconds, requests);
+        }
+    }
+}
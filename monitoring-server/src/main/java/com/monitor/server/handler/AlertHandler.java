@@ -0,0 +1,13 @@
+package com.monitor.server.handler;
+
+/**
+ * Accepts alert connections from agents on the TCP port.
+ * Runs on its own thread until {@link #stop()} is called.
+ */
+public interface AlertHandler extends Runnable {
+    
+    /**
+     * Stop accepting connections and close the open ones.
+     */
+    void stop();
+}
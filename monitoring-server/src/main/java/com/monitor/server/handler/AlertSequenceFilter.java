@@ -0,0 +1,38 @@
+package com.monitor.server.handler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Drops alerts an agent re-sends after a reconnect.
+ * Remembers the highest alert sequence stored per agent.
+ */
+class AlertSequenceFilter {
+    
+    private final Map<String, Long> lastSequenceByAgent = new ConcurrentHashMap<>();
+    
+    /**
+     * Check whether an alert is new, and remember it if so.
+     * Sequence 1 means the agent restarted its counter.
+     */
+    boolean accept(String agentId, long sequence) {
+        if (sequence == 1) {
+            lastSequenceByAgent.put(agentId, sequence);
+            return true;
+        }
+        
+        Long previous = lastSequenceByAgent.get(agentId);
+        if (previous != null && sequence <= previous) {
+            return false;
+        }
+        lastSequenceByAgent.put(agentId, sequence);
+        return true;
+    }
+    
+    /**
+     * Forget an agent.
+     */
+    void remove(String agentId) {
+        lastSequenceByAgent.remove(agentId);
+    }
+}
@@ -0,0 +1,462 @@
+package com.monitor.server.handler;
+
+import com.monitor.codec.AlertCodec;
+import com.monitor.model.Alert;
+import com.monitor.server.exec.ServerExecutors;
+import com.monitor.server.storage.DataManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking TCP server for receiving alerts from agents.
+ *
+ * A fixed set of event-loop threads serve every connection through NIO
+ * selectors. The first loop also accepts, and hands new connections out
+ * round-robin. A connection only holds a small read buffer, grown while a
+ * large frame is being received, so the thread count and memory use stay flat
+ * whatever the number of connected agents. Connections without traffic for
+ * the idle timeout are closed; agents reconnect on their next alert.
+ *
+ * Speaks the same protocol as {@link TcpAlertHandler}. Java-serialized alerts
+ * from older agents are buffered until the agent closes the connection.
+ */
+public class NioTcpAlertHandler implements AlertHandler {
+    
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final int MAX_BUFFER_SIZE = AlertCodec.LENGTH_PREFIX_SIZE + AlertCodec.MAX_FRAME_SIZE;
+    private static final int ACCEPT_BACKLOG = 1024;
+    private static final long SELECT_TIMEOUT_MS = 1000;
+    
+    // Acknowledge at least every N alerts during a burst
+    private static final int ACK_BATCH = 32;
+    
+    private final int port;
+    private final int eventLoopCount;
+    private final long idleTimeoutMs;
+    private final DataManager dataManager;
+    private final ServerExecutors executors;
+    private final AlertSequenceFilter sequenceFilter = new AlertSequenceFilter();
+    private volatile boolean running = true;
+    private ServerSocketChannel serverChannel;
+    
+    private final List<EventLoop> eventLoops = new ArrayList<>();
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    
+    /**
+     * @param eventLoops    Selector threads serving all connections
+     * @param idleTimeoutMs Close connections silent for this long
+     */
+    public NioTcpAlertHandler(int port, int eventLoops, long idleTimeoutMs, DataManager dataManager,
+                              ServerExecutors executors) {
+        this.port = port;
+        this.eventLoopCount = Math.max(1, eventLoops);
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.dataManager = dataManager;
+        this.executors = executors;
+        dataManager.addEvictionListener((agentId, samples) -> sequenceFilter.remove(agentId));
+    }
+    
+    @Override
+    public void run() {
+        try {
+            for (int i = 0; i < eventLoopCount; i++) {
+                eventLoops.add(new EventLoop());
+            }
+            
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(eventLoops.get(0).selector, SelectionKey.OP_ACCEPT);
+            System.out.println("[NioTcpAlertHandler] Listening on port " + port + " (" + eventLoopCount
+                + " event loops, idle timeout " + idleTimeoutMs + "ms)");
+            
+            for (int i = 1; i < eventLoopCount; i++) {
+                executors.startThread(eventLoops.get(i), "TcpEventLoop-" + i);
+            }
+            
+            // The calling thread runs the first loop
+            eventLoops.get(0).run();
+            
+        } catch (IOException e) {
+            System.err.println("[NioTcpAlertHandler] Failed to start: " + e.getMessage());
+        } finally {
+            stop();
+        }
+    }
+    
+    /**
+     * Number of currently open agent connections.
+     */
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+    
+    /**
+     * Accept every pending connection and spread them over the event loops.
+     */
+    private void acceptAll() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            
+            int index = Math.floorMod(nextLoop.getAndIncrement(), eventLoops.size());
+            eventLoops.get(index).assign(channel);
+        }
+    }
+    
+    /**
+     * One selector thread and the connections registered with it.
+     */
+    private final class EventLoop implements Runnable {
+        
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private long lastReap = System.currentTimeMillis();
+        
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+        
+        /**
+         * Hand over a new connection; it is registered by the loop thread itself.
+         */
+        void assign(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+        
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(SELECT_TIMEOUT_MS);
+                    registerPending();
+                    
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (key.isValid()) {
+                            handleKey(key);
+                        }
+                    }
+                    
+                    reapIdle();
+                }
+            } catch (ClosedSelectorException e) {
+                // Stopped
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("[NioTcpAlertHandler] Event loop failed: " + e.getMessage());
+                }
+            } finally {
+                closeAll();
+            }
+        }
+        
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(channel, key));
+                    openConnections.incrementAndGet();
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                }
+            }
+        }
+        
+        private void handleKey(SelectionKey key) {
+            if (key.isAcceptable()) {
+                try {
+                    acceptAll();
+                } catch (IOException e) {
+                    if (running) {
+                        System.err.println("[NioTcpAlertHandler] Error accepting connection: " + e.getMessage());
+                    }
+                }
+                return;
+            }
+            
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isWritable()) {
+                    connection.flushWrites();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    connection.read();
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                connection.close("Error handling client: " + e.getMessage());
+            }
+        }
+        
+        /**
+         * Close connections that have been silent longer than the idle timeout.
+         */
+        private void reapIdle() {
+            long now = System.currentTimeMillis();
+            if (now - lastReap < SELECT_TIMEOUT_MS) {
+                return;
+            }
+            lastReap = now;
+            
+            int closed = 0;
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    Connection connection = (Connection) key.attachment();
+                    if (now - connection.lastActivity > idleTimeoutMs) {
+                        connection.close(null);
+                        closed++;
+                    }
+                }
+            }
+            if (closed > 0) {
+                System.out.println("[NioTcpAlertHandler] Closed " + closed + " idle connections");
+            }
+        }
+        
+        private void closeAll() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                closeQuietly(channel);
+            }
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close(null);
+                    }
+                }
+                selector.close();
+            } catch (ClosedSelectorException | IOException e) {
+                // Ignore
+            }
+        }
+    }
+    
+    /**
+     * State of one agent connection. Only touched by its event loop thread.
+     */
+    private final class Connection {
+        
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private ByteBuffer pendingWrite;
+        private long lastActivity = System.currentTimeMillis();
+        private boolean detected;
+        private boolean legacy;
+        private String agentId;
+        private boolean wantsAcks;
+        private boolean closed;
+        
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+        
+        void read() throws IOException, ClassNotFoundException {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                // Agent closed the connection; a legacy agent has now sent its whole alert
+                if (legacy) {
+                    readLegacyAlert();
+                }
+                close(null);
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            
+            readBuffer.flip();
+            try {
+                processFrames();
+            } finally {
+                readBuffer.compact();
+            }
+            resizeReadBuffer();
+        }
+        
+        /**
+         * Consume every complete frame in the read buffer (in read mode).
+         */
+        private void processFrames() throws IOException {
+            if (!detected) {
+                if (readBuffer.remaining() < 2) {
+                    return;
+                }
+                legacy = readBuffer.getShort(readBuffer.position()) == AlertCodec.JAVA_SERIAL_MAGIC;
+                detected = true;
+            }
+            if (legacy) {
+                return;
+            }
+            
+            if (agentId == null) {
+                AlertCodec.Preamble preamble = AlertCodec.decodePreamble(readBuffer);
+                if (preamble == null) {
+                    return;
+                }
+                agentId = preamble.getAgentId();
+                wantsAcks = preamble.wantsAcks();
+                System.out.println("[NioTcpAlertHandler] Agent connected: " + agentId);
+            }
+            
+            long highestSequence = 0;
+            int unackedCount = 0;
+            
+            while (readBuffer.remaining() >= AlertCodec.LENGTH_PREFIX_SIZE) {
+                int start = readBuffer.position();
+                int length = AlertCodec.checkFrameLength(readBuffer.getInt(start));
+                if (readBuffer.remaining() < AlertCodec.LENGTH_PREFIX_SIZE + length) {
+                    break;
+                }
+                
+                ByteBuffer body = readBuffer.duplicate();
+                body.position(start + AlertCodec.LENGTH_PREFIX_SIZE);
+                body.limit(start + AlertCodec.LENGTH_PREFIX_SIZE + length);
+                readBuffer.position(body.limit());
+                
+                AlertCodec.Frame frame = AlertCodec.decodeFrame(body);
+                if (frame.getType() != AlertCodec.FRAME_ALERT) {
+                    continue;
+                }
+                
+                if (sequenceFilter.accept(agentId, frame.getSequence())) {
+                    dataManager.addAlert(frame.getAlert());
+                }
+                highestSequence = Math.max(highestSequence, frame.getSequence());
+                if (++unackedCount >= ACK_BATCH) {
+                    sendAck(highestSequence);
+                    unackedCount = 0;
+                }
+            }
+            
+            // One ack for all the frames that arrived together
+            if (unackedCount > 0) {
+                sendAck(highestSequence);
+            }
+        }
+        
+        /**
+         * Grow the read buffer when a frame does not fit, and give the memory
+         * back once it has been consumed. The buffer is in write mode.
+         */
+        private void resizeReadBuffer() throws IOException {
+            if (!readBuffer.hasRemaining()) {
+                if (readBuffer.capacity() >= MAX_BUFFER_SIZE) {
+                    throw new IOException("Alert frame too large");
+                }
+                ByteBuffer larger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, MAX_BUFFER_SIZE));
+                readBuffer.flip();
+                larger.put(readBuffer);
+                readBuffer = larger;
+            } else if (readBuffer.position() == 0 && readBuffer.capacity() > INITIAL_BUFFER_SIZE) {
+                readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+            }
+        }
+        
+        private void readLegacyAlert() throws IOException, ClassNotFoundException {
+            readBuffer.flip();
+            try (ObjectInputStream ois = new ObjectInputStream(
+                    new ByteArrayInputStream(readBuffer.array(), 0, readBuffer.limit()))) {
+                Alert alert = (Alert) ois.readObject();
+                if (alert != null) {
+                    dataManager.addAlert(alert);
+                    System.out.println("[NioTcpAlertHandler] Received alert: " + alert);
+                }
+            }
+        }
+        
+        private void sendAck(long sequence) throws IOException {
+            if (!wantsAcks) {
+                return;
+            }
+            
+            ByteBuffer ack = ByteBuffer.wrap(AlertCodec.encodeAckFrame(sequence));
+            if (pendingWrite != null) {
+                // Keep the unsent rest of the previous ack so the stream stays framed
+                ByteBuffer merged = ByteBuffer.allocate(pendingWrite.remaining() + ack.remaining());
+                merged.put(pendingWrite).put(ack).flip();
+                ack = merged;
+            }
+            pendingWrite = ack;
+            flushWrites();
+        }
+        
+        void flushWrites() throws IOException {
+            if (pendingWrite != null) {
+                channel.write(pendingWrite);
+                if (!pendingWrite.hasRemaining()) {
+                    pendingWrite = null;
+                }
+            }
+            // Only ask for writability while the socket buffer is full
+            key.interestOps(pendingWrite == null
+                ? SelectionKey.OP_READ
+                : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+        
+        void close(String reason) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            openConnections.decrementAndGet();
+            if (reason != null) {
+                System.err.println("[NioTcpAlertHandler] " + reason);
+            }
+            key.cancel();
+            closeQuietly(channel);
+        }
+    }
+    
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+    
+    /**
+     * Stop the handler.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        
+        for (EventLoop loop : eventLoops) {
+            loop.selector.wakeup();
+        }
+        
+        if (serverChannel != null && serverChannel.isOpen()) {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+        
+        System.out.println("[NioTcpAlertHandler] Stopped");
+    }
+}
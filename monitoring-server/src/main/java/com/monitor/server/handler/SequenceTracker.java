@@ -0,0 +1,163 @@
+package com.monitor.server.handler;
+
+import com.monitor.model.AgentLinkStats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks per-agent metric sequence numbers to detect lost, duplicated
+ * and reordered UDP datagrams.
+ *
+ * Each agent keeps a sliding bitmap of the last {@link #WINDOW} sequence
+ * numbers. A sample that arrives below the highest sequence seen but inside
+ * the window is counted as late; one whose bit is already set is a duplicate.
+ * Sequence numbers that slide out of the window without being seen are lost.
+ */
+public class SequenceTracker {
+    
+    // Reordering window in sequence numbers (multiple of 64)
+    private static final int WINDOW = 256;
+    
+    private final Map<String, AgentWindow> windows = new ConcurrentHashMap<>();
+    
+    /**
+     * Record a received sequence number. Sequence 0 (unknown, old agents) is ignored.
+     */
+    public void record(String agentId, long sequence) {
+        if (sequence <= 0) {
+            return;
+        }
+        windows.computeIfAbsent(agentId, k -> new AgentWindow()).record(sequence);
+    }
+    
+    /**
+     * Get delivery statistics for every tracked agent.
+     */
+    public List<AgentLinkStats> getLinkStats() {
+        List<AgentLinkStats> result = new ArrayList<>(windows.size());
+        for (Map.Entry<String, AgentWindow> entry : windows.entrySet()) {
+            result.add(entry.getValue().snapshot(entry.getKey()));
+        }
+        return result;
+    }
+    
+    /**
+     * Stop tracking an agent.
+     */
+    public void remove(String agentId) {
+        windows.remove(agentId);
+    }
+    
+    /**
+     * Sliding bitmap for one agent. Sequence s lives at bit (s % WINDOW).
+     */
+    private static final class AgentWindow {
+        
+        private final long[] bits = new long[WINDOW / 64];
+        private long first;
+        private long highest;
+        private long received;
+        private long lost;
+        private long duplicates;
+        private long late;
+        
+        synchronized void record(long sequence) {
+            if (highest == 0 || (sequence == 1 && highest > WINDOW)) {
+                // First sample, or the agent restarted its counter
+                reset(sequence);
+                return;
+            }
+            
+            if (sequence > highest) {
+                advance(sequence);
+                set(sequence);
+                highest = sequence;
+                received++;
+            } else if (sequence <= highest - WINDOW) {
+                // Too old to tell apart from a duplicate; already counted as lost
+                late++;
+            } else if (isSet(sequence)) {
+                duplicates++;
+            } else {
+                set(sequence);
+                received++;
+                late++;
+            }
+        }
+        
+        /**
+         * Slide the window so that its top is the new highest sequence,
+         * counting the sequence numbers that leave it unseen.
+         */
+        private void advance(long newHighest) {
+            long leavingFrom = Math.max(first, highest - WINDOW + 1);
+            long leavingTo = newHighest - WINDOW; // inclusive
+            
+            // Sequences currently in the window that fall out
+            long windowEnd = Math.min(leavingTo, highest);
+            for (long s = leavingFrom; s <= windowEnd; s++) {
+                if (!isSet(s)) {
+                    lost++;
+                }
+            }
+            // Gap sequences that were never in the window at all
+            if (leavingTo > highest) {
+                lost += leavingTo - highest;
+            }
+            
+            // Free the slots the new sequences will use
+            long clearFrom = Math.max(highest + 1, newHighest - WINDOW + 1);
+            for (long s = clearFrom; s <= newHighest; s++) {
+                clear(s);
+            }
+        }
+        
+        private void reset(long sequence) {
+            Arrays.fill(bits, 0L);
+            first = sequence;
+            highest = sequence;
+            received = 1;
+            lost = 0;
+            duplicates = 0;
+            late = 0;
+            set(sequence);
+        }
+        
+        private boolean isSet(long sequence) {
+            int slot = (int) (sequence % WINDOW);
+            return (bits[slot >>> 6] & (1L << (slot & 63))) != 0;
+        }
+        
+        private void set(long sequence) {
+            int slot = (int) (sequence % WINDOW);
+            bits[slot >>> 6] |= 1L << (slot & 63);
+        }
+        
+        private void clear(long sequence) {
+            int slot = (int) (sequence % WINDOW);
+            bits[slot >>> 6] &= ~(1L << (slot & 63));
+        }
+        
+        synchronized AgentLinkStats snapshot(String agentId) {
+            // Gaps still inside the window count as lost until they arrive
+            long pending = 0;
+            for (long s = Math.max(first, highest - WINDOW + 1); s < highest; s++) {
+                if (!isSet(s)) {
+                    pending++;
+                }
+            }
+            
+            AgentLinkStats stats = new AgentLinkStats(agentId);
+            stats.setExpected(highest - first + 1);
+            stats.setReceived(received);
+            stats.setLost(lost + pending);
+            stats.setDuplicates(duplicates);
+            stats.setLate(late);
+            return stats;
+        }
+    }
+}
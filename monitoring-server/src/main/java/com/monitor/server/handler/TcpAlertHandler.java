@@ -1,31 +1,52 @@
 package com.monitor.server.handler;
 
+import com.monitor.codec.AlertCodec;
 import com.monitor.model.Alert;
+import com.monitor.server.exec.ServerExecutors;
 import com.monitor.server.storage.DataManager;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * TCP server for receiving alerts from agents.
- * Handles multiple clients with a thread pool.
+ * Each client is served by a blocking task on {@link ServerExecutors}, on a
+ * platform or virtual thread depending on the server's thread mode.
+ *
+ * Agents keep one connection open and stream length-prefixed
+ * {@link AlertCodec} frames over it. If the agent asked for acknowledgements,
+ * a cumulative ACK is sent whenever no further frame is already waiting, or
+ * every {@link #ACK_BATCH} alerts. Older agents that send a single
+ * Java-serialized alert per connection are still accepted.
  */
-public class TcpAlertHandler implements Runnable {
+public class TcpAlertHandler implements AlertHandler {
+    
+    // Acknowledge at least every N alerts during a burst
+    private static final int ACK_BATCH = 32;
     
     private final int port;
     private final DataManager dataManager;
     private volatile boolean running = true;
     private ServerSocket serverSocket;
-    private final ExecutorService clientPool;
+    private final ServerExecutors executors;
+    private final Set<Socket> openClients = ConcurrentHashMap.newKeySet();
+    private final AlertSequenceFilter sequenceFilter = new AlertSequenceFilter();
     
-    public TcpAlertHandler(int port) {
+    public TcpAlertHandler(int port, DataManager dataManager, ServerExecutors executors) {
         this.port = port;
-        this.dataManager = DataManager.getInstance();
-        this.clientPool = Executors.newCachedThreadPool();
+        this.dataManager = dataManager;
+        this.executors = executors;
+        dataManager.addEvictionListener((agentId, samples) -> sequenceFilter.remove(agentId));
     }
     
     @Override
@@ -37,7 +58,7 @@ public class TcpAlertHandler implements Runnable {
             while (running) {
                 try {
                     Socket clientSocket = serverSocket.accept();
-                    clientPool.submit(() -> handleClient(clientSocket));
+                    executors.execute(() -> handleClient(clientSocket));
                 } catch (IOException e) {
                     if (running) {
                         System.err.println("[TcpAlertHandler] Error accepting connection: " + e.getMessage());
@@ -56,17 +77,25 @@ public class TcpAlertHandler implements Runnable {
      * Handle a single client connection.
      */
     private void handleClient(Socket socket) {
-        try (ObjectInputStream ois = new ObjectInputStream(socket.getInputStream())) {
-            Alert alert = (Alert) ois.readObject();
+        openClients.add(socket);
+        try (BufferedInputStream in = new BufferedInputStream(socket.getInputStream())) {
+            // Peek at the first two bytes to tell framed agents from legacy ones
+            in.mark(2);
+            int magic = (in.read() << 8) | in.read();
+            in.reset();
             
-            if (alert != null) {
-                dataManager.addAlert(alert);
-                System.out.println("[TcpAlertHandler] Received alert: " + alert);
+            if ((short) magic == AlertCodec.JAVA_SERIAL_MAGIC) {
+                handleLegacyClient(in);
+            } else {
+                handleFramedClient(socket, in);
             }
             
+        } catch (EOFException e) {
+            // Agent closed the connection
         } catch (IOException | ClassNotFoundException e) {
             System.err.println("[TcpAlertHandler] Error handling client: " + e.getMessage());
         } finally {
+            openClients.remove(socket);
             try {
                 socket.close();
             } catch (IOException e) {
@@ -75,12 +104,86 @@ public class TcpAlertHandler implements Runnable {
         }
     }
     
+    /**
+     * Read the single Java-serialized alert sent by an older agent.
+     */
+    private void handleLegacyClient(BufferedInputStream in) throws IOException, ClassNotFoundException {
+        long start = System.nanoTime();
+        ObjectInputStream ois = new ObjectInputStream(in);
+        Alert alert = (Alert) ois.readObject();
+        
+        if (alert != null) {
+            dataManager.addAlert(alert);
+            System.out.println("[TcpAlertHandler] Received alert: " + alert);
+        }
+        executors.recordRequest(System.nanoTime() - start);
+    }
+    
+    /**
+     * Read alert frames from a persistent connection until the agent disconnects.
+     */
+    private void handleFramedClient(Socket socket, BufferedInputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        AlertCodec.Preamble preamble = readPreamble(data);
+        String agentId = preamble.getAgentId();
+        OutputStream out = preamble.wantsAcks() ? new BufferedOutputStream(socket.getOutputStream()) : null;
+        System.out.println("[TcpAlertHandler] Agent connected: " + agentId);
+        
+        long highestSequence = 0;
+        int unackedCount = 0;
+        
+        while (running) {
+            int length = AlertCodec.checkFrameLength(data.readInt());
+            long start = System.nanoTime();
+            byte[] body = new byte[length];
+            data.readFully(body);
+            
+            AlertCodec.Frame frame = AlertCodec.decodeFrame(ByteBuffer.wrap(body));
+            if (frame.getType() != AlertCodec.FRAME_ALERT) {
+                continue;
+            }
+            
+            if (sequenceFilter.accept(agentId, frame.getSequence())) {
+                dataManager.addAlert(frame.getAlert());
+            }
+            highestSequence = Math.max(highestSequence, frame.getSequence());
+            unackedCount++;
+            
+            // Batch acks: reply once the pipelined frames are drained
+            if (out != null && (in.available() == 0 || unackedCount >= ACK_BATCH)) {
+                out.write(AlertCodec.encodeAckFrame(highestSequence));
+                out.flush();
+                unackedCount = 0;
+            }
+            executors.recordRequest(System.nanoTime() - start);
+        }
+    }
+    
+    private AlertCodec.Preamble readPreamble(DataInputStream data) throws IOException {
+        byte[] head = new byte[6];
+        data.readFully(head);
+        int idLength = ((head[4] & 0xFF) << 8) | (head[5] & 0xFF);
+        byte[] preamble = new byte[6 + idLength];
+        System.arraycopy(head, 0, preamble, 0, 6);
+        data.readFully(preamble, 6, idLength);
+        return AlertCodec.decodePreamble(ByteBuffer.wrap(preamble));
+    }
+    
     /**
      * Stop the handler.
      */
+    @Override
     public void stop() {
         running = false;
-        clientPool.shutdown();
+        
+        // Persistent connections block in read; closing them releases their threads
+        for (Socket client : openClients) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
         
         if (serverSocket != null && !serverSocket.isClosed()) {
             try {
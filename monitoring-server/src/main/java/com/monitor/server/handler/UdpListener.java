@@ -1,88 +1,302 @@
 package com.monitor.server.handler;
 
+import com.monitor.codec.MetricCodec;
 import com.monitor.model.Metric;
+import com.monitor.server.alert.AlertEngine;
+import com.monitor.server.exec.ServerExecutors;
 import com.monitor.server.storage.DataManager;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * UDP listener for receiving metrics from agents.
- * Runs in its own thread.
+ * Accepts both the binary {@link MetricCodec} format and Java-serialized
+ * metrics from older agents, detected per datagram.
+ *
+ * Ingest is a two-stage pipeline on a {@link DatagramChannel}:
+ * receiver threads drain the socket into pooled direct buffers and hand them
+ * to a bounded queue per worker; workers decode and store. An agent is always
+ * routed to the same worker (by agent ID hash), so per-agent order is kept.
+ * Workers also run each metric through the {@link AlertEngine}.
+ * When a worker queue is full the datagram is dropped and counted rather than
+ * stalling the receivers.
  */
 public class UdpListener implements Runnable {
     
-    private static final int BUFFER_SIZE = 8192;
+    // Large enough for a full batch datagram and for legacy serialized metrics
+    private static final int BUFFER_SIZE = 2048;
+    private static final int SOCKET_RECEIVE_BUFFER = 4 * 1024 * 1024;
     
     private final int port;
+    private final int receiverThreads;
+    private final int workerThreads;
+    private final int queueCapacity;
     private final DataManager dataManager;
+    private final ServerExecutors executors;
+    private final AlertEngine alertEngine;
+    private final SequenceTracker sequenceTracker = new SequenceTracker();
     private volatile boolean running = true;
-    private DatagramSocket socket;
+    private DatagramChannel channel;
     
-    public UdpListener(int port) {
+    private final BlockingQueue<ByteBuffer> bufferPool;
+    private final List<BlockingQueue<ByteBuffer>> workerQueues;
+    private final List<Thread> threads = new ArrayList<>();
+    
+    // Counters
+    private final AtomicLong packetsReceived = new AtomicLong();
+    private final AtomicLong metricsStored = new AtomicLong();
+    private final AtomicLong droppedQueueFull = new AtomicLong();
+    private final AtomicLong droppedNoBuffer = new AtomicLong();
+    private final AtomicLong decodeErrors = new AtomicLong();
+    
+    /**
+     * @param receiverThreads Threads draining the socket
+     * @param workerThreads   Threads decoding and storing metrics
+     * @param queueCapacity   Datagrams each worker may have waiting
+     */
+    public UdpListener(int port, int receiverThreads, int workerThreads, int queueCapacity,
+                       DataManager dataManager, ServerExecutors executors, AlertEngine alertEngine) {
         this.port = port;
-        this.dataManager = DataManager.getInstance();
+        this.receiverThreads = Math.max(1, receiverThreads);
+        this.workerThreads = Math.max(1, workerThreads);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.dataManager = dataManager;
+        this.executors = executors;
+        this.alertEngine = alertEngine;
+        
+        // Agents evicted from the store are no longer tracked
+        dataManager.addEvictionListener((agentId, samples) -> sequenceTracker.remove(agentId));
+        
+        // One buffer per queue slot plus one in flight per receiver
+        int poolSize = this.workerThreads * this.queueCapacity + this.receiverThreads;
+        this.bufferPool = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            bufferPool.offer(ByteBuffer.allocateDirect(BUFFER_SIZE));
+        }
+        
+        this.workerQueues = new ArrayList<>(this.workerThreads);
+        for (int i = 0; i < this.workerThreads; i++) {
+            workerQueues.add(new ArrayBlockingQueue<>(this.queueCapacity));
+        }
     }
     
     @Override
     public void run() {
         try {
-            socket = new DatagramSocket(port);
-            System.out.println("[UdpListener] Listening on port " + port);
+            channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_RECEIVE_BUFFER);
+            channel.bind(new InetSocketAddress(port));
+            System.out.println("[UdpListener] Listening on port " + port + " (" + receiverThreads
+                + " receivers, " + workerThreads + " workers, queue " + queueCapacity + ")");
             
-            byte[] buffer = new byte[BUFFER_SIZE];
-            
-            while (running) {
-                try {
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(packet);
-                    
-                    // Deserialize the metric
-                    Metric metric = deserialize(packet.getData(), packet.getLength());
-                    
-                    if (metric != null) {
-                        dataManager.addMetric(metric);
-                        System.out.println("[UdpListener] Received: " + metric);
-                    }
-                    
-                } catch (IOException e) {
-                    if (running) {
-                        System.err.println("[UdpListener] Error receiving packet: " + e.getMessage());
-                    }
-                } catch (ClassNotFoundException e) {
-                    System.err.println("[UdpListener] Error deserializing metric: " + e.getMessage());
-                }
+            for (int i = 0; i < workerThreads; i++) {
+                BlockingQueue<ByteBuffer> queue = workerQueues.get(i);
+                startThread(() -> workerLoop(queue), "UdpWorker-" + i);
             }
+            for (int i = 1; i < receiverThreads; i++) {
+                startThread(this::receiveLoop, "UdpReceiver-" + i);
+            }
+            
+            // The calling thread is the first receiver
+            receiveLoop();
             
         } catch (IOException e) {
             System.err.println("[UdpListener] Failed to start: " + e.getMessage());
         } finally {
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
+            stop();
+        }
+    }
+    
+    private void startThread(Runnable task, String name) {
+        threads.add(executors.startThread(task, name));
+    }
+    
+    /**
+     * Drain the socket into pooled buffers and hand them to workers.
+     */
+    private void receiveLoop() {
+        ByteBuffer scratch = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        
+        while (running) {
+            ByteBuffer buffer = bufferPool.poll();
+            boolean pooled = buffer != null;
+            if (!pooled) {
+                buffer = scratch;
+            }
+            
+            try {
+                buffer.clear();
+                SocketAddress source = channel.receive(buffer);
+                if (source == null) {
+                    recycle(buffer, pooled);
+                    continue;
+                }
+                buffer.flip();
+                packetsReceived.incrementAndGet();
+                
+                if (!pooled) {
+                    // Every buffer is queued: workers are behind, drop this datagram
+                    droppedNoBuffer.incrementAndGet();
+                    continue;
+                }
+                
+                int worker = Math.floorMod(routingHash(buffer, source), workerThreads);
+                if (!workerQueues.get(worker).offer(buffer)) {
+                    droppedQueueFull.incrementAndGet();
+                    recycle(buffer, true);
+                }
+                
+            } catch (ClosedChannelException e) {
+                recycle(buffer, pooled);
+                break;
+            } catch (IOException e) {
+                recycle(buffer, pooled);
+                if (running) {
+                    System.err.println("[UdpListener] Error receiving packet: " + e.getMessage());
+                }
             }
         }
     }
     
     /**
-     * Deserialize bytes to Metric object.
+     * Decode and store datagrams routed to one worker.
      */
-    private Metric deserialize(byte[] data, int length) throws IOException, ClassNotFoundException {
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(data, 0, length);
+    private void workerLoop(BlockingQueue<ByteBuffer> queue) {
+        while (running) {
+            ByteBuffer buffer;
+            try {
+                buffer = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            
+            try {
+                // Deserialize the metric (or batch of metrics)
+                List<Metric> metrics = deserialize(buffer);
+                
+                for (Metric metric : metrics) {
+                    sequenceTracker.record(metric.getAgentId(), metric.getSequence());
+                    dataManager.addMetric(metric);
+                    alertEngine.evaluate(metric);
+                }
+                metricsStored.addAndGet(metrics.size());
+                
+            } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                decodeErrors.incrementAndGet();
+                System.err.println("[UdpListener] Error deserializing metric: " + e.getMessage());
+            } finally {
+                recycle(buffer, true);
+            }
+        }
+    }
+    
+    private void recycle(ByteBuffer buffer, boolean pooled) {
+        if (pooled) {
+            buffer.clear();
+            bufferPool.offer(buffer);
+        }
+    }
+    
+    /**
+     * Pick the worker key for a datagram: the agent ID for binary payloads,
+     * the sender address otherwise (one agent = one socket).
+     */
+    private int routingHash(ByteBuffer buffer, SocketAddress source) {
+        if (MetricCodec.detect(buffer) == MetricCodec.Format.BINARY) {
+            return MetricCodec.agentIdHash(buffer);
+        }
+        return source.hashCode();
+    }
+    
+    /**
+     * Deserialize a datagram to the metrics it carries (one, or several for a batch).
+     */
+    private List<Metric> deserialize(ByteBuffer buffer) throws IOException, ClassNotFoundException {
+        switch (MetricCodec.detect(buffer)) {
+            case BINARY:
+                return MetricCodec.decodeAll(buffer);
+            case JAVA_SERIALIZATION:
+                return List.of(deserializeLegacy(buffer));
+            default:
+                throw new IOException("Unknown metric payload format");
+        }
+    }
+    
+    /**
+     * Deserialize a metric sent with Java serialization by an older agent.
+     */
+    private Metric deserializeLegacy(ByteBuffer buffer) throws IOException, ClassNotFoundException {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        
+        try (ByteArrayInputStream bais = new ByteArrayInputStream(data);
              ObjectInputStream ois = new ObjectInputStream(bais)) {
             return (Metric) ois.readObject();
         }
     }
     
+    /**
+     * Per-agent loss and reordering tracking fed by this listener.
+     */
+    public SequenceTracker getSequenceTracker() {
+        return sequenceTracker;
+    }
+    
+    /**
+     * Total datagrams currently waiting in worker queues.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (BlockingQueue<ByteBuffer> queue : workerQueues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+    
+    public long getDroppedCount() {
+        return droppedQueueFull.get() + droppedNoBuffer.get();
+    }
+    
+    /**
+     * Get ingest counters for logging.
+     */
+    public String getStats() {
+        return String.format("UDP packets: %d, metrics: %d, queued: %d, dropped: %d (queue full %d, no buffer %d), decode errors: %d",
+            packetsReceived.get(), metricsStored.get(), getQueueDepth(), getDroppedCount(),
+            droppedQueueFull.get(), droppedNoBuffer.get(), decodeErrors.get());
+    }
+    
     /**
      * Stop the listener.
      */
     public void stop() {
+        if (!running) {
+            return;
+        }
         running = false;
-        if (socket != null && !socket.isClosed()) {
-            socket.close();
+        
+        if (channel != null && channel.isOpen()) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
         }
         System.out.println("[UdpListener] Stopped");
     }
@@ -1,5 +1,6 @@
 package com.monitor.server.service;
 
+import com.monitor.model.AgentLinkStats;
 import com.monitor.model.Alert;
 import com.monitor.model.AlertConfig;
 import com.monitor.model.Metric;
@@ -8,9 +9,11 @@ import com.monitor.model.User;
 import com.monitor.model.User.Role;
 import com.monitor.rmi.IMonitoringService;
 import com.monitor.server.export.DataExporter;
+import com.monitor.server.handler.SequenceTracker;
 import com.monitor.server.security.UserManager;
 import com.monitor.server.storage.AlertConfigManager;
 import com.monitor.server.storage.DataManager;
+import com.monitor.server.storage.RollupSlice;
 
 import java.nio.charset.StandardCharsets;
 import java.rmi.RemoteException;
@@ -30,10 +33,12 @@ public class MonitoringServiceImpl extends UnicastRemoteObject implements IMonit
     private final AlertConfigManager alertConfigManager;
     private final StatisticsService statisticsService;
     private final DataExporter dataExporter;
+    private final SequenceTracker sequenceTracker;
     
-    public MonitoringServiceImpl() throws RemoteException {
+    public MonitoringServiceImpl(DataManager dataManager, SequenceTracker sequenceTracker) throws RemoteException {
         super();
-        this.dataManager = DataManager.getInstance();
+        this.sequenceTracker = sequenceTracker;
+        this.dataManager = dataManager;
         this.userManager = UserManager.getInstance();
         this.alertConfigManager = AlertConfigManager.getInstance();
         this.statisticsService = new StatisticsService();
@@ -101,6 +106,18 @@ public class MonitoringServiceImpl extends UnicastRemoteObject implements IMonit
         return agents;
     }
     
+    @Override
+    public List<String> searchAgents(String query, int limit) throws RemoteException {
+        List<String> agents = dataManager.searchAgents(query, limit);
+        System.out.println("[RMI] searchAgents('" + query + "', " + limit + ") -> " + agents.size() + " agents");
+        return agents;
+    }
+    
+    @Override
+    public List<AgentLinkStats> getAgentLinkStats() throws RemoteException {
+        return sequenceTracker.getLinkStats();
+    }
+    
     // ==================== Metrics ====================
     
     @Override
@@ -124,12 +141,19 @@ public class MonitoringServiceImpl extends UnicastRemoteObject implements IMonit
         return metrics;
     }
     
+    @Override
+    public List<Metric> getMetricsByDateRange(String agentId, long fromTime, long toTime, long resolutionMs) throws RemoteException {
+        List<Metric> metrics = dataManager.getMetricsByDateRange(agentId, fromTime, toTime, resolutionMs);
+        System.out.println("[RMI] getMetricsByDateRange(" + agentId + ", " + resolutionMs + "ms) -> " + metrics.size() + " metrics");
+        return metrics;
+    }
+    
     // ==================== Statistics ====================
     
     @Override
     public MetricStatistics getStatistics(String agentId, long fromTime, long toTime) throws RemoteException {
-        List<Metric> metrics = dataManager.getAllMetrics(agentId);
-        MetricStatistics stats = statisticsService.calculateStatistics(agentId, metrics, fromTime, toTime);
+        RollupSlice slice = dataManager.getRollupSlice(agentId, fromTime, toTime);
+        MetricStatistics stats = statisticsService.calculateStatistics(agentId, slice, fromTime, toTime);
         System.out.println("[RMI] getStatistics(" + agentId + ") -> " + stats);
         return stats;
     }
@@ -186,7 +210,7 @@ public class MonitoringServiceImpl extends UnicastRemoteObject implements IMonit
     
     @Override
     public byte[] exportMetricsCSV(String agentId, long fromTime, long toTime) throws RemoteException {
-        List<Metric> metrics = dataManager.getMetricsByDateRange(agentId, fromTime, toTime);
+        List<Metric> metrics = dataManager.getMetricsByDateRange(agentId, fromTime, toTime, 0);
         String csv = dataExporter.exportMetricsToCSV(metrics);
         System.out.println("[RMI] exportMetricsCSV(" + agentId + ") -> " + metrics.size() + " rows");
         return csv.getBytes(StandardCharsets.UTF_8);
@@ -194,7 +218,7 @@ public class MonitoringServiceImpl extends UnicastRemoteObject implements IMonit
     
     @Override
     public byte[] exportMetricsJSON(String agentId, long fromTime, long toTime) throws RemoteException {
-        List<Metric> metrics = dataManager.getMetricsByDateRange(agentId, fromTime, toTime);
+        List<Metric> metrics = dataManager.getMetricsByDateRange(agentId, fromTime, toTime, 0);
         String json = dataExporter.exportMetricsToJSON(metrics);
         System.out.println("[RMI] exportMetricsJSON(" + agentId + ") -> " + metrics.size() + " rows");
         return json.getBytes(StandardCharsets.UTF_8);
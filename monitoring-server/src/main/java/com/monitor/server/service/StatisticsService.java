@@ -1,9 +1,7 @@
 package com.monitor.server.service;
 
-import com.monitor.model.Metric;
 import com.monitor.model.MetricStatistics;
-
-import java.util.List;
+import com.monitor.server.storage.RollupSlice;
 
 /**
  * Service for calculating statistics from metrics.
@@ -11,127 +9,110 @@ import java.util.List;
 public class StatisticsService {
     
     /**
-     * Calculate statistics for a list of metrics.
+     * Calculate statistics from rollup buckets (or raw samples as one-sample
+     * buckets) already limited to the time range.
      */
-    public MetricStatistics calculateStatistics(String agentId, List<Metric> metrics, long fromTime, long toTime) {
+    public MetricStatistics calculateStatistics(String agentId, RollupSlice slice, long fromTime, long toTime) {
         MetricStatistics stats = new MetricStatistics(agentId, fromTime, toTime);
         
-        if (metrics.isEmpty()) {
-            stats.setSampleCount(0);
-            return stats;
+        int samples = 0;
+        for (int i = 0; i < slice.size(); i++) {
+            samples += slice.getCount(i);
         }
-        
-        // Filter metrics by time range
-        List<Metric> filtered = metrics.stream()
-            .filter(m -> m.getTimestamp() >= fromTime && m.getTimestamp() <= toTime)
-            .toList();
-        
-        if (filtered.isEmpty()) {
-            stats.setSampleCount(0);
+        stats.setSampleCount(samples);
+        if (samples == 0) {
             return stats;
         }
         
-        stats.setSampleCount(filtered.size());
-        
         // Calculate CPU statistics
-        double[] cpuValues = filtered.stream().mapToDouble(Metric::getCpuUsage).toArray();
-        stats.setCpuAvg(round(average(cpuValues)));
-        stats.setCpuMin(round(min(cpuValues)));
-        stats.setCpuMax(round(max(cpuValues)));
-        stats.setCpuStdDev(round(stdDev(cpuValues)));
-        stats.setCpuTrend(calculateTrend(cpuValues));
+        stats.setCpuAvg(round(average(slice, RollupSlice.CPU, samples)));
+        stats.setCpuMin(round(min(slice, RollupSlice.CPU)));
+        stats.setCpuMax(round(max(slice, RollupSlice.CPU)));
+        stats.setCpuStdDev(round(stdDev(slice, RollupSlice.CPU, samples)));
+        stats.setCpuTrend(calculateTrend(slice, RollupSlice.CPU));
         
         // Calculate RAM statistics
-        double[] ramValues = filtered.stream().mapToDouble(Metric::getRamUsage).toArray();
-        stats.setRamAvg(round(average(ramValues)));
-        stats.setRamMin(round(min(ramValues)));
-        stats.setRamMax(round(max(ramValues)));
-        stats.setRamStdDev(round(stdDev(ramValues)));
-        stats.setRamTrend(calculateTrend(ramValues));
+        stats.setRamAvg(round(average(slice, RollupSlice.RAM, samples)));
+        stats.setRamMin(round(min(slice, RollupSlice.RAM)));
+        stats.setRamMax(round(max(slice, RollupSlice.RAM)));
+        stats.setRamStdDev(round(stdDev(slice, RollupSlice.RAM, samples)));
+        stats.setRamTrend(calculateTrend(slice, RollupSlice.RAM));
         
         // Calculate Disk statistics
-        double[] diskValues = filtered.stream().mapToDouble(Metric::getDiskUsage).toArray();
-        stats.setDiskAvg(round(average(diskValues)));
-        stats.setDiskMin(round(min(diskValues)));
-        stats.setDiskMax(round(max(diskValues)));
-        stats.setDiskStdDev(round(stdDev(diskValues)));
-        stats.setDiskTrend(calculateTrend(diskValues));
+        stats.setDiskAvg(round(average(slice, RollupSlice.DISK, samples)));
+        stats.setDiskMin(round(min(slice, RollupSlice.DISK)));
+        stats.setDiskMax(round(max(slice, RollupSlice.DISK)));
+        stats.setDiskStdDev(round(stdDev(slice, RollupSlice.DISK, samples)));
+        stats.setDiskTrend(calculateTrend(slice, RollupSlice.DISK));
         
         return stats;
     }
     
-    /**
-     * Calculate average.
-     */
-    private double average(double[] values) {
-        if (values.length == 0) return 0;
+    private double average(RollupSlice slice, int gauge, int samples) {
         double sum = 0;
-        for (double v : values) sum += v;
-        return sum / values.length;
+        for (int i = 0; i < slice.size(); i++) sum += slice.getSum(gauge, i);
+        return sum / samples;
     }
     
-    /**
-     * Calculate minimum.
-     */
-    private double min(double[] values) {
-        if (values.length == 0) return 0;
-        double min = values[0];
-        for (double v : values) {
-            if (v < min) min = v;
+    private double min(RollupSlice slice, int gauge) {
+        double min = Double.MAX_VALUE;
+        for (int i = 0; i < slice.size(); i++) {
+            if (slice.getCount(i) > 0 && slice.getMin(gauge, i) < min) min = slice.getMin(gauge, i);
         }
         return min;
     }
     
-    /**
-     * Calculate maximum.
-     */
-    private double max(double[] values) {
-        if (values.length == 0) return 0;
-        double max = values[0];
-        for (double v : values) {
-            if (v > max) max = v;
+    private double max(RollupSlice slice, int gauge) {
+        double max = -Double.MAX_VALUE;
+        for (int i = 0; i < slice.size(); i++) {
+            if (slice.getCount(i) > 0 && slice.getMax(gauge, i) > max) max = slice.getMax(gauge, i);
         }
         return max;
     }
     
     /**
-     * Calculate standard deviation.
+     * Population standard deviation from the sums of values and of squares.
      */
-    private double stdDev(double[] values) {
-        if (values.length < 2) return 0;
+    private double stdDev(RollupSlice slice, int gauge, int samples) {
+        if (samples < 2) return 0;
         
-        double avg = average(values);
+        double avg = average(slice, gauge, samples);
         double sumSquares = 0;
+        for (int i = 0; i < slice.size(); i++) sumSquares += slice.getSumSquares(gauge, i);
         
-        for (double v : values) {
-            sumSquares += (v - avg) * (v - avg);
-        }
-        
-        return Math.sqrt(sumSquares / values.length);
+        return Math.sqrt(Math.max(0, sumSquares / samples - avg * avg));
     }
     
     /**
      * Calculate trend (RISING, FALLING, STABLE).
-     * Uses linear regression slope.
+     * Uses the linear regression slope of the values over their sample
+     * position, each bucket average placed at the middle of its samples and
+     * weighted by their number, so the slope is per sample whatever the
+     * bucket width and raw samples give the plain regression.
      */
-    private String calculateTrend(double[] values) {
-        if (values.length < 2) return "STABLE";
-        
-        // Simple linear regression
-        int n = values.length;
-        double sumX = 0, sumY = 0, sumXY = 0, sumX2 = 0;
+    private String calculateTrend(RollupSlice slice, int gauge) {
+        double weight = 0, sumX = 0, sumY = 0, sumXY = 0, sumX2 = 0;
+        long position = 0;
         
-        for (int i = 0; i < n; i++) {
-            sumX += i;
-            sumY += values[i];
-            sumXY += i * values[i];
-            sumX2 += i * i;
+        for (int i = 0; i < slice.size(); i++) {
+            int count = slice.getCount(i);
+            if (count == 0) continue;
+            double x = position + (count - 1) / 2.0;
+            double y = slice.getAverage(gauge, i);
+            weight += count;
+            sumX += count * x;
+            sumY += count * y;
+            sumXY += count * x * y;
+            sumX2 += count * x * x;
+            position += count;
         }
         
-        double slope = (n * sumXY - sumX * sumY) / (n * sumX2 - sumX * sumX);
+        double denominator = weight * sumX2 - sumX * sumX;
+        if (position < 2 || denominator <= 0) return "STABLE";
+        double slope = (weight * sumXY - sumX * sumY) / denominator;
         
         // Determine trend based on slope
-        // Threshold: slope > 0.5 means rising, < -0.5 means falling
+        // Threshold: slope > 0.5 per sample means rising, < -0.5 means falling
         if (slope > 0.5) {
             return "RISING";
         } else if (slope < -0.5) {
@@ -0,0 +1,28 @@
+package com.monitor.server.storage;
+
+/**
+ * Names of the files and directories kept per agent.
+ */
+final class AgentFiles {
+    
+    private AgentFiles() {
+    }
+    
+    /**
+     * The agent ID made file-safe, plus the hash of the raw ID so that IDs
+     * differing only in replaced characters (e.g. {@code a:1} and {@code a_1})
+     * get different names. Crafted IDs can still collide, so callers check
+     * whose a file is before reusing it.
+     */
+    static String baseName(String agentId) {
+        return safeName(agentId) + "-" + Integer.toHexString(agentId.hashCode());
+    }
+    
+    /**
+     * The agent ID with every character other than letters, digits, dots and
+     * dashes replaced by an underscore.
+     */
+    static String safeName(String agentId) {
+        return agentId.replaceAll("[^a-zA-Z0-9.-]", "_");
+    }
+}
@@ -0,0 +1,163 @@
+package com.monitor.server.storage;
+
+import com.monitor.model.Metric;
+
+/**
+ * Everything stored about one agent's metrics: the raw samples and the
+ * rollup tiers, from finest to coarsest, all updated on every sample.
+ *
+ * Writers hold the history's monitor, which is also how it is closed when
+ * the agent is evicted. Samples arriving while the eviction is in progress
+ * are set aside, for the eviction to move to the agent's next history once
+ * it has {@link #release released} this one; a writer that finds it released
+ * must look the agent up again.
+ */
+class AgentHistory {
+    
+    final MetricRing raw;
+    final RollupRing[] rollups;
+    
+    // Guarded by this: samples are set aside once closed, refused once released
+    private boolean closed;
+    private boolean released;
+    private MetricSlice.Builder arrivedClosed;
+    
+    AgentHistory(MetricRing raw, RollupRing... rollups) {
+        this.raw = raw;
+        this.rollups = rollups;
+    }
+    
+    /**
+     * @return false if the history was released and the sample not added
+     */
+    synchronized boolean add(Metric metric) {
+        if (closed) {
+            return setAside(metric.getAgentId(), metric.getTimestamp(), metric.getCpuUsage(), metric.getRamUsage(),
+                metric.getDiskUsage());
+        }
+        raw.add(metric);
+        for (RollupRing rollup : rollups) {
+            rollup.add(metric);
+        }
+        return true;
+    }
+    
+    /**
+     * Add samples sorted by timestamp in bulk. The rollups get all of them,
+     * so they can reach further back than the raw ring.
+     * @return false if the history was released and the samples not added
+     */
+    synchronized boolean addAll(MetricSlice samples) {
+        if (closed) {
+            for (int i = 0; i < samples.size(); i++) {
+                if (!setAside(samples.getAgentId(), samples.getTimestamp(i), samples.getCpu(i), samples.getRam(i), samples.getDisk(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        raw.addAll(samples);
+        for (RollupRing rollup : rollups) {
+            rollup.addAll(samples);
+        }
+        return true;
+    }
+    
+    private boolean setAside(String agentId, long timestamp, double cpu, double ram, double disk) {
+        if (released) {
+            return false;
+        }
+        if (arrivedClosed == null) {
+            arrivedClosed = new MetricSlice.Builder(agentId, 16);
+        }
+        arrivedClosed.add(timestamp, (float) cpu, (float) ram, (float) disk);
+        return true;
+    }
+    
+    /**
+     * Stop adding samples to the rings and copy out the raw ones. The caller
+     * handles them without holding the monitor, then {@link #release}s the history.
+     * @return The raw samples, or null if it was already closed
+     */
+    synchronized MetricSlice close() {
+        if (closed) {
+            return null;
+        }
+        closed = true;
+        return raw.all();
+    }
+    
+    /**
+     * Refuse samples from now on.
+     * @return The samples set aside since {@link #close}, sorted by timestamp, or null if none
+     */
+    synchronized MetricSlice release() {
+        released = true;
+        if (arrivedClosed == null) {
+            return null;
+        }
+        MetricSlice arrived = arrivedClosed.build();
+        arrivedClosed = null;
+        return arrived;
+    }
+    
+    /**
+     * Sequence of the latest raw sample written, see {@link MetricRing#sequence()}.
+     */
+    long updateCount() {
+        return raw.sequence();
+    }
+    
+    /**
+     * Fold the samples already in the raw ring (e.g. mapped from a file) into the rollups.
+     */
+    void rebuildRollups() {
+        MetricSlice samples = raw.all();
+        for (RollupRing rollup : rollups) {
+            rollup.addAll(samples);
+        }
+    }
+    
+    /**
+     * Pick the coarsest tier whose buckets are no wider than {@code resolutionMs},
+     * moving to a coarser one if it no longer reaches back to {@code fromTime}.
+     * @return The rollup tier, or null for the raw samples
+     */
+    RollupRing select(long fromTime, long resolutionMs) {
+        int tier = -1;
+        for (int i = 0; i < rollups.length; i++) {
+            if (rollups[i].getWidth() <= resolutionMs) {
+                tier = i;
+            }
+        }
+        
+        if (tier < 0 && raw.covers(fromTime)) {
+            return null;
+        }
+        for (int i = Math.max(0, tier); i < rollups.length - 1; i++) {
+            if (rollups[i].covers(fromTime)) {
+                return rollups[i];
+            }
+        }
+        return rollups.length == 0 ? null : rollups[rollups.length - 1];
+    }
+    
+    /**
+     * Approximate heap memory held for the agent.
+     */
+    long heapBytes() {
+        long total = raw.heapBytes();
+        for (RollupRing rollup : rollups) {
+            total += rollup.heapBytes();
+        }
+        return total;
+    }
+    
+    int rollupSize() {
+        int total = 0;
+        for (RollupRing rollup : rollups) {
+            total += rollup.size();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,298 @@
+package com.monitor.server.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Substring index over agent IDs, for searching large fleets.
+ *
+ * Every agent gets an ordinal when it is first added. Each lower-cased ID is
+ * split into all its 1-, 2- and 3-character grams, and each gram maps to the
+ * ordinals of the IDs containing it. A query of up to three characters is
+ * answered by one posting list; a longer one intersects the lists of its
+ * trigrams, starting with the shortest, and checks the few candidates left.
+ * The index only changes when an agent appears or is removed. Removed IDs
+ * leave dead ordinals in the postings, skipped when read; once they make up
+ * a quarter of the ordinals, the index is rebuilt from the live IDs.
+ *
+ * Matches are ranked: exact ID, then prefix, then a match at the start of a
+ * part of the name (after '-', '.', '_' or ':'), then anywhere; shorter IDs
+ * first within a rank.
+ */
+public class AgentIndex {
+    
+    private static final int MAX_GRAM = 3;
+    
+    // Dead ordinals tolerated before a rebuild, as a fraction (1/n) of all ordinals
+    private static final int REBUILD_FRACTION = 4;
+    private static final int REBUILD_MIN = 64;
+    
+    private final List<String> ids = new ArrayList<>();
+    private final List<String> lowerIds = new ArrayList<>();
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private int removed;
+    
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    /**
+     * Index an agent ID; does nothing if it is already indexed.
+     */
+    public void add(String agentId) {
+        lock.writeLock().lock();
+        try {
+            if (!ordinals.containsKey(agentId)) {
+                addLocked(agentId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private void addLocked(String agentId) {
+        int ordinal = ids.size();
+        String lower = agentId.toLowerCase(Locale.ROOT);
+        ids.add(agentId);
+        lowerIds.add(lower);
+        ordinals.put(agentId, ordinal);
+        
+        for (int length = 1; length <= MAX_GRAM; length++) {
+            for (int i = 0; i + length <= lower.length(); i++) {
+                // Ordinals only grow, so each list stays sorted; skip repeats within the ID
+                postings.computeIfAbsent(gram(lower, i, length), k -> new Postings()).addIfLast(ordinal);
+            }
+        }
+    }
+    
+    /**
+     * Drop an agent from search results. Its postings stay, skipped when
+     * read, until enough have piled up to rebuild the index.
+     */
+    public void remove(String agentId) {
+        lock.writeLock().lock();
+        try {
+            Integer ordinal = ordinals.remove(agentId);
+            if (ordinal != null) {
+                ids.set(ordinal, null);
+                lowerIds.set(ordinal, null);
+                removed++;
+                if (removed >= REBUILD_MIN && removed * REBUILD_FRACTION >= ids.size()) {
+                    rebuild();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Index the live IDs afresh, with consecutive ordinals and no dead postings.
+     */
+    private void rebuild() {
+        List<String> live = new ArrayList<>(ids.size() - removed);
+        for (String id : ids) {
+            if (id != null) {
+                live.add(id);
+            }
+        }
+        ids.clear();
+        lowerIds.clear();
+        ordinals.clear();
+        postings.clear();
+        removed = 0;
+        for (String id : live) {
+            addLocked(id);
+        }
+    }
+    
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size() - removed;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Agent IDs containing {@code query} (case-insensitive), best matches first.
+     */
+    public List<String> search(String query, int limit) {
+        String lower = query.toLowerCase(Locale.ROOT);
+        if (lower.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        
+        lock.readLock().lock();
+        try {
+            List<Match> matches = new ArrayList<>();
+            if (lower.length() <= MAX_GRAM) {
+                Postings list = postings.get(gram(lower, 0, lower.length()));
+                if (list != null) {
+                    for (int i = 0; i < list.size; i++) {
+                        addMatch(matches, list.ordinals[i], lower);
+                    }
+                }
+            } else {
+                for (int ordinal : candidates(lower)) {
+                    addMatch(matches, ordinal, lower);
+                }
+            }
+            
+            matches.sort(null);
+            List<String> result = new ArrayList<>(Math.min(limit, matches.size()));
+            for (int i = 0; i < matches.size() && i < limit; i++) {
+                result.add(ids.get(matches.get(i).ordinal));
+            }
+            return result;
+            
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Ordinals whose IDs contain every trigram of a query longer than three characters.
+     */
+    private int[] candidates(String lower) {
+        Postings[] lists = new Postings[lower.length() - MAX_GRAM + 1];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = postings.get(gram(lower, i, MAX_GRAM));
+            if (lists[i] == null) {
+                return new int[0];
+            }
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+        
+        int[] result = Arrays.copyOf(lists[0].ordinals, lists[0].size);
+        int count = result.length;
+        for (int l = 1; l < lists.length && count > 0; l++) {
+            count = intersect(result, count, lists[l]);
+        }
+        return Arrays.copyOf(result, count);
+    }
+    
+    /**
+     * Keep the first {@code count} ordinals of {@code result} that are also in
+     * {@code list}; both are sorted.
+     * @return The new count
+     */
+    private static int intersect(int[] result, int count, Postings list) {
+        int kept = 0;
+        int j = 0;
+        for (int i = 0; i < count; i++) {
+            int ordinal = result[i];
+            // Binary search the rest of the longer list
+            int low = j;
+            int high = list.size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (list.ordinals[mid] < ordinal) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            j = low;
+            if (j < list.size && list.ordinals[j] == ordinal) {
+                result[kept++] = ordinal;
+            }
+        }
+        return kept;
+    }
+    
+    private void addMatch(List<Match> matches, int ordinal, String lower) {
+        String id = lowerIds.get(ordinal);
+        if (id == null) {
+            // Removed
+            return;
+        }
+        int at = id.indexOf(lower);
+        if (at < 0) {
+            // All trigrams present, but not as one run
+            return;
+        }
+        
+        int rank;
+        if (id.length() == lower.length()) {
+            rank = 0;
+        } else if (at == 0) {
+            rank = 1;
+        } else if (isPartStart(id, lower)) {
+            rank = 2;
+        } else {
+            rank = 3;
+        }
+        matches.add(new Match(ordinal, rank, id.length(), id));
+    }
+    
+    private static boolean isPartStart(String id, String lower) {
+        for (int at = id.indexOf(lower); at >= 0; at = id.indexOf(lower, at + 1)) {
+            char before = id.charAt(at - 1);
+            if (before == '-' || before == '.' || before == '_' || before == ':') {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Pack a gram of up to three characters, with its length, into one key.
+     */
+    private static long gram(String s, int start, int length) {
+        long key = length;
+        for (int i = 0; i < length; i++) {
+            key = (key << 16) | s.charAt(start + i);
+        }
+        return key;
+    }
+    
+    /**
+     * Growable sorted list of ordinals.
+     */
+    private static final class Postings {
+        int[] ordinals = new int[4];
+        int size;
+        
+        void addIfLast(int ordinal) {
+            if (size > 0 && ordinals[size - 1] == ordinal) {
+                return;
+            }
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+            }
+            ordinals[size++] = ordinal;
+        }
+    }
+    
+    private static final class Match implements Comparable<Match> {
+        final int ordinal;
+        final int rank;
+        final int length;
+        final String id;
+        
+        Match(int ordinal, int rank, int length, String id) {
+            this.ordinal = ordinal;
+            this.rank = rank;
+            this.length = length;
+            this.id = id;
+        }
+        
+        @Override
+        public int compareTo(Match other) {
+            if (rank != other.rank) {
+                return Integer.compare(rank, other.rank);
+            }
+            if (length != other.length) {
+                return Integer.compare(length, other.length);
+            }
+            return id.compareTo(other.id);
+        }
+    }
+}
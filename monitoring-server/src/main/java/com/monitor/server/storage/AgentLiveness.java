@@ -0,0 +1,293 @@
+package com.monitor.server.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tracks whether agents are still reporting, with a hashed timing wheel.
+ *
+ * An agent is ACTIVE while it sends metrics, STALE once nothing has arrived for
+ * the stale timeout, and DOWN after the down timeout. Every tracked agent has
+ * one deadline in the wheel; {@link #advance} visits only the slots of the
+ * ticks that passed, so the cost follows the number of expiring deadlines, not
+ * the number of agents.
+ *
+ * A heartbeat of an ACTIVE agent only records the time. When its deadline comes
+ * up the entry is simply moved to the new deadline if the agent was heard from
+ * meanwhile. The list of active agents is rebuilt only after a state change
+ * and handed out as a ready-made snapshot.
+ */
+public class AgentLiveness {
+    
+    public enum State {
+        ACTIVE, STALE, DOWN
+    }
+    
+    /**
+     * Receives state changes, in the order they happen. Called with the wheel
+     * lock held, from the thread that advanced the wheel or delivered the
+     * heartbeat; must return quickly and not change the tracker.
+     */
+    public interface Listener {
+        void onStateChange(String agentId, State from, State to);
+    }
+    
+    private final long tickMs;
+    private final int mask;
+    private final long staleMs;
+    private final long downMs;
+    
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    
+    // Guarded by this: wheel slots (linked lists) and last processed tick
+    private final Entry[] slots;
+    private long tick;
+    
+    // Active agents, or null when a state change made it stale
+    private volatile List<String> activeSnapshot = List.of();
+    
+    /**
+     * @param tickMs    Wheel resolution
+     * @param wheelSize Number of slots, rounded up to a power of two
+     */
+    public AgentLiveness(long tickMs, int wheelSize, long staleMs, long downMs) {
+        this.tickMs = Math.max(1, tickMs);
+        int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        this.slots = new Entry[size];
+        this.mask = size - 1;
+        this.staleMs = staleMs;
+        this.downMs = Math.max(staleMs, downMs);
+        this.tick = System.currentTimeMillis() / this.tickMs;
+    }
+    
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * Record that an agent has just reported.
+     */
+    public void heartbeat(String agentId, long now) {
+        Entry entry = entries.get(agentId);
+        if (entry != null) {
+            entry.lastSeen = now;
+            // lastSeen is written before state is read, and advance() does the opposite,
+            // so at least one of the two sees the other and the agent cannot stay expired
+            if (entry.state == State.ACTIVE) {
+                return;
+            }
+        }
+        
+        synchronized (this) {
+            entry = entries.get(agentId);
+            State previous = null;
+            if (entry == null) {
+                entry = new Entry(agentId);
+                entries.put(agentId, entry);
+            } else if (entry.state == State.ACTIVE) {
+                return;
+            } else {
+                previous = entry.state;
+                unlink(entry);
+            }
+            entry.lastSeen = Math.max(entry.lastSeen, now);
+            entry.state = State.ACTIVE;
+            schedule(entry, entry.lastSeen + staleMs);
+            activeSnapshot = null;
+            
+            if (previous != null) {
+                fire(agentId, previous, State.ACTIVE);
+            }
+        }
+    }
+    
+    /**
+     * Move the wheel up to {@code now}, expiring the deadlines that passed.
+     * Meant to be called about once per tick.
+     */
+    public synchronized void advance(long now) {
+        long target = now / tickMs;
+        // Past a full turn every slot is visited once, which covers all deadlines
+        for (long t = Math.max(tick + 1, target - mask); t <= target; t++) {
+            // Entries rescheduled from this slot go to a later one
+            tick = t;
+            int index = (int) (t & mask);
+            Entry entry = slots[index];
+            slots[index] = null;
+            while (entry != null) {
+                Entry next = entry.next;
+                entry.next = null;
+                entry.prev = null;
+                entry.slot = -1;
+                expire(entry, now);
+                entry = next;
+            }
+        }
+    }
+    
+    /**
+     * Handle an entry whose slot came up; it goes back in the wheel unless DOWN.
+     */
+    private void expire(Entry entry, long now) {
+        if (entry.state == State.ACTIVE) {
+            if (entry.lastSeen + staleMs > now) {
+                // Heard from since it was scheduled
+                schedule(entry, entry.lastSeen + staleMs);
+                return;
+            }
+            entry.state = State.STALE;
+            if (entry.lastSeen + staleMs > now) {
+                // A heartbeat slipped in while the state changed
+                entry.state = State.ACTIVE;
+                schedule(entry, entry.lastSeen + staleMs);
+                return;
+            }
+            schedule(entry, entry.lastSeen + downMs);
+            activeSnapshot = null;
+            fire(entry.agentId, State.ACTIVE, State.STALE);
+            
+        } else if (entry.state == State.STALE) {
+            if (entry.lastSeen + downMs > now) {
+                schedule(entry, entry.lastSeen + downMs);
+                return;
+            }
+            entry.state = State.DOWN;
+            fire(entry.agentId, State.STALE, State.DOWN);
+        }
+    }
+    
+    private void schedule(Entry entry, long deadline) {
+        // A deadline already due goes in the next slot to be visited
+        long t = Math.max(deadline / tickMs, tick + 1);
+        int index = (int) (t & mask);
+        entry.slot = index;
+        entry.next = slots[index];
+        entry.prev = null;
+        if (slots[index] != null) {
+            slots[index].prev = entry;
+        }
+        slots[index] = entry;
+    }
+    
+    private void unlink(Entry entry) {
+        if (entry.slot < 0) {
+            return;
+        }
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else if (slots[entry.slot] == entry) {
+            slots[entry.slot] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.next = null;
+        entry.prev = null;
+        entry.slot = -1;
+    }
+    
+    private void fire(String agentId, State from, State to) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onStateChange(agentId, from, to);
+            } catch (RuntimeException e) {
+                System.err.println("[AgentLiveness] Listener failed for " + agentId + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Agents currently ACTIVE. Returns the shared snapshot; callers must not modify it.
+     */
+    public List<String> getActiveAgents() {
+        List<String> snapshot = activeSnapshot;
+        if (snapshot == null) {
+            synchronized (this) {
+                snapshot = activeSnapshot;
+                if (snapshot == null) {
+                    List<String> active = new ArrayList<>();
+                    for (Entry entry : entries.values()) {
+                        if (entry.state == State.ACTIVE) {
+                            active.add(entry.agentId);
+                        }
+                    }
+                    snapshot = List.copyOf(active);
+                    activeSnapshot = snapshot;
+                }
+            }
+        }
+        return snapshot;
+    }
+    
+    /**
+     * State of an agent, or null if it was never seen.
+     */
+    public State getState(String agentId) {
+        Entry entry = entries.get(agentId);
+        return entry == null ? null : entry.state;
+    }
+    
+    /**
+     * Last time an agent reported, or 0 if it was never seen.
+     */
+    public long getLastSeen(String agentId) {
+        Entry entry = entries.get(agentId);
+        return entry == null ? 0 : entry.lastSeen;
+    }
+    
+    /**
+     * Stop tracking an agent, without a state change event.
+     */
+    public void remove(String agentId) {
+        synchronized (this) {
+            Entry entry = entries.remove(agentId);
+            if (entry != null) {
+                unlink(entry);
+                activeSnapshot = null;
+            }
+        }
+    }
+    
+    /**
+     * Get statistics for logging.
+     */
+    public String getStats() {
+        int active = 0;
+        int stale = 0;
+        int down = 0;
+        for (Entry entry : entries.values()) {
+            switch (entry.state) {
+                case ACTIVE:
+                    active++;
+                    break;
+                case STALE:
+                    stale++;
+                    break;
+                default:
+                    down++;
+                    break;
+            }
+        }
+        return String.format("Agents: %d active, %d stale, %d down", active, stale, down);
+    }
+    
+    /**
+     * One tracked agent; links and slot are guarded by the wheel lock.
+     */
+    private static final class Entry {
+        final String agentId;
+        volatile long lastSeen;
+        volatile State state = State.ACTIVE;
+        int slot = -1;
+        Entry next;
+        Entry prev;
+        
+        Entry(String agentId) {
+            this.agentId = agentId;
+        }
+    }
+}
@@ -16,6 +16,7 @@ public class AlertConfigManager {
     private static AlertConfigManager instance;
     
     private final List<AlertConfig> configs;
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
     
     private AlertConfigManager() {
         this.configs = new CopyOnWriteArrayList<>();
@@ -65,6 +66,19 @@ public class AlertConfigManager {
             .orElse(null);
     }
     
+    /**
+     * Register a callback run after every configuration change.
+     */
+    public void addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+    }
+    
+    private void notifyChanged() {
+        for (Runnable listener : changeListeners) {
+            listener.run();
+        }
+    }
+    
     /**
      * Update a configuration.
      */
@@ -75,6 +89,7 @@ public class AlertConfigManager {
                 configs.set(i, config);
                 saveConfigs();
                 System.out.println("[AlertConfigManager] Updated: " + config);
+                notifyChanged();
                 return;
             }
         }
@@ -83,6 +98,7 @@ public class AlertConfigManager {
         configs.add(config);
         saveConfigs();
         System.out.println("[AlertConfigManager] Added: " + config);
+        notifyChanged();
     }
     
     /**
@@ -0,0 +1,314 @@
+package com.monitor.server.storage;
+
+import com.monitor.model.Alert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Bounded alert store with indexes by agent and by severity.
+ *
+ * Alerts are kept in a ring in arrival order; each one gets an increasing
+ * sequence number, and its slot is {@code sequence % capacity}. Adding an
+ * alert is O(1) whatever the capacity: once the ring is full the oldest alert
+ * is dropped, and it is always at the front of its index lists too.
+ *
+ * Each alert also gets a time key, its timestamp clamped so that keys never
+ * decrease, which lets time ranges be found by binary search. Alerts that
+ * arrive late (e.g. replayed from an agent's outbox) have a key above their
+ * timestamp; the store counts these gaps for the alerts it holds and widens
+ * the upper bound of range searches by the largest one, which shrinks back
+ * as late alerts are dropped. A filtered query scans the smallest
+ * matching index within the time range, so it costs about the size of its
+ * result rather than the size of the store.
+ */
+public class AlertStore {
+    
+    private final int capacity;
+    private final Alert[] alerts;
+    private final long[] keys;
+    // Key minus timestamp of each held alert, and how many held alerts have each gap above 0
+    private final long[] lateness;
+    private final TreeMap<Long, Integer> latenessCounts = new TreeMap<>();
+    
+    // Sequence number of the next alert; alerts [max(0, next - capacity), next) are held
+    private long nextSequence;
+    
+    private final Map<String, SequenceList> byAgent = new HashMap<>();
+    private final SequenceList[] bySeverity = new SequenceList[Alert.Severity.values().length];
+    
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    public AlertStore(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.alerts = new Alert[this.capacity];
+        this.keys = new long[this.capacity];
+        this.lateness = new long[this.capacity];
+        for (int i = 0; i < bySeverity.length; i++) {
+            bySeverity[i] = new SequenceList();
+        }
+    }
+    
+    /**
+     * Add an alert, dropping the oldest one if the store is full.
+     */
+    public void add(Alert alert) {
+        lock.writeLock().lock();
+        try {
+            long sequence = nextSequence++;
+            int slot = slot(sequence);
+            
+            if (sequence >= capacity) {
+                evict(sequence - capacity);
+            }
+            
+            long key = alert.getTimestamp();
+            if (sequence > 0) {
+                long previousKey = keys[slot(sequence - 1)];
+                if (key < previousKey) {
+                    key = previousKey;
+                }
+            }
+            
+            alerts[slot] = alert;
+            keys[slot] = key;
+            lateness[slot] = key - alert.getTimestamp();
+            if (lateness[slot] > 0) {
+                latenessCounts.merge(lateness[slot], 1, Integer::sum);
+            }
+            byAgent.computeIfAbsent(agentKey(alert), k -> new SequenceList()).add(sequence);
+            bySeverity[severityIndex(alert.getLevel())].add(sequence);
+            
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Drop the oldest alert from the indexes; its slot is about to be reused.
+     */
+    private void evict(long sequence) {
+        Alert old = alerts[slot(sequence)];
+        String agent = agentKey(old);
+        SequenceList agentList = byAgent.get(agent);
+        if (agentList != null) {
+            agentList.removeFirst();
+            if (agentList.isEmpty()) {
+                byAgent.remove(agent);
+            }
+        }
+        bySeverity[severityIndex(old.getLevel())].removeFirst();
+        
+        long gap = lateness[slot(sequence)];
+        if (gap > 0) {
+            latenessCounts.merge(gap, -1, (count, minus) -> count + minus == 0 ? null : count + minus);
+        }
+    }
+    
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return (int) (nextSequence - oldestSequence());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public int capacity() {
+        return capacity;
+    }
+    
+    /**
+     * All alerts, oldest first.
+     */
+    public List<Alert> getAll() {
+        return query(null, null, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Alerts of one agent, oldest first.
+     */
+    public List<Alert> getByAgent(String agentId) {
+        return query(agentId, null, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Alerts matching every given filter, oldest first.
+     * @param agentId  Agent, or null for any
+     * @param severity Severity, or null for any
+     */
+    public List<Alert> query(String agentId, Alert.Severity severity, long fromTime, long toTime) {
+        lock.readLock().lock();
+        try {
+            // Pick the smallest index that covers the filters
+            SequenceList candidates = null;
+            if (agentId != null) {
+                candidates = byAgent.get(agentId);
+                if (candidates == null) {
+                    return new ArrayList<>();
+                }
+            }
+            if (severity != null) {
+                SequenceList severityList = bySeverity[severity.ordinal()];
+                if (candidates == null || severityList.size() < candidates.size()) {
+                    candidates = severityList;
+                }
+            }
+            
+            long maxLateness = latenessCounts.isEmpty() ? 0 : latenessCounts.lastKey();
+            long upperKey = toTime > Long.MAX_VALUE - maxLateness ? Long.MAX_VALUE : toTime + maxLateness;
+            List<Alert> result = new ArrayList<>();
+            
+            if (candidates == null) {
+                long oldest = oldestSequence();
+                for (long s = firstAtOrAfter(oldest, nextSequence, fromTime); s < nextSequence; s++) {
+                    if (keys[slot(s)] > upperKey) {
+                        break;
+                    }
+                    addIfMatches(result, alerts[slot(s)], agentId, severity, fromTime, toTime);
+                }
+            } else {
+                for (int i = candidates.firstAtOrAfter(this, fromTime); i < candidates.size(); i++) {
+                    long s = candidates.get(i);
+                    if (keys[slot(s)] > upperKey) {
+                        break;
+                    }
+                    addIfMatches(result, alerts[slot(s)], agentId, severity, fromTime, toTime);
+                }
+            }
+            return result;
+            
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private static void addIfMatches(List<Alert> result, Alert alert, String agentId,
+                                     Alert.Severity severity, long fromTime, long toTime) {
+        if ((agentId == null || agentId.equals(alert.getAgentId()))
+                && (severity == null || severity == alert.getLevel())
+                && alert.getTimestamp() >= fromTime && alert.getTimestamp() <= toTime) {
+            result.add(alert);
+        }
+    }
+    
+    /**
+     * Remove every alert.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            Arrays.fill(alerts, null);
+            nextSequence = 0;
+            latenessCounts.clear();
+            byAgent.clear();
+            for (SequenceList list : bySeverity) {
+                list.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * First sequence in [from, to) whose key is at least {@code key}.
+     */
+    private long firstAtOrAfter(long from, long to, long key) {
+        long low = from;
+        long high = to;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (keys[slot(mid)] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    private long oldestSequence() {
+        return Math.max(0, nextSequence - capacity);
+    }
+    
+    private int slot(long sequence) {
+        return (int) (sequence % capacity);
+    }
+    
+    private static String agentKey(Alert alert) {
+        return alert.getAgentId() == null ? "" : alert.getAgentId();
+    }
+    
+    private static int severityIndex(Alert.Severity severity) {
+        return (severity == null ? Alert.Severity.INFO : severity).ordinal();
+    }
+    
+    /**
+     * Growable FIFO of increasing sequence numbers.
+     */
+    private static final class SequenceList {
+        private long[] items = new long[16];
+        private int head;
+        private int size;
+        
+        void add(long sequence) {
+            if (size == items.length) {
+                long[] larger = new long[items.length * 2];
+                for (int i = 0; i < size; i++) {
+                    larger[i] = get(i);
+                }
+                items = larger;
+                head = 0;
+            }
+            items[(head + size) % items.length] = sequence;
+            size++;
+        }
+        
+        void removeFirst() {
+            if (size > 0) {
+                head = (head + 1) % items.length;
+                size--;
+            }
+        }
+        
+        long get(int index) {
+            return items[(head + index) % items.length];
+        }
+        
+        int size() {
+            return size;
+        }
+        
+        boolean isEmpty() {
+            return size == 0;
+        }
+        
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+        
+        /**
+         * Index of the first sequence whose key in the store is at least {@code key}.
+         */
+        int firstAtOrAfter(AlertStore store, long key) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (store.keys[store.slot(get(mid))] < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
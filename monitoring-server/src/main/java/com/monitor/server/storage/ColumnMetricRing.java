@@ -0,0 +1,372 @@
+package com.monitor.server.storage;
+
+import com.monitor.model.Metric;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Path;
+
+/**
+ * Fixed-capacity metric history of one agent, stored as primitive columns.
+ *
+ * Samples live in parallel columns (timestamp, cpu, ram, disk) used as a ring:
+ * adding a sample is O(1) and overwrites the oldest one once the ring is full.
+ * The columns are on the heap ({@link HeapMetricColumns}) or in a memory-mapped
+ * file ({@link MappedMetricColumns}); Metric objects are only created when
+ * samples are copied out.
+ *
+ * Samples are kept sorted by timestamp. They normally arrive in order; a
+ * slightly late one is inserted at its place by moving the newer samples up.
+ * Time ranges are then located by binary search, so copying a range costs the
+ * size of the result, not of the history.
+ *
+ * Each write numbers the samples it stores with a sequence that only grows.
+ * Heap columns keep it per sample, so samples added since a given point can
+ * be copied out for a save even when they were late and landed among older
+ * ones. Mapped columns do not: they are never saved that way, and the numbers
+ * would start over after a remap.
+ *
+ * Writes are published with a sequence lock: the version is odd while a sample
+ * is being written. Readers copy the columns optimistically and retry if the
+ * version moved, so queries never take a lock and never hold up ingest.
+ * Writers are serialized among themselves (in practice there is one per agent,
+ * its UDP worker).
+ */
+public class ColumnMetricRing implements MetricRing {
+    
+    private final String agentId;
+    private final int capacity;
+    private final MetricColumns columns;
+    
+    // Sequence of the latest write
+    private volatile long sequence;
+    
+    // Index the next sample is written to, and number of samples held
+    private int head;
+    private int size;
+    
+    // Odd while a write is in progress
+    private volatile long version;
+    private final Object writeLock = new Object();
+    
+    private ColumnMetricRing(String agentId, MetricColumns columns, int head, int size) {
+        this.agentId = agentId;
+        this.capacity = columns.capacity();
+        this.columns = columns;
+        this.head = head;
+        this.size = size;
+    }
+    
+    /**
+     * Create an empty ring on the heap.
+     */
+    public static ColumnMetricRing onHeap(String agentId, int capacity) {
+        return new ColumnMetricRing(agentId, new HeapMetricColumns(capacity), 0, 0);
+    }
+    
+    /**
+     * Create an empty ring in a new memory-mapped file.
+     * @throws java.nio.file.FileAlreadyExistsException If the file exists
+     */
+    public static ColumnMetricRing create(Path file, String agentId, int capacity) throws IOException {
+        return new ColumnMetricRing(agentId, MappedMetricColumns.create(file, agentId, capacity), 0, 0);
+    }
+    
+    /**
+     * Map an existing ring file, with the samples it holds.
+     */
+    public static ColumnMetricRing open(Path file) throws IOException {
+        MappedMetricColumns columns = MappedMetricColumns.open(file);
+        return new ColumnMetricRing(columns.getAgentId(), columns, columns.head(), columns.size());
+    }
+    
+    public String getAgentId() {
+        return agentId;
+    }
+    
+    /**
+     * Insert a sample at its place in timestamp order, overwriting the oldest
+     * one if the ring is full. A sample older than everything in a full ring
+     * is dropped.
+     */
+    @Override
+    public void add(Metric metric) {
+        long timestamp = metric.getTimestamp();
+        
+        synchronized (writeLock) {
+            // Logical position (0 = oldest) after the samples not newer than this one
+            int position = size;
+            while (position > 0 && columns.timestamp(physical(position - 1)) > timestamp) {
+                position--;
+            }
+            if (position == 0 && size == capacity) {
+                return;
+            }
+            
+            long v = version;
+            version = v + 1;
+            // Keep the column writes below from becoming visible before the odd version
+            VarHandle.storeStoreFence();
+            
+            // Move later samples up one place; when full, the first move overwrites the oldest
+            for (int i = size; i > position; i--) {
+                columns.move(physical(i), physical(i - 1));
+            }
+            columns.set(physical(position), timestamp, (float) metric.getCpuUsage(),
+                (float) metric.getRamUsage(), (float) metric.getDiskUsage());
+            columns.setSequence(physical(position), ++sequence);
+            
+            head = head + 1 == capacity ? 0 : head + 1;
+            if (size < capacity) {
+                size++;
+            }
+            columns.setPosition(head, size);
+            
+            version = v + 2;
+        }
+    }
+    
+    /**
+     * Copy the newest samples that fit straight into an empty ring, under a
+     * single version change; otherwise insert them one by one.
+     */
+    @Override
+    public void addAll(MetricSlice samples) {
+        synchronized (writeLock) {
+            if (size > 0) {
+                MetricRing.super.addAll(samples);
+                return;
+            }
+            int count = Math.min(capacity, samples.size());
+            if (count == 0) {
+                return;
+            }
+            
+            long v = version;
+            version = v + 1;
+            VarHandle.storeStoreFence();
+            
+            columns.load(samples, samples.size() - count, count);
+            sequence++;
+            for (int i = 0; i < count; i++) {
+                columns.setSequence(i, sequence);
+            }
+            head = count == capacity ? 0 : count;
+            size = count;
+            columns.setPosition(head, size);
+            
+            version = v + 2;
+        }
+    }
+    
+    /**
+     * Physical index of a logical position (0 = oldest), for the current head and size.
+     */
+    private int physical(int position) {
+        int index = (size < capacity ? 0 : head) + position;
+        return index >= capacity ? index - capacity : index;
+    }
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+    
+    @Override
+    public long heapBytes() {
+        // The columns plus the ring itself
+        return 64 + columns.heapBytes();
+    }
+    
+    /**
+     * Whether the ring still holds every sample from {@code fromTime} on, i.e.
+     * it has not overwritten anything newer.
+     */
+    @Override
+    public boolean covers(long fromTime) {
+        while (true) {
+            long v = version;
+            if ((v & 1) == 0) {
+                // When full, head is the oldest sample
+                boolean covers = size < capacity || columns.timestamp(head) <= fromTime;
+                VarHandle.acquireFence();
+                if (version == v) {
+                    return covers;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+    
+    @Override
+    public long oldest() {
+        while (true) {
+            long v = version;
+            if ((v & 1) == 0) {
+                long oldest = size == 0 ? Long.MAX_VALUE : columns.timestamp(physical(0));
+                VarHandle.acquireFence();
+                if (version == v) {
+                    return oldest;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+    
+    /**
+     * Copy out the most recent samples, oldest first.
+     */
+    @Override
+    public MetricSlice latest(int limit) {
+        return slice(Long.MIN_VALUE, Long.MAX_VALUE, limit);
+    }
+    
+    /**
+     * Copy out every sample, oldest first.
+     */
+    @Override
+    public MetricSlice all() {
+        return slice(Long.MIN_VALUE, Long.MAX_VALUE, capacity);
+    }
+    
+    /**
+     * Copy out the samples with a timestamp in [fromTime, toTime], oldest first.
+     */
+    @Override
+    public MetricSlice range(long fromTime, long toTime) {
+        return slice(fromTime, toTime, capacity);
+    }
+    
+    @Override
+    public long sequence() {
+        return sequence;
+    }
+    
+    /**
+     * Copy out the samples written after {@code afterSequence} and up to
+     * {@code upToSequence}, oldest first; none for mapped columns, which do
+     * not keep sequences. Walks the whole ring, so it is meant for periodic
+     * saves rather than queries.
+     */
+    @Override
+    public MetricSlice written(long afterSequence, long upToSequence) {
+        while (true) {
+            long v = version;
+            if ((v & 1) == 0) {
+                int count = Math.min(size, capacity);
+                int oldest = count < capacity ? 0 : head;
+                
+                int length = 0;
+                for (int i = 0; i < count; i++) {
+                    long written = columns.sequence(wrap(oldest + i));
+                    if (written > afterSequence && written <= upToSequence) {
+                        length++;
+                    }
+                }
+                MetricSlice slice = new MetricSlice(agentId, length);
+                int to = 0;
+                for (int i = 0; i < count && to < length; i++) {
+                    int index = wrap(oldest + i);
+                    long written = columns.sequence(index);
+                    if (written > afterSequence && written <= upToSequence) {
+                        columns.copyTo(slice, index, to++, 1);
+                    }
+                }
+                
+                VarHandle.acquireFence();
+                if (version == v) {
+                    return slice;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+    
+    /**
+     * Copy the latest {@code limit} samples within [fromTime, toTime], retrying
+     * until the copy did not overlap a write. The range ends are found by
+     * binary search.
+     */
+    private MetricSlice slice(long fromTime, long toTime, int limit) {
+        while (true) {
+            long v = version;
+            if ((v & 1) == 0) {
+                int count = Math.min(size, capacity);
+                int oldest = count < capacity ? 0 : head;
+                
+                int end = firstAfter(oldest, count, toTime);
+                int begin = firstAtOrAfter(oldest, end, fromTime);
+                begin = Math.max(begin, end - Math.max(0, limit));
+                int length = end - begin;
+                
+                MetricSlice slice = new MetricSlice(agentId, length);
+                int start = wrap(oldest + begin);
+                // Copy in at most two runs: up to the end of the columns, then from 0
+                int firstRun = Math.min(length, capacity - start);
+                columns.copyTo(slice, start, 0, firstRun);
+                columns.copyTo(slice, 0, firstRun, length - firstRun);
+                
+                // The copies must be complete before the version is checked again
+                VarHandle.acquireFence();
+                if (version == v) {
+                    return slice;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+    
+    /**
+     * First logical position in [0, count) with a timestamp above {@code time}.
+     */
+    private int firstAfter(int oldest, int count, long time) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (columns.timestamp(wrap(oldest + mid)) <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * First logical position in [0, end) with a timestamp at or above {@code time}.
+     */
+    private int firstAtOrAfter(int oldest, int end, long time) {
+        int low = 0;
+        int high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (columns.timestamp(wrap(oldest + mid)) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    private int wrap(int index) {
+        return index >= capacity ? index - capacity : index;
+    }
+    
+    @Override
+    public void flush() {
+        columns.flush();
+    }
+    
+    @Override
+    public void close() {
+        // A mapping itself is released when its buffer is collected
+        flush();
+    }
+}
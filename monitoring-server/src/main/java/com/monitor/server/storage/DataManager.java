@@ -2,57 +2,126 @@ package com.monitor.server.storage;
 
 import com.monitor.model.Alert;
 import com.monitor.model.Metric;
+import com.monitor.server.storage.segment.SegmentReader;
 
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Singleton data manager for storing metrics and alerts.
- * Thread-safe with concurrent collections.
+ * Data manager for storing metrics and alerts.
+ *
+ * Agent histories are split into independent shards by the hash of the agent
+ * ID, each with its own map, so writers for different agents do not meet; calls
+ * covering all agents visit every shard. Alerts, liveness and the agent index
+ * are shared, each guarded by its own lock. One instance is created at startup
+ * and handed to the components that need it.
  */
 public class DataManager {
     
-    private static volatile DataManager instance;
+    // Points a range query aims for when no resolution is given
+    private static final int TARGET_POINTS = 500;
     
-    // Maximum metrics to store per agent
-    private static final int MAX_METRICS_PER_AGENT = 1000;
+    // Eviction goes this far below the memory budget, so it is not needed again right away
+    private static final double EVICTION_LOW_WATER = 0.9;
     
-    // Maximum alerts to store
-    private static final int MAX_ALERTS = 500;
+    /**
+     * Receives every metric added through {@link #addMetric}, on the ingesting
+     * thread; must return quickly.
+     */
+    public interface IngestListener {
+        void onMetric(Metric metric);
+    }
+    
+    /**
+     * Receives the samples of an agent evicted to stay within the memory
+     * budget, so they can be written out, and lets components drop what they
+     * keep per agent. Called before the agent leaves the store, without
+     * holding up ingest: a metric from it arriving meanwhile is set aside and
+     * starts its new history afterwards.
+     */
+    public interface EvictionListener {
+        void onEvict(String agentId, MetricSlice samples);
+    }
+    
+    /**
+     * Supplies samples older than the store holds, e.g. from persisted files.
+     */
+    public interface HistorySource {
+        /**
+         * Timestamp of the oldest sample held for an agent, or Long.MAX_VALUE if none.
+         */
+        long oldestTimestamp(String agentId);
+        
+        /**
+         * Stream the samples of an agent within [fromTime, toTime], oldest first.
+         */
+        void scan(String agentId, long fromTime, long toTime, SegmentReader.SampleConsumer consumer)
+            throws IOException;
+    }
     
-    // Storage: agentId -> list of metrics
-    private final Map<String, List<Metric>> metricsStore;
+    private final StorageConfig config;
     
-    // Storage: all alerts
-    private final List<Alert> alertsStore;
+    // Storage: agentId -> recent raw metrics and rollups, split by agent hash
+    private final DataShard[] shards;
+    private final int shardMask;
     
-    // Track active agents with last seen timestamp
-    private final Map<String, Long> activeAgents;
+    // Storage: all alerts, indexed by agent and severity
+    private final AlertStore alertsStore;
     
-    private DataManager() {
-        this.metricsStore = new ConcurrentHashMap<>();
-        this.alertsStore = new CopyOnWriteArrayList<>();
-        this.activeAgents = new ConcurrentHashMap<>();
-        System.out.println("[DataManager] Singleton instance created");
+    // Track agent liveness from the metrics they send
+    private final AgentLiveness liveness;
+    
+    // Substring index over known agent IDs
+    private final AgentIndex agentIndex;
+    
+    private final List<IngestListener> ingestListeners = new CopyOnWriteArrayList<>();
+    
+    // Where range queries find what the store no longer holds, if anywhere
+    private volatile HistorySource historySource;
+    
+    // Agents evicted under memory pressure so far
+    private final List<EvictionListener> evictionListeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong evictedAgents = new AtomicLong();
+    
+    public DataManager(StorageConfig config) {
+        this.config = config.copy();
+        int count = Integer.highestOneBit(this.config.getShards());
+        if (count < this.config.getShards()) {
+            count <<= 1;
+        }
+        this.shards = new DataShard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new DataShard(this.config.forShard(i));
+        }
+        this.shardMask = count - 1;
+        this.alertsStore = new AlertStore(this.config.getAlertRetention());
+        this.liveness = new AgentLiveness(1000, 64, this.config.getAgentStaleMs(), this.config.getAgentDownMs());
+        this.agentIndex = new AgentIndex();
+        System.out.println("[DataManager] Created: " + this.config);
+        
+        if (this.config.isMapped()) {
+            openMappedRings();
+        }
     }
     
     /**
-     * Get the singleton instance.
+     * Shard holding an agent's history.
      */
-    public static DataManager getInstance() {
-        if (instance == null) {
-            synchronized (DataManager.class) {
-                if (instance == null) {
-                    instance = new DataManager();
-                }
-            }
-        }
-        return instance;
+    private DataShard shard(String agentId) {
+        int h = agentId.hashCode();
+        // Spread the high bits, as HashMap does, so similar IDs are not grouped
+        return shards[(h ^ (h >>> 16)) & shardMask];
     }
     
     /**
@@ -61,21 +130,203 @@ public class DataManager {
     public void addMetric(Metric metric) {
         String agentId = metric.getAgentId();
         
-        // Update active agents
-        activeAgents.put(agentId, System.currentTimeMillis());
+        // Get or create the history for this agent; full rings overwrite their oldest entry.
+        // One released by an eviction is out of the shard by then, so the next lookup creates a new one
+        DataShard shard = shard(agentId);
+        while (!shard.getOrCreate(agentId, agentIndex::add).add(metric)) {
+            // Evicted meanwhile
+        }
+        
+        // Update agent liveness, after any eviction that forgot it
+        liveness.heartbeat(agentId, System.currentTimeMillis());
+        
+        for (IngestListener listener : ingestListeners) {
+            listener.onMetric(metric);
+        }
+    }
+    
+    /**
+     * Bulk-insert persisted history of one agent, sorted by timestamp.
+     * Unlike {@link #addMetric} this does not count as a report from the
+     * agent and is not passed to the ingest listeners.
+     */
+    public void loadHistory(MetricSlice samples) {
+        if (samples.isEmpty()) {
+            return;
+        }
+        String agentId = samples.getAgentId();
+        DataShard shard = shard(agentId);
+        while (!shard.getOrCreate(agentId, agentIndex::add).addAll(samples)) {
+            // Evicted meanwhile
+        }
+    }
+    
+    /**
+     * Register a listener for ingested metrics, e.g. to log them.
+     */
+    public void addIngestListener(IngestListener listener) {
+        ingestListeners.add(listener);
+    }
+    
+    /**
+     * Let range queries reach back past the store into a history source.
+     */
+    public void setHistorySource(HistorySource source) {
+        this.historySource = source;
+    }
+    
+    /**
+     * Map the ring files left by a previous run; their samples are also
+     * folded into fresh rollups.
+     */
+    private void openMappedRings() {
+        Path dir = Paths.get(config.getMappedDir());
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
         
-        // Get or create list for this agent
-        List<Metric> agentMetrics = metricsStore.computeIfAbsent(
-            agentId, 
-            k -> Collections.synchronizedList(new ArrayList<>())
-        );
+        int rings = 0;
+        int samples = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.ring")) {
+            for (Path file : files) {
+                try {
+                    ColumnMetricRing ring = ColumnMetricRing.open(file);
+                    if (ring.capacity() != getMetricsPerAgent(ring.getAgentId())) {
+                        System.out.println("[DataManager] " + file.getFileName() + " keeps its capacity of "
+                            + ring.capacity() + " samples");
+                    }
+                    shard(ring.getAgentId()).put(ring.getAgentId(), ring);
+                    agentIndex.add(ring.getAgentId());
+                    rings++;
+                    samples += ring.size();
+                } catch (IOException e) {
+                    System.err.println("[DataManager] Skipping ring file " + file.getFileName() + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[DataManager] Failed to list " + dir + ": " + e.getMessage());
+        }
+        System.out.println("[DataManager] Mapped " + rings + " agent rings (" + samples + " metrics) from " + dir);
+    }
+    
+    /**
+     * Register a listener for agents evicted under memory pressure.
+     */
+    public void addEvictionListener(EvictionListener listener) {
+        evictionListeners.add(listener);
+    }
+    
+    /**
+     * Estimate the heap memory held by the agent histories and, if it exceeds
+     * the budget, evict agents in order of their last report (longest silent
+     * first) until usage is back below {@link #EVICTION_LOW_WATER} of it.
+     * Meant to be called periodically.
+     * @return Number of agents evicted
+     */
+    public synchronized int enforceMemoryBudget() {
+        List<AgentUsage> usage = new ArrayList<>();
+        long total = 0;
+        for (DataShard shard : shards) {
+            for (Map.Entry<String, AgentHistory> entry : shard.entries()) {
+                long bytes = entry.getValue().heapBytes();
+                usage.add(new AgentUsage(entry.getKey(), liveness.getLastSeen(entry.getKey()), bytes));
+                total += bytes;
+            }
+        }
+        long budget = config.getMemoryBudgetBytes();
+        if (budget <= 0 || total <= budget) {
+            return 0;
+        }
         
-        // Add metric
-        agentMetrics.add(metric);
+        // Agents never heard from since startup (loaded from disk) have lastSeen 0 and go first
+        usage.sort(Comparator.comparingLong(u -> u.lastSeen));
+        long target = (long) (budget * EVICTION_LOW_WATER);
+        int evicted = 0;
+        for (AgentUsage agent : usage) {
+            if (total <= target) {
+                break;
+            }
+            if (evict(agent.agentId)) {
+                total -= agent.bytes;
+                evicted++;
+            }
+        }
+        System.out.println(String.format("[DataManager] Memory budget of %d MB exceeded, evicted %d agents (now ~%.1f MB)",
+            budget >> 20, evicted, total / (1024.0 * 1024)));
+        return evicted;
+    }
+    
+    /**
+     * Drop an agent from memory after handing its samples to the eviction
+     * listeners and flushing its ring. The history is closed first, so no
+     * sample added concurrently is lost: the listeners run without holding
+     * it, while it is still in the store, and samples arriving meanwhile are
+     * set aside, then moved to a new history once it has left the store.
+     * Anything saved for the agent afterwards is therefore newer. If it
+     * reports again it starts over, from its ring file when memory-mapped.
+     */
+    private boolean evict(String agentId) {
+        DataShard shard = shard(agentId);
+        AgentHistory history = shard.get(agentId);
+        if (history == null) {
+            return false;
+        }
+        MetricSlice samples = history.close();
+        if (samples == null) {
+            return false;
+        }
+        for (EvictionListener listener : evictionListeners) {
+            try {
+                listener.onEvict(agentId, samples);
+            } catch (RuntimeException e) {
+                System.err.println("[DataManager] Eviction listener failed for " + agentId + ": " + e.getMessage());
+            }
+        }
+        history.raw.close();
         
-        // Trim if over limit
-        while (agentMetrics.size() > MAX_METRICS_PER_AGENT) {
-            agentMetrics.remove(0);
+        // Forget the agent before it can be created again
+        agentIndex.remove(agentId);
+        liveness.remove(agentId);
+        shard.remove(agentId, history);
+        MetricSlice arrived = history.release();
+        if (arrived != null) {
+            loadHistory(arrived);
+            liveness.heartbeat(agentId, System.currentTimeMillis());
+        }
+        evictedAgents.incrementAndGet();
+        return true;
+    }
+    
+    /**
+     * Get the configuration this store was created with.
+     */
+    public StorageConfig getConfig() {
+        return config.copy();
+    }
+    
+    /**
+     * Get the number of raw samples kept for an agent, which depends on its shard.
+     */
+    public int getMetricsPerAgent(String agentId) {
+        return shard(agentId).config().getMetricsPerAgent();
+    }
+    
+    /**
+     * Whether metrics are persisted by the storage itself (memory-mapped
+     * rings), so no separate snapshot is needed.
+     */
+    public boolean isMetricStoragePersistent() {
+        return config.isMapped();
+    }
+    
+    /**
+     * Write memory-mapped rings to disk.
+     */
+    public void flush() {
+        for (DataShard shard : shards) {
+            for (AgentHistory history : shard.histories()) {
+                history.raw.flush();
+            }
         }
     }
     
@@ -83,13 +334,9 @@ public class DataManager {
      * Add an alert to the store.
      */
     public void addAlert(Alert alert) {
+        // The store drops its oldest alert once full
         alertsStore.add(alert);
         
-        // Trim if over limit
-        while (alertsStore.size() > MAX_ALERTS) {
-            alertsStore.remove(0);
-        }
-        
         System.out.println("[DataManager] Alert added: " + alert);
     }
     
@@ -97,56 +344,49 @@ public class DataManager {
      * Get all active agent IDs.
      */
     public List<String> getActiveAgents() {
-        // Consider an agent active if seen in last 30 seconds
-        long threshold = System.currentTimeMillis() - 30_000;
-        List<String> active = new ArrayList<>();
-        
-        for (Map.Entry<String, Long> entry : activeAgents.entrySet()) {
-            if (entry.getValue() > threshold) {
-                active.add(entry.getKey());
-            }
-        }
-        
-        return active;
+        return new ArrayList<>(liveness.getActiveAgents());
+    }
+    
+    /**
+     * Get the liveness tracker, to advance it and listen to agent state changes.
+     */
+    public AgentLiveness getLiveness() {
+        return liveness;
     }
     
     /**
      * Get all known agent IDs (active or inactive).
      */
     public Set<String> getAllAgentIds() {
-        return metricsStore.keySet();
+        Set<String> ids = new HashSet<>();
+        for (DataShard shard : shards) {
+            ids.addAll(shard.agentIds());
+        }
+        return ids;
     }
     
     /**
      * Get recent metrics for an agent.
      */
     public List<Metric> getMetrics(String agentId, int limit) {
-        List<Metric> agentMetrics = metricsStore.get(agentId);
+        AgentHistory history = shard(agentId).get(agentId);
         
-        if (agentMetrics == null || agentMetrics.isEmpty()) {
+        if (history == null) {
             return new ArrayList<>();
         }
-        
-        synchronized (agentMetrics) {
-            int size = agentMetrics.size();
-            int start = Math.max(0, size - limit);
-            return new ArrayList<>(agentMetrics.subList(start, size));
-        }
+        return history.raw.latest(limit).toMetrics();
     }
     
     /**
      * Get all metrics for an agent.
      */
     public List<Metric> getAllMetrics(String agentId) {
-        List<Metric> agentMetrics = metricsStore.get(agentId);
+        AgentHistory history = shard(agentId).get(agentId);
         
-        if (agentMetrics == null) {
+        if (history == null) {
             return new ArrayList<>();
         }
-        
-        synchronized (agentMetrics) {
-            return new ArrayList<>(agentMetrics);
-        }
+        return history.raw.all().toMetrics();
     }
     
     /**
@@ -154,23 +394,16 @@ public class DataManager {
      */
     public List<Alert> getAlerts(String agentId) {
         if (agentId == null) {
-            return new ArrayList<>(alertsStore);
-        }
-        
-        List<Alert> result = new ArrayList<>();
-        for (Alert alert : alertsStore) {
-            if (agentId.equals(alert.getAgentId())) {
-                result.add(alert);
-            }
+            return alertsStore.getAll();
         }
-        return result;
+        return alertsStore.getByAgent(agentId);
     }
     
     /**
      * Get all alerts.
      */
     public List<Alert> getAllAlerts() {
-        return new ArrayList<>(alertsStore);
+        return alertsStore.getAll();
     }
     
     /**
@@ -185,52 +418,241 @@ public class DataManager {
      * Get statistics for logging.
      */
     public String getStats() {
-        int totalMetrics = metricsStore.values().stream()
-            .mapToInt(List::size)
-            .sum();
-        return String.format("Agents: %d, Metrics: %d, Alerts: %d",
-            metricsStore.size(), totalMetrics, alertsStore.size());
+        int agents = 0;
+        int totalMetrics = 0;
+        int totalBuckets = 0;
+        long memory = 0;
+        for (DataShard shard : shards) {
+            agents += shard.size();
+            for (AgentHistory history : shard.histories()) {
+                totalMetrics += history.raw.size();
+                totalBuckets += history.rollupSize();
+                memory += history.heapBytes();
+            }
+        }
+        return String.format("Agents: %d, Metrics: %d, Rollup buckets: %d, Alerts: %d, Memory: %.1f/%d MB, Evicted: %d",
+            agents, totalMetrics, totalBuckets, alertsStore.size(), memory / (1024.0 * 1024),
+            config.getMemoryBudgetBytes() >> 20, evictedAgents.get());
     }
     
     /**
-     * Search agents by name pattern.
+     * Search agents by name pattern, returning at most the default number of matches.
      */
     public List<String> searchAgents(String query) {
+        return searchAgents(query, config.getSearchLimit());
+    }
+    
+    /**
+     * Search agents by name pattern, best matches first (see {@link AgentIndex}).
+     */
+    public List<String> searchAgents(String query, int limit) {
         if (query == null || query.isEmpty()) {
             return getActiveAgents();
         }
+        return agentIndex.search(query, limit);
+    }
+    
+    /**
+     * Get metrics within a date range, at a resolution giving a few hundred
+     * points. Long ranges come from the rollups, one metric (the averages) per bucket.
+     */
+    public List<Metric> getMetricsByDateRange(String agentId, long fromTime, long toTime) {
+        return getMetricsByDateRange(agentId, fromTime, toTime, defaultResolution(fromTime, toTime));
+    }
+    
+    /**
+     * Get metrics within a date range from the coarsest tier that still has
+     * the requested resolution (0 = raw samples whenever they cover the range).
+     * The part of the range older than the store holds comes from the history
+     * source, if any.
+     */
+    public List<Metric> getMetricsByDateRange(String agentId, long fromTime, long toTime, long resolutionMs) {
+        AgentHistory history = shard(agentId).get(agentId);
         
-        String lowerQuery = query.toLowerCase();
-        List<String> result = new ArrayList<>();
+        if (rawSamples(agentId, history, fromTime, resolutionMs)) {
+            return rawRange(agentId, history, fromTime, toTime).toMetrics();
+        }
+        return bucketRange(agentId, history, fromTime, toTime, resolutionMs).toMetrics();
+    }
+    
+    /**
+     * Get a count that grows with every sample stored for an agent, to tell
+     * whether its metrics changed since it was last read.
+     * @return The count, or -1 for an unknown agent
+     */
+    public long getUpdateCount(String agentId) {
+        AgentHistory history = shard(agentId).get(agentId);
+        return history == null ? -1 : history.updateCount();
+    }
+    
+    /**
+     * Get the samples of an agent stored while its update count went from
+     * {@code afterCount} up to {@code upToCount}, sorted by timestamp. Late
+     * samples are included even when older ones were stored after them.
+     */
+    public MetricSlice getMetricsAdded(String agentId, long afterCount, long upToCount) {
+        AgentHistory history = shard(agentId).get(agentId);
         
-        for (String agentId : metricsStore.keySet()) {
-            if (agentId.toLowerCase().contains(lowerQuery)) {
-                result.add(agentId);
-            }
+        if (history == null) {
+            return MetricSlice.empty(agentId);
         }
+        return history.raw.written(afterCount, upToCount);
+    }
+    
+    /**
+     * Get the buckets within a date range from the tier picked as for
+     * {@link #getMetricsByDateRange}; raw samples come as one bucket each.
+     */
+    public RollupSlice getRollupSlice(String agentId, long fromTime, long toTime) {
+        AgentHistory history = shard(agentId).get(agentId);
         
-        return result;
+        long resolutionMs = defaultResolution(fromTime, toTime);
+        if (resolutionMs == 0 && olderInSource(agentId, fromTime, rawOldest(history))) {
+            // Minute buckets give the same statistics as the raw samples on disk, and are far fewer
+            resolutionMs = DataShard.MINUTE_MS;
+        }
+        if (rawSamples(agentId, history, fromTime, resolutionMs)) {
+            return RollupSlice.of(rawRange(agentId, history, fromTime, toTime));
+        }
+        return bucketRange(agentId, history, fromTime, toTime, resolutionMs);
+    }
+    
+    private static long rawOldest(AgentHistory history) {
+        return history == null ? Long.MAX_VALUE : history.raw.oldest();
     }
     
     /**
-     * Get metrics within a date range.
+     * Whether a range starting at {@code fromTime} needs samples from the
+     * history source, i.e. it has some from before {@code storedFrom}, the
+     * oldest time the store has.
      */
-    public List<Metric> getMetricsByDateRange(String agentId, long fromTime, long toTime) {
-        List<Metric> allMetrics = getAllMetrics(agentId);
+    private boolean olderInSource(String agentId, long fromTime, long storedFrom) {
+        HistorySource source = historySource;
+        return source != null && fromTime < storedFrom && source.oldestTimestamp(agentId) < storedFrom;
+    }
+    
+    /**
+     * Whether a range is answered with raw samples rather than buckets.
+     */
+    private boolean rawSamples(String agentId, AgentHistory history, long fromTime, long resolutionMs) {
+        if (resolutionMs == 0 && olderInSource(agentId, fromTime, rawOldest(history))) {
+            return true;
+        }
+        if (history == null) {
+            return resolutionMs < DataShard.MINUTE_MS;
+        }
+        return history.select(fromTime, resolutionMs) == null;
+    }
+    
+    /**
+     * Raw samples within a date range: those older than the raw ring from
+     * the history source, the rest from the ring.
+     */
+    private MetricSlice rawRange(String agentId, AgentHistory history, long fromTime, long toTime) {
+        MetricSlice stored = history == null ? MetricSlice.empty(agentId) : history.raw.range(fromTime, toTime);
+        long storedFrom = rawOldest(history);
+        if (!olderInSource(agentId, fromTime, storedFrom)) {
+            return stored;
+        }
+        
+        MetricSlice.Builder samples = new MetricSlice.Builder(agentId, stored.size() + 1024);
+        scanSource(agentId, fromTime, Math.min(toTime, storedFrom - 1), samples::add);
+        for (int i = 0; i < stored.size(); i++) {
+            samples.add(stored.getTimestamp(i), (float) stored.getCpu(i), (float) stored.getRam(i),
+                (float) stored.getDisk(i));
+        }
+        return samples.build();
+    }
+    
+    /**
+     * Buckets within a date range from the tier picked for the resolution.
+     * The buckets before the tier's oldest one are folded from the history
+     * source at the same width, moving to a coarser tier if there are more of
+     * them than the tier keeps.
+     */
+    private RollupSlice bucketRange(String agentId, AgentHistory history, long fromTime, long toTime,
+                                    long resolutionMs) {
+        RollupRing[] tiers;
+        int tier = 0;
+        if (history != null) {
+            tiers = history.rollups;
+            RollupRing selected = history.select(fromTime, resolutionMs);
+            while (tier < tiers.length - 1 && tiers[tier] != selected) {
+                tier++;
+            }
+        } else {
+            tiers = DataShard.newRollups(agentId, shard(agentId).config());
+            while (tier < tiers.length - 1 && tiers[tier + 1].getWidth() <= resolutionMs) {
+                tier++;
+            }
+        }
+        
+        RollupRing ring = tiers[tier];
+        if (!olderInSource(agentId, fromTime, ring.oldest())) {
+            return ring.range(fromTime, toTime);
+        }
+        
+        long sourceFrom = Math.max(fromTime, historySource.oldestTimestamp(agentId));
+        long storedFrom;
+        while (true) {
+            ring = tiers[tier];
+            // The oldest bucket may hold only part of its interval, e.g. after a restart; refold it
+            storedFrom = ring.size() > 1 ? ring.oldest() + ring.getWidth() : ring.oldest();
+            long span = Math.min(storedFrom, toTime) - sourceFrom;
+            if (tier == tiers.length - 1 || span / ring.getWidth() < ring.getCapacity()) {
+                break;
+            }
+            tier++;
+        }
+        
+        RollupRing older = new RollupRing(agentId, ring.getWidth(), ring.getCapacity());
+        scanSource(agentId, fromTime, Math.min(toTime, storedFrom - 1), older::add);
+        RollupSlice stored = storedFrom == Long.MAX_VALUE ? RollupSlice.of(MetricSlice.empty(agentId))
+            : ring.range(storedFrom, toTime);
+        return RollupSlice.concat(older.range(fromTime, storedFrom - 1), stored);
+    }
+    
+    private void scanSource(String agentId, long fromTime, long toTime, SegmentReader.SampleConsumer consumer) {
+        try {
+            historySource.scan(agentId, fromTime, toTime, consumer);
+        } catch (IOException e) {
+            System.err.println("[DataManager] Failed to read the persisted history of " + agentId + ": " + e.getMessage());
+        }
+    }
+    
+    private static long defaultResolution(long fromTime, long toTime) {
+        if (fromTime <= 0 || toTime <= fromTime || toTime == Long.MAX_VALUE) {
+            // Open-ended: as fine as the raw samples allow
+            return 0;
+        }
+        return (toTime - fromTime) / TARGET_POINTS;
+    }
+    
+    private static final class AgentUsage {
+        final String agentId;
+        final long lastSeen;
+        final long bytes;
         
-        return allMetrics.stream()
-            .filter(m -> m.getTimestamp() >= fromTime && m.getTimestamp() <= toTime)
-            .toList();
+        AgentUsage(String agentId, long lastSeen, long bytes) {
+            this.agentId = agentId;
+            this.lastSeen = lastSeen;
+            this.bytes = bytes;
+        }
     }
     
     /**
      * Get alerts with filters.
      */
     public List<Alert> getAlertsByFilter(String agentId, String severity, long fromTime, long toTime) {
-        return alertsStore.stream()
-            .filter(a -> agentId == null || agentId.isEmpty() || a.getAgentId().equals(agentId))
-            .filter(a -> severity == null || severity.isEmpty() || a.getLevel().name().equals(severity))
-            .filter(a -> a.getTimestamp() >= fromTime && a.getTimestamp() <= toTime)
-            .toList();
+        Alert.Severity level = null;
+        if (severity != null && !severity.isEmpty()) {
+            try {
+                level = Alert.Severity.valueOf(severity);
+            } catch (IllegalArgumentException e) {
+                return new ArrayList<>();
+            }
+        }
+        String agent = agentId == null || agentId.isEmpty() ? null : agentId;
+        return alertsStore.query(agent, level, fromTime, toTime);
     }
 }
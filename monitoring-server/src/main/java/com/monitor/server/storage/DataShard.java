@@ -0,0 +1,158 @@
+package com.monitor.server.storage;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * One partition of the agent histories of a {@link DataManager}. Agents are
+ * assigned to shards by the hash of their ID; each shard has its own map and
+ * its own capacities (see {@link StorageConfig#forShard}).
+ */
+class DataShard {
+    
+    static final long MINUTE_MS = 60_000;
+    static final long HOUR_MS = 3_600_000;
+    
+    // Numbered ring file names tried for one agent before it is kept on the heap
+    private static final int MAX_RING_NAMES = 16;
+    
+    private final StorageConfig config;
+    private final Map<String, AgentHistory> histories = new ConcurrentHashMap<>();
+    
+    DataShard(StorageConfig config) {
+        this.config = config;
+    }
+    
+    /**
+     * Capacities of the histories in this shard.
+     */
+    StorageConfig config() {
+        return config;
+    }
+    
+    AgentHistory get(String agentId) {
+        return histories.get(agentId);
+    }
+    
+    /**
+     * Get the history of an agent, creating it on its first metric.
+     * @param onCreate Called once with the ID of a new agent
+     */
+    AgentHistory getOrCreate(String agentId, Consumer<String> onCreate) {
+        AgentHistory history = histories.get(agentId);
+        if (history == null) {
+            history = histories.computeIfAbsent(agentId, k -> {
+                onCreate.accept(k);
+                AgentHistory created = newHistory(k, newRing(k));
+                if (created.raw.size() > 0) {
+                    // Ring file reopened, e.g. for an agent evicted earlier
+                    created.rebuildRollups();
+                }
+                return created;
+            });
+        }
+        return history;
+    }
+    
+    /**
+     * Add the history of an agent whose ring was opened from a file.
+     */
+    void put(String agentId, MetricRing ring) {
+        AgentHistory history = newHistory(agentId, ring);
+        history.rebuildRollups();
+        histories.put(agentId, history);
+    }
+    
+    private AgentHistory newHistory(String agentId, MetricRing raw) {
+        return new AgentHistory(raw, newRollups(agentId, config));
+    }
+    
+    /**
+     * Empty rollup tiers for an agent, finest first.
+     */
+    static RollupRing[] newRollups(String agentId, StorageConfig config) {
+        return new RollupRing[] {
+            new RollupRing(agentId, MINUTE_MS, config.getMinuteBuckets()),
+            new RollupRing(agentId, HOUR_MS, config.getHourBuckets())
+        };
+    }
+    
+    /**
+     * Stop holding an agent, if {@code history} is still its history.
+     */
+    void remove(String agentId, AgentHistory history) {
+        histories.remove(agentId, history);
+    }
+    
+    /**
+     * Create the raw ring of a new agent in the configured storage, reusing
+     * its ring file if there is one. Falls back to the heap if the ring file
+     * cannot be created.
+     *
+     * A file under the agent's name that belongs to another agent (their IDs
+     * made file-safe collide) is left alone and the next numbered name tried.
+     */
+    private MetricRing newRing(String agentId) {
+        if (config.isMapped()) {
+            Path dir = Paths.get(config.getMappedDir());
+            Path file = null;
+            try {
+                Files.createDirectories(dir);
+                int attempt = 0;
+                while (attempt < MAX_RING_NAMES) {
+                    file = dir.resolve(ringFileName(agentId, attempt));
+                    if (!Files.exists(file)) {
+                        try {
+                            return ColumnMetricRing.create(file, agentId, config.getMetricsPerAgent());
+                        } catch (FileAlreadyExistsException e) {
+                            // Just created for a colliding agent in another shard; check whose it is
+                        }
+                    }
+                    ColumnMetricRing ring = ColumnMetricRing.open(file);
+                    if (ring.getAgentId().equals(agentId)) {
+                        return ring;
+                    }
+                    attempt++;
+                }
+                throw new IOException("all " + MAX_RING_NAMES + " ring file names are taken");
+            } catch (IOException e) {
+                System.err.println("[DataManager] Cannot map " + (file != null ? file : dir) + ", keeping "
+                    + agentId + " on the heap: " + e.getMessage());
+            }
+        }
+        return ColumnMetricRing.onHeap(agentId, config.getMetricsPerAgent());
+    }
+    
+    /**
+     * File name of an agent's ring: the ID made file-safe, plus its hash so
+     * that IDs differing only in replaced characters do not collide, and the
+     * attempt number after the first if they still do.
+     */
+    static String ringFileName(String agentId, int attempt) {
+        return AgentFiles.baseName(agentId) + (attempt == 0 ? "" : "-" + attempt) + ".ring";
+    }
+    
+    Set<String> agentIds() {
+        return histories.keySet();
+    }
+    
+    Collection<AgentHistory> histories() {
+        return histories.values();
+    }
+    
+    Set<Map.Entry<String, AgentHistory>> entries() {
+        return histories.entrySet();
+    }
+    
+    int size() {
+        return histories.size();
+    }
+}
@@ -0,0 +1,76 @@
+package com.monitor.server.storage;
+
+/**
+ * Sample columns as parallel primitive arrays on the heap. Gauges are kept
+ * as floats, the precision agents send them with.
+ */
+final class HeapMetricColumns implements MetricColumns {
+    
+    private final long[] timestamps;
+    private final float[] cpu;
+    private final float[] ram;
+    private final float[] disk;
+    // Sequence of the write that stored each sample, for saves
+    private final long[] sequences;
+    
+    HeapMetricColumns(int capacity) {
+        this.timestamps = new long[capacity];
+        this.cpu = new float[capacity];
+        this.ram = new float[capacity];
+        this.disk = new float[capacity];
+        this.sequences = new long[capacity];
+    }
+    
+    @Override
+    public int capacity() {
+        return timestamps.length;
+    }
+    
+    @Override
+    public long timestamp(int index) {
+        return timestamps[index];
+    }
+    
+    @Override
+    public void set(int index, long timestamp, float cpu, float ram, float disk) {
+        this.timestamps[index] = timestamp;
+        this.cpu[index] = cpu;
+        this.ram[index] = ram;
+        this.disk[index] = disk;
+    }
+    
+    @Override
+    public void move(int to, int from) {
+        timestamps[to] = timestamps[from];
+        cpu[to] = cpu[from];
+        ram[to] = ram[from];
+        disk[to] = disk[from];
+        sequences[to] = sequences[from];
+    }
+    
+    @Override
+    public long sequence(int index) {
+        return sequences[index];
+    }
+    
+    @Override
+    public void setSequence(int index, long sequence) {
+        sequences[index] = sequence;
+    }
+    
+    @Override
+    public void copyTo(MetricSlice slice, int from, int to, int length) {
+        slice.copyFrom(timestamps, cpu, ram, disk, from, to, length);
+    }
+    
+    @Override
+    public void load(MetricSlice samples, int from, int count) {
+        samples.copyTo(from, timestamps, cpu, ram, disk, count);
+    }
+    
+    @Override
+    public long heapBytes() {
+        // Five column arrays
+        return 80 + (long) timestamps.length * (2 * Long.BYTES + 3 * Float.BYTES);
+    }
+}
@@ -0,0 +1,164 @@
+package com.monitor.server.storage;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streams the metrics of a legacy JSON file, a flat array of objects such as
+ * {@code {"agentId":"a","timestamp":1,"cpu":1.00,"ram":2.00,"disk":3.00}}.
+ *
+ * The file is read through a fixed buffer and tokenized in a single pass, so
+ * it is never held in memory as a whole. Unknown keys are skipped.
+ */
+final class JsonMetricReader {
+    
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    private final StringBuilder token = new StringBuilder();
+    
+    // Fields of the object read last
+    String agentId;
+    long timestamp;
+    double cpu;
+    double ram;
+    double disk;
+    
+    JsonMetricReader(Reader in) {
+        this.in = in;
+    }
+    
+    /**
+     * Read the next object.
+     * @return false at the end of the array
+     */
+    boolean next() throws IOException {
+        int c = skipTo('{');
+        if (c < 0) {
+            return false;
+        }
+        agentId = null;
+        timestamp = 0;
+        cpu = 0;
+        ram = 0;
+        disk = 0;
+        
+        while (true) {
+            c = skipWhitespace();
+            if (c == '}') {
+                return true;
+            }
+            if (c != '"') {
+                // Separator, or the rest of a number written with a decimal comma by an old locale
+                continue;
+            }
+            String key = readString();
+            if (skipWhitespace() != ':') {
+                throw new IOException("Expected ':' after \"" + key + "\"");
+            }
+            
+            c = skipWhitespace();
+            if (c == '"') {
+                String value = readString();
+                if (key.equals("agentId")) {
+                    agentId = value;
+                }
+                continue;
+            }
+            readNumber(c);
+            try {
+                switch (key) {
+                    case "timestamp":
+                        timestamp = Long.parseLong(token, 0, token.length(), 10);
+                        break;
+                    case "cpu":
+                        cpu = Double.parseDouble(token.toString());
+                        break;
+                    case "ram":
+                        ram = Double.parseDouble(token.toString());
+                        break;
+                    case "disk":
+                        disk = Double.parseDouble(token.toString());
+                        break;
+                    default:
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad number for \"" + key + "\": " + token);
+            }
+        }
+    }
+    
+    private int read() throws IOException {
+        if (position == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+    
+    private int skipTo(char wanted) throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c >= 0 && c != wanted);
+        return c;
+    }
+    
+    private int skipWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c >= 0 && Character.isWhitespace(c));
+        if (c < 0) {
+            throw new IOException("Unexpected end of file");
+        }
+        return c;
+    }
+    
+    /**
+     * Read a string whose opening quote was consumed; escapes are kept as is
+     * except for an escaped quote or backslash.
+     */
+    private String readString() throws IOException {
+        token.setLength(0);
+        while (true) {
+            int c = read();
+            if (c < 0) {
+                throw new IOException("Unterminated string");
+            }
+            if (c == '"') {
+                return token.toString();
+            }
+            if (c == '\\') {
+                int escaped = read();
+                if (escaped != '"' && escaped != '\\') {
+                    token.append('\\');
+                }
+                c = escaped;
+            }
+            token.append((char) c);
+        }
+    }
+    
+    /**
+     * Read a number starting with {@code first} into the token buffer; the
+     * character after it is pushed back.
+     */
+    private void readNumber(int first) throws IOException {
+        token.setLength(0);
+        int c = first;
+        while (c >= 0 && (Character.isDigit(c) || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E')) {
+            token.append((char) c);
+            c = read();
+        }
+        if (c >= 0) {
+            position--;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.monitor.server.storage;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sample columns kept in a memory-mapped file instead of the heap.
+ *
+ * The file holds a small header (format, capacity, ring position and agent ID)
+ * followed by the same columns as {@link HeapMetricColumns}: timestamps as
+ * longs, then cpu, ram and disk as floats, all little-endian. The heap only
+ * holds the mapping; residency is left to the page cache, and the history is
+ * there again when the file is reopened after a restart.
+ *
+ * The ring position is written back to the header after every change; a crash
+ * in the middle of a write can leave that one sample inconsistent.
+ */
+final class MappedMetricColumns implements MetricColumns {
+    
+    private static final int MAGIC = 0x4D52494E; // "MRIN"
+    private static final int FORMAT_VERSION = 1;
+    
+    // Header layout
+    private static final int HEADER_SIZE = 512;
+    private static final int MAGIC_AT = 0;
+    private static final int FORMAT_AT = 4;
+    private static final int CAPACITY_AT = 8;
+    private static final int HEAD_AT = 12;
+    private static final int SIZE_AT = 16;
+    private static final int AGENT_ID_AT = 20;
+    private static final int MAX_AGENT_ID_BYTES = HEADER_SIZE - AGENT_ID_AT - 2;
+    
+    private final String agentId;
+    private final int capacity;
+    private final MappedByteBuffer buffer;
+    
+    // Byte offsets of the columns
+    private final int timestampsAt;
+    private final int cpuAt;
+    private final int ramAt;
+    private final int diskAt;
+    
+    private MappedMetricColumns(String agentId, int capacity, MappedByteBuffer buffer) {
+        this.agentId = agentId;
+        this.capacity = capacity;
+        this.buffer = buffer;
+        this.timestampsAt = HEADER_SIZE;
+        this.cpuAt = timestampsAt + capacity * Long.BYTES;
+        this.ramAt = cpuAt + capacity * Float.BYTES;
+        this.diskAt = ramAt + capacity * Float.BYTES;
+    }
+    
+    private static long fileSize(int capacity) {
+        return HEADER_SIZE + (long) capacity * (Long.BYTES + 3 * Float.BYTES);
+    }
+    
+    private static MappedByteBuffer map(Path file, long length, StandardOpenOption... options) throws IOException {
+        // The mapping stays valid once the channel is closed
+        try (FileChannel channel = FileChannel.open(file, options)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+    
+    /**
+     * Create an empty ring file; an existing file is never replaced.
+     */
+    static MappedMetricColumns create(Path file, String agentId, int capacity) throws IOException {
+        byte[] id = agentId.getBytes(StandardCharsets.UTF_8);
+        if (id.length > MAX_AGENT_ID_BYTES) {
+            throw new IOException("Agent ID too long for a ring file: " + agentId);
+        }
+        
+        MappedByteBuffer buffer = map(file, fileSize(capacity), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer.putInt(MAGIC_AT, MAGIC);
+        buffer.putInt(FORMAT_AT, FORMAT_VERSION);
+        buffer.putInt(CAPACITY_AT, capacity);
+        buffer.putInt(HEAD_AT, 0);
+        buffer.putInt(SIZE_AT, 0);
+        buffer.putShort(AGENT_ID_AT, (short) id.length);
+        buffer.put(AGENT_ID_AT + 2, id);
+        return new MappedMetricColumns(agentId, capacity, buffer);
+    }
+    
+    /**
+     * Map an existing ring file.
+     */
+    static MappedMetricColumns open(Path file) throws IOException {
+        MappedByteBuffer header = map(file, HEADER_SIZE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (header.getInt(MAGIC_AT) != MAGIC) {
+            throw new IOException("Not a metric ring file: " + file);
+        }
+        if (header.getInt(FORMAT_AT) != FORMAT_VERSION) {
+            throw new IOException("Unsupported ring format " + header.getInt(FORMAT_AT) + ": " + file);
+        }
+        
+        int capacity = header.getInt(CAPACITY_AT);
+        int head = header.getInt(HEAD_AT);
+        int size = header.getInt(SIZE_AT);
+        int idLength = header.getShort(AGENT_ID_AT);
+        if (capacity <= 0 || head < 0 || head >= capacity || size < 0 || size > capacity
+                || idLength < 0 || idLength > MAX_AGENT_ID_BYTES) {
+            throw new IOException("Corrupt ring header: " + file);
+        }
+        if (file.toFile().length() < fileSize(capacity)) {
+            throw new IOException("Truncated ring file: " + file);
+        }
+        
+        byte[] id = new byte[idLength];
+        header.get(AGENT_ID_AT + 2, id);
+        return new MappedMetricColumns(new String(id, StandardCharsets.UTF_8), capacity,
+            map(file, fileSize(capacity), StandardOpenOption.READ, StandardOpenOption.WRITE));
+    }
+    
+    String getAgentId() {
+        return agentId;
+    }
+    
+    /**
+     * Ring position saved in the header: index the next sample is written to.
+     */
+    int head() {
+        return buffer.getInt(HEAD_AT);
+    }
+    
+    /**
+     * Ring position saved in the header: number of samples held.
+     */
+    int size() {
+        return buffer.getInt(SIZE_AT);
+    }
+    
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+    
+    @Override
+    public long timestamp(int index) {
+        return buffer.getLong(timestampsAt + index * Long.BYTES);
+    }
+    
+    @Override
+    public void set(int index, long timestamp, float cpu, float ram, float disk) {
+        buffer.putLong(timestampsAt + index * Long.BYTES, timestamp);
+        buffer.putFloat(cpuAt + index * Float.BYTES, cpu);
+        buffer.putFloat(ramAt + index * Float.BYTES, ram);
+        buffer.putFloat(diskAt + index * Float.BYTES, disk);
+    }
+    
+    @Override
+    public void move(int to, int from) {
+        buffer.putLong(timestampsAt + to * Long.BYTES, timestamp(from));
+        buffer.putFloat(cpuAt + to * Float.BYTES, buffer.getFloat(cpuAt + from * Float.BYTES));
+        buffer.putFloat(ramAt + to * Float.BYTES, buffer.getFloat(ramAt + from * Float.BYTES));
+        buffer.putFloat(diskAt + to * Float.BYTES, buffer.getFloat(diskAt + from * Float.BYTES));
+    }
+    
+    @Override
+    public void copyTo(MetricSlice slice, int from, int to, int length) {
+        slice.copyFrom(buffer, timestampsAt, cpuAt, ramAt, diskAt, from, to, length);
+    }
+    
+    @Override
+    public void setPosition(int head, int size) {
+        buffer.putInt(HEAD_AT, head);
+        buffer.putInt(SIZE_AT, size);
+    }
+    
+    @Override
+    public long heapBytes() {
+        // The columns are in the file mapping, outside the heap
+        return 64;
+    }
+    
+    @Override
+    public void flush() {
+        buffer.force();
+    }
+}
@@ -0,0 +1,70 @@
+package com.monitor.server.storage;
+
+/**
+ * Storage of the sample columns of a {@link ColumnMetricRing}: timestamps,
+ * then cpu, ram and disk as floats, addressed by physical ring index.
+ *
+ * Implementations only store; ordering, wrap-around and the sequence lock are
+ * the ring's. Writes come from one thread at a time, reads may overlap them
+ * and are validated by the ring afterwards.
+ */
+interface MetricColumns {
+    
+    int capacity();
+    
+    long timestamp(int index);
+    
+    void set(int index, long timestamp, float cpu, float ram, float disk);
+    
+    /**
+     * Copy the sample at {@code from} over the one at {@code to}.
+     */
+    void move(int to, int from);
+    
+    /**
+     * Sequence of the write that stored the sample at {@code index} (see
+     * {@link MetricRing#sequence()}), or 0 for storage that does not track it.
+     */
+    default long sequence(int index) {
+        return 0;
+    }
+    
+    /**
+     * Record the sequence of the write that stored the sample at {@code index}.
+     * Only storage whose samples are saved by sequence keeps it.
+     */
+    default void setSequence(int index, long sequence) {
+    }
+    
+    /**
+     * Copy {@code length} samples starting at index {@code from} into a slice, at {@code to}.
+     */
+    void copyTo(MetricSlice slice, int from, int to, int length);
+    
+    /**
+     * Write {@code count} samples of a slice, starting at {@code from}, to the first indexes.
+     */
+    default void load(MetricSlice samples, int from, int count) {
+        for (int i = 0; i < count; i++) {
+            set(i, samples.getTimestamp(from + i), (float) samples.getCpu(from + i),
+                (float) samples.getRam(from + i), (float) samples.getDisk(from + i));
+        }
+    }
+    
+    /**
+     * Record the ring position, for storage that outlives the process.
+     */
+    default void setPosition(int head, int size) {
+    }
+    
+    /**
+     * Approximate heap memory held by the columns.
+     */
+    long heapBytes();
+    
+    /**
+     * Write the columns to stable storage, if they have any.
+     */
+    default void flush() {
+    }
+}
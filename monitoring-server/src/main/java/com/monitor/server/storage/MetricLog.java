@@ -0,0 +1,380 @@
+package com.monitor.server.storage;
+
+import com.monitor.model.Metric;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log of ingested metrics.
+ *
+ * Ingest threads only encode the sample into an in-memory batch. The batch is
+ * written and forced to disk by {@link #commit()}, called on a fixed interval,
+ * so one fsync covers every sample of the interval (group commit) and a crash
+ * loses at most one interval of data.
+ *
+ * The log is a series of segment files ({@code wal-<n>.log}). Each commit
+ * appends one frame: payload length, CRC32 of the payload, then the samples
+ * (agent ID, timestamp, gauges as floats, little-endian). A frame cut short by a
+ * crash fails its length or checksum and ends the replay of its segment. A
+ * commit that fails cuts the segment back to its last complete frame, or
+ * moves on to a new segment if it cannot, and keeps its samples for the next
+ * commit.
+ *
+ * A snapshot {@link #roll() rolls} to a new segment before it starts; once it
+ * is written, the segments before it hold nothing the snapshot lacks and are
+ * {@link #deleteBefore deleted}. The first segment not covered is recorded in
+ * a marker file beforehand, so a replay skips the covered ones even if they
+ * could not all be deleted, and replays every later one in full.
+ */
+public class MetricLog {
+    
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+    private static final String COVERED_FILE = "covered";
+    private static final int FRAME_HEADER = 2 * Integer.BYTES;
+    private static final int MAX_FRAME = 64 * 1024 * 1024;
+    
+    private final Path dir;
+    
+    // Guarded by this: batch being filled by ingest threads
+    private ByteBuffer pending = newBuffer(64 * 1024);
+    private int pendingSamples;
+    
+    // Guarded by writeLock: current segment and the batch being written
+    private final Object writeLock = new Object();
+    private ByteBuffer writing = newBuffer(64 * 1024);
+    private FileChannel channel;
+    private long segment;
+    // Size of the current segment up to its last complete frame
+    private long committedSize;
+    
+    private long committedSamples;
+    private long commits;
+    
+    /**
+     * Open a new segment after the ones already in {@code dir}.
+     */
+    public MetricLog(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        List<Long> existing = segments(dir);
+        // Never below the covered ones, which a replay would skip
+        this.segment = Math.max(covered(dir), existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1);
+        this.channel = openSegment(segment);
+        this.committedSize = channel.size();
+    }
+    
+    private static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(dir.resolve(segmentName(number)),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+    
+    private static String segmentName(long number) {
+        return String.format("%s%016d%s", PREFIX, number, SUFFIX);
+    }
+    
+    /**
+     * Add a sample to the next commit.
+     */
+    public void append(Metric metric) {
+        byte[] id = metric.getAgentId().getBytes(StandardCharsets.UTF_8);
+        int length = Short.BYTES + id.length + Long.BYTES + 3 * Float.BYTES;
+        
+        synchronized (this) {
+            if (pending.remaining() < length) {
+                ByteBuffer grown = newBuffer(Math.max(pending.capacity() * 2, pending.position() + length));
+                pending.flip();
+                grown.put(pending);
+                pending = grown;
+            }
+            pending.putShort((short) id.length);
+            pending.put(id);
+            pending.putLong(metric.getTimestamp());
+            pending.putFloat((float) metric.getCpuUsage());
+            pending.putFloat((float) metric.getRamUsage());
+            pending.putFloat((float) metric.getDiskUsage());
+            pendingSamples++;
+        }
+    }
+    
+    /**
+     * Write the samples appended since the last commit as one frame and force
+     * it to disk.
+     */
+    public void commit() throws IOException {
+        synchronized (writeLock) {
+            int samples;
+            synchronized (this) {
+                if (pendingSamples == 0) {
+                    return;
+                }
+                // Swap batches so ingest continues while this one is written
+                ByteBuffer full = pending;
+                pending = writing;
+                pending.clear();
+                writing = full;
+                samples = pendingSamples;
+                pendingSamples = 0;
+            }
+            
+            writing.flip();
+            CRC32 crc = new CRC32();
+            crc.update(writing.duplicate());
+            ByteBuffer header = newBuffer(FRAME_HEADER);
+            header.putInt(writing.remaining());
+            header.putInt((int) crc.getValue());
+            header.flip();
+            
+            ByteBuffer[] frame = { header, writing };
+            try {
+                while (header.hasRemaining() || writing.hasRemaining()) {
+                    channel.write(frame);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                discardPartialFrame();
+                requeue(samples);
+                throw e;
+            }
+            committedSize += FRAME_HEADER + writing.limit();
+            committedSamples += samples;
+            commits++;
+        }
+    }
+    
+    /**
+     * Cut a frame that failed to be written off the segment, so the frames
+     * committed after it can still be replayed; move on to a new segment if
+     * that fails too.
+     */
+    private void discardPartialFrame() {
+        try {
+            channel.truncate(committedSize);
+            return;
+        } catch (IOException e) {
+            System.err.println("[MetricLog] Cannot truncate segment " + segment + ": " + e.getMessage());
+        }
+        try {
+            FileChannel next = openSegment(segment + 1);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Replay stops at the partial frame, the next segment holds the rest
+            }
+            channel = next;
+            segment++;
+            committedSize = 0;
+        } catch (IOException e) {
+            System.err.println("[MetricLog] Cannot open segment " + (segment + 1) + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Put the batch that failed to be written back in front of the samples
+     * appended meanwhile.
+     */
+    private void requeue(int samples) {
+        ByteBuffer failed = writing;
+        failed.rewind();
+        synchronized (this) {
+            ByteBuffer later = pending;
+            later.flip();
+            ByteBuffer merged = newBuffer(Math.max(failed.capacity(), failed.remaining() + later.remaining()));
+            merged.put(failed);
+            merged.put(later);
+            pending = merged;
+            pendingSamples += samples;
+            later.clear();
+            writing = later;
+        }
+    }
+    
+    /**
+     * Commit, then continue in a new segment.
+     * @return Number of the new segment; earlier ones are complete
+     */
+    public long roll() throws IOException {
+        synchronized (writeLock) {
+            commit();
+            FileChannel next = openSegment(segment + 1);
+            channel.close();
+            channel = next;
+            segment++;
+            committedSize = 0;
+            return segment;
+        }
+    }
+    
+    /**
+     * Record that a snapshot covers the segments numbered below {@code number},
+     * then delete them.
+     */
+    public void deleteBefore(long number) throws IOException {
+        Path marker = dir.resolve(COVERED_FILE);
+        Path temp = dir.resolve(COVERED_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ByteBuffer.wrap(Long.toString(number).getBytes(StandardCharsets.US_ASCII)));
+            out.force(false);
+        }
+        try {
+            Files.move(temp, marker, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, marker, StandardCopyOption.REPLACE_EXISTING);
+        }
+        
+        for (long existing : segments(dir)) {
+            if (existing < number) {
+                Files.deleteIfExists(dir.resolve(segmentName(existing)));
+            }
+        }
+    }
+    
+    /**
+     * Commit and close the current segment.
+     */
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            commit();
+            channel.close();
+        }
+    }
+    
+    /**
+     * Get statistics for logging.
+     */
+    public String getStats() {
+        synchronized (writeLock) {
+            return String.format("WAL: segment %d, %d commits, %d samples committed",
+                segment, commits, committedSamples);
+        }
+    }
+    
+    /**
+     * Read back every sample in the segments of {@code dir} not covered by a
+     * snapshot, oldest first.
+     * @return Number of samples replayed
+     */
+    public static long replay(Path dir, Consumer<Metric> consumer) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        long covered = covered(dir);
+        long total = 0;
+        for (long number : segments(dir)) {
+            if (number >= covered) {
+                total += replaySegment(dir.resolve(segmentName(number)), consumer);
+            }
+        }
+        return total;
+    }
+    
+    /**
+     * Number of the first segment not covered by a snapshot, 0 if none is recorded.
+     */
+    private static long covered(Path dir) throws IOException {
+        Path marker = dir.resolve(COVERED_FILE);
+        if (!Files.exists(marker)) {
+            return 0;
+        }
+        String content = new String(Files.readAllBytes(marker), StandardCharsets.US_ASCII).trim();
+        try {
+            return Long.parseLong(content);
+        } catch (NumberFormatException e) {
+            // Replaying too much is safe, duplicates of stored samples are skipped
+            System.err.println("[MetricLog] Ignoring unreadable " + marker);
+            return 0;
+        }
+    }
+    
+    private static long replaySegment(Path file, Consumer<Metric> consumer) throws IOException {
+        long samples = 0;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = newBuffer(FRAME_HEADER);
+            while (true) {
+                header.clear();
+                if (readFully(in, header) < FRAME_HEADER) {
+                    break;
+                }
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (length <= 0 || length > MAX_FRAME || length > in.size() - in.position()) {
+                    System.err.println("[MetricLog] Truncated frame in " + file.getFileName() + ", stopping replay there");
+                    break;
+                }
+                
+                ByteBuffer payload = newBuffer(length);
+                readFully(in, payload);
+                payload.flip();
+                CRC32 crc = new CRC32();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    System.err.println("[MetricLog] Bad checksum in " + file.getFileName() + ", stopping replay there");
+                    break;
+                }
+                
+                while (payload.hasRemaining()) {
+                    byte[] id = new byte[payload.getShort() & 0xFFFF];
+                    payload.get(id);
+                    long timestamp = payload.getLong();
+                    Metric metric = new Metric(new String(id, StandardCharsets.UTF_8),
+                        payload.getFloat(), payload.getFloat(), payload.getFloat());
+                    metric.setTimestamp(timestamp);
+                    consumer.accept(metric);
+                    samples++;
+                }
+            }
+        }
+        return samples;
+    }
+    
+    private static int readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+    
+    /**
+     * Segment numbers present in {@code dir}, ascending.
+     */
+    private static List<Long> segments(Path dir) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    System.err.println("[MetricLog] Ignoring " + name);
+                }
+            }
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+}
@@ -0,0 +1,84 @@
+package com.monitor.server.storage;
+
+import com.monitor.model.Metric;
+
+/**
+ * Fixed-capacity metric history of one agent, sorted by timestamp.
+ * The oldest sample is overwritten once the ring is full.
+ */
+public interface MetricRing {
+    
+    /**
+     * Insert a sample at its place in timestamp order.
+     */
+    void add(Metric metric);
+    
+    /**
+     * Insert samples sorted by timestamp, e.g. history loaded from disk.
+     * Implementations copy them in one go while the ring is empty.
+     */
+    default void addAll(MetricSlice samples) {
+        for (int i = 0; i < samples.size(); i++) {
+            add(samples.toMetric(i));
+        }
+    }
+    
+    int size();
+    
+    int capacity();
+    
+    /**
+     * Whether the ring still holds every sample from {@code fromTime} on.
+     */
+    boolean covers(long fromTime);
+    
+    /**
+     * Timestamp of the oldest sample held, or Long.MAX_VALUE when empty.
+     */
+    long oldest();
+    
+    /**
+     * Approximate heap memory held by the ring, for the store's memory budget.
+     */
+    long heapBytes();
+    
+    /**
+     * Copy out the most recent samples, oldest first.
+     */
+    MetricSlice latest(int limit);
+    
+    /**
+     * Copy out every sample, oldest first.
+     */
+    MetricSlice all();
+    
+    /**
+     * Copy out the samples with a timestamp in [fromTime, toTime], oldest first.
+     */
+    MetricSlice range(long fromTime, long toTime);
+    
+    /**
+     * Sequence number of the latest write. Each write numbers the samples it
+     * stores above all earlier ones, whatever their timestamps.
+     */
+    long sequence();
+    
+    /**
+     * Copy out the samples still held that were written after
+     * {@code afterSequence} and up to {@code upToSequence}, oldest first.
+     * Rings that do not keep per-sample sequences return none.
+     */
+    MetricSlice written(long afterSequence, long upToSequence);
+    
+    /**
+     * Write the samples to stable storage, if the ring has any.
+     */
+    default void flush() {
+    }
+    
+    /**
+     * Release the storage of the ring; it must not be used afterwards.
+     */
+    default void close() {
+    }
+}
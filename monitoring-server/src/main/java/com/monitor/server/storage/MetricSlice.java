@@ -0,0 +1,199 @@
+package com.monitor.server.storage;
+
+import com.monitor.model.Metric;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A copy of consecutive samples of one agent, oldest first, in primitive columns.
+ * Lets statistics run over a time range without creating Metric objects.
+ */
+public class MetricSlice {
+    
+    private final String agentId;
+    private final long[] timestamps;
+    private final float[] cpu;
+    private final float[] ram;
+    private final float[] disk;
+    
+    MetricSlice(String agentId, int size) {
+        this.agentId = agentId;
+        this.timestamps = new long[size];
+        this.cpu = new float[size];
+        this.ram = new float[size];
+        this.disk = new float[size];
+    }
+    
+    /**
+     * Collects samples of unknown number into a slice, e.g. while reading a file.
+     */
+    static final class Builder {
+        private final String agentId;
+        private long[] timestamps;
+        private float[] cpu;
+        private float[] ram;
+        private float[] disk;
+        private int size;
+        private boolean sorted = true;
+        
+        Builder(String agentId, int expected) {
+            this.agentId = agentId;
+            int length = Math.max(16, expected);
+            this.timestamps = new long[length];
+            this.cpu = new float[length];
+            this.ram = new float[length];
+            this.disk = new float[length];
+        }
+        
+        void add(long timestamp, float cpuUsage, float ramUsage, float diskUsage) {
+            if (size == timestamps.length) {
+                int length = size * 2;
+                timestamps = Arrays.copyOf(timestamps, length);
+                cpu = Arrays.copyOf(cpu, length);
+                ram = Arrays.copyOf(ram, length);
+                disk = Arrays.copyOf(disk, length);
+            }
+            if (size > 0 && timestamp < timestamps[size - 1]) {
+                sorted = false;
+            }
+            timestamps[size] = timestamp;
+            cpu[size] = cpuUsage;
+            ram[size] = ramUsage;
+            disk[size] = diskUsage;
+            size++;
+        }
+        
+        int size() {
+            return size;
+        }
+        
+        /**
+         * The samples collected, sorted by timestamp.
+         */
+        MetricSlice build() {
+            MetricSlice slice = new MetricSlice(agentId, size);
+            if (sorted) {
+                slice.copyFrom(timestamps, cpu, ram, disk, 0, 0, size);
+                return slice;
+            }
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            // Stable, so samples with equal timestamps keep their order
+            Arrays.sort(order, (a, b) -> Long.compare(timestamps[a], timestamps[b]));
+            for (int i = 0; i < size; i++) {
+                int from = order[i];
+                slice.timestamps[i] = timestamps[from];
+                slice.cpu[i] = cpu[from];
+                slice.ram[i] = ram[from];
+                slice.disk[i] = disk[from];
+            }
+            return slice;
+        }
+    }
+    
+    /**
+     * An empty slice.
+     */
+    public static MetricSlice empty(String agentId) {
+        return new MetricSlice(agentId, 0);
+    }
+    
+    /**
+     * Copy {@code length} samples of a ring's columns, starting at {@code from}, to {@code to}.
+     */
+    void copyFrom(long[] srcTimestamps, float[] srcCpu, float[] srcRam, float[] srcDisk,
+                  int from, int to, int length) {
+        System.arraycopy(srcTimestamps, from, timestamps, to, length);
+        System.arraycopy(srcCpu, from, cpu, to, length);
+        System.arraycopy(srcRam, from, ram, to, length);
+        System.arraycopy(srcDisk, from, disk, to, length);
+    }
+    
+    /**
+     * Copy {@code length} samples of mapped columns, given by their byte
+     * offsets in {@code columns}, starting at sample {@code from}, to {@code to}.
+     */
+    void copyFrom(ByteBuffer columns, int timestampsAt, int cpuAt, int ramAt, int diskAt,
+                  int from, int to, int length) {
+        for (int i = 0; i < length; i++) {
+            timestamps[to + i] = columns.getLong(timestampsAt + (from + i) * Long.BYTES);
+            cpu[to + i] = columns.getFloat(cpuAt + (from + i) * Float.BYTES);
+            ram[to + i] = columns.getFloat(ramAt + (from + i) * Float.BYTES);
+            disk[to + i] = columns.getFloat(diskAt + (from + i) * Float.BYTES);
+        }
+    }
+    
+    /**
+     * Copy {@code length} samples starting at {@code from} into the start of a ring's columns.
+     */
+    void copyTo(int from, long[] dstTimestamps, float[] dstCpu, float[] dstRam, float[] dstDisk, int length) {
+        System.arraycopy(timestamps, from, dstTimestamps, 0, length);
+        System.arraycopy(cpu, from, dstCpu, 0, length);
+        System.arraycopy(ram, from, dstRam, 0, length);
+        System.arraycopy(disk, from, dstDisk, 0, length);
+    }
+    
+    /**
+     * A copy of the samples from {@code from} (inclusive) to {@code to} (exclusive).
+     */
+    MetricSlice subSlice(int from, int to) {
+        MetricSlice slice = new MetricSlice(agentId, to - from);
+        slice.copyFrom(timestamps, cpu, ram, disk, from, 0, to - from);
+        return slice;
+    }
+    
+    public String getAgentId() {
+        return agentId;
+    }
+    
+    public int size() {
+        return timestamps.length;
+    }
+    
+    public boolean isEmpty() {
+        return timestamps.length == 0;
+    }
+    
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+    
+    public double getCpu(int index) {
+        return cpu[index];
+    }
+    
+    public double getRam(int index) {
+        return ram[index];
+    }
+    
+    public double getDisk(int index) {
+        return disk[index];
+    }
+    
+    /**
+     * Create a Metric for one sample.
+     */
+    Metric toMetric(int index) {
+        Metric metric = new Metric(agentId, cpu[index], ram[index], disk[index]);
+        metric.setTimestamp(timestamps[index]);
+        return metric;
+    }
+    
+    /**
+     * Create one Metric per sample.
+     */
+    public List<Metric> toMetrics() {
+        List<Metric> result = new ArrayList<>(timestamps.length);
+        for (int i = 0; i < timestamps.length; i++) {
+            Metric metric = new Metric(agentId, cpu[i], ram[i], disk[i]);
+            metric.setTimestamp(timestamps[i]);
+            result.add(metric);
+        }
+        return result;
+    }
+}
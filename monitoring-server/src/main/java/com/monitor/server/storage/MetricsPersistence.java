@@ -1,28 +1,76 @@
 package com.monitor.server.storage;
 
-import com.monitor.model.Metric;
+import com.monitor.server.exec.ServerExecutors;
+import com.monitor.server.storage.segment.SegmentReader;
+import com.monitor.server.storage.segment.SegmentWriter;
 
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
- * Handles persistence of metrics to JSON files.
- * Saves metrics periodically and loads them on startup.
+ * Handles persistence of metrics to compressed segment files, a series per
+ * agent (see {@link SegmentStore}). Saves append the samples added since the
+ * previous save; startup only indexes the files and loads the newest samples,
+ * older ones being read back when a query asks for them. Files from earlier
+ * versions are moved or converted into this layout on startup.
+ *
+ * Between snapshots every ingested sample also goes to a write-ahead
+ * {@link MetricLog}, committed every few hundred milliseconds. Startup loads
+ * the snapshot, then replays the log on top of it.
  */
 public class MetricsPersistence {
     
     private static final String DATA_DIR = "data/metrics";
+    private static final String SEGMENT_SUFFIX = ".seg";
     private static final long SAVE_INTERVAL_MS = 60000; // Save every minute
     
+    // Decoded blocks kept for queries reaching into the files (override with -Dmonitor.storage.blockCacheMb)
+    private static final long BLOCK_CACHE_BYTES = Long.getLong("monitor.storage.blockCacheMb", 64) << 20;
+    
+    // Each save round is written in this many slices spread over the interval (override with -Dmonitor.save.slices)
+    private static final int SAVE_SLICES = Math.max(1, Integer.getInteger("monitor.save.slices", 12));
+    
+    // Threads reading files at startup (override with -Dmonitor.load.threads)
+    private static final int LOAD_THREADS = Integer.getInteger("monitor.load.threads",
+        Runtime.getRuntime().availableProcessors());
+    
+    // Write-ahead log between snapshots (disable with -Dmonitor.wal=false)
+    private static final String WAL_DIR = "data/wal";
+    private static final boolean WAL_ENABLED = Boolean.parseBoolean(System.getProperty("monitor.wal", "true"));
+    private static final long WAL_COMMIT_MS = Long.getLong("monitor.wal.commitMs", 200);
+    
     private final DataManager dataManager;
     private final ScheduledExecutorService scheduler;
+    private final ServerExecutors executors;
     private volatile boolean running = true;
     
-    public MetricsPersistence(DataManager dataManager) {
+    private MetricLog metricLog;
+    private ScheduledExecutorService logScheduler;
+    
+    private final SegmentStore segments = new SegmentStore(Paths.get(DATA_DIR), BLOCK_CACHE_BYTES);
+    
+    // Update count of each agent's metrics up to which its samples were written
+    private final Map<String, Long> savedUpdates = new ConcurrentHashMap<>();
+    
+    // Guarded by this: the save round in progress
+    private final Deque<String> roundAgents = new ArrayDeque<>();
+    private int roundSlicesLeft;
+    private long roundSegment;
+    private boolean roundComplete;
+    private int roundSaved;
+    private int roundUnchanged;
+    
+    // Guarded by this: samples of evicted agents that could not be written, retried every round
+    private final List<MetricSlice> unsavedEvictions = new ArrayList<>();
+    
+    public MetricsPersistence(DataManager dataManager, ServerExecutors executors) {
         this.dataManager = dataManager;
-        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.scheduler = executors.newScheduler("MetricsPersistence");
+        this.executors = executors;
         
         // Create data directory
         try {
@@ -36,14 +84,28 @@ public class MetricsPersistence {
      * Start periodic saving.
      */
     public void start() {
-        // Load existing data
+        if (dataManager.isMetricStoragePersistent()) {
+            System.out.println("[MetricsPersistence] Metrics are memory-mapped, snapshots disabled");
+            return;
+        }
+        
+        // Load existing data, then what was logged after it
         loadAllMetrics();
+        dataManager.setHistorySource(segments);
+        if (WAL_ENABLED) {
+            replayLog();
+            openLog();
+        }
         
-        // Schedule periodic saves
+        // Write out agents the store evicts, they would otherwise miss the next save
+        dataManager.addEvictionListener(this::onEvict);
+        
+        // Schedule periodic saves, a slice of each round at a time
+        long sliceMs = SAVE_INTERVAL_MS / SAVE_SLICES;
         scheduler.scheduleAtFixedRate(
-            this::saveAllMetrics,
-            SAVE_INTERVAL_MS,
-            SAVE_INTERVAL_MS,
+            this::saveSlice,
+            sliceMs,
+            sliceMs,
             TimeUnit.MILLISECONDS
         );
         
@@ -56,198 +118,410 @@ public class MetricsPersistence {
     public void stop() {
         running = false;
         scheduler.shutdown();
+        if (dataManager.isMetricStoragePersistent()) {
+            dataManager.flush();
+            System.out.println("[MetricsPersistence] Flushed memory-mapped metrics");
+            return;
+        }
         saveAllMetrics();
+        if (metricLog != null) {
+            logScheduler.shutdown();
+            try {
+                metricLog.close();
+            } catch (IOException e) {
+                System.err.println("[MetricsPersistence] Failed to close the write-ahead log: " + e.getMessage());
+            }
+        }
         System.out.println("[MetricsPersistence] Stopped and saved final state");
     }
     
     /**
-     * Save all metrics to files.
+     * Save the metrics of every agent changed since its last save, at once.
      */
-    public void saveAllMetrics() {
-        Set<String> agentIds = dataManager.getAllAgentIds();
-        
-        for (String agentId : agentIds) {
-            saveAgentMetrics(agentId);
-        }
-        
-        System.out.println("[MetricsPersistence] Saved metrics for " + agentIds.size() + " agents");
+    public synchronized void saveAllMetrics() {
+        startRound();
+        writeRound(roundAgents.size());
+        finishRound();
     }
     
     /**
-     * Save metrics for a specific agent.
+     * Write the next share of the current save round, starting a round when
+     * none is in progress. A round writes the agents that had changed when
+     * it started, spread evenly over its slices.
      */
-    private void saveAgentMetrics(String agentId) {
-        List<Metric> metrics = dataManager.getAllMetrics(agentId);
-        
-        if (metrics.isEmpty()) {
+    private synchronized void saveSlice() {
+        if (!running) {
             return;
         }
+        if (roundSlicesLeft == 0) {
+            startRound();
+            roundSlicesLeft = SAVE_SLICES;
+        }
+        writeRound((roundAgents.size() + roundSlicesLeft - 1) / roundSlicesLeft);
+        if (--roundSlicesLeft == 0) {
+            finishRound();
+        }
+    }
+    
+    private void startRound() {
+        // Samples from here on go to a new log segment; the older ones are covered by this round
+        roundSegment = rollLog();
+        roundAgents.clear();
+        roundSaved = 0;
+        roundUnchanged = 0;
         
-        String filename = sanitizeFilename(agentId) + ".json";
-        Path filepath = Paths.get(DATA_DIR, filename);
+        // Until they are written, the log holds the only copy of these
+        for (Iterator<MetricSlice> it = unsavedEvictions.iterator(); it.hasNext(); ) {
+            MetricSlice samples = it.next();
+            if (writeAgentMetrics(samples.getAgentId(), samples)) {
+                it.remove();
+            }
+        }
+        roundComplete = unsavedEvictions.isEmpty();
         
-        try (BufferedWriter writer = Files.newBufferedWriter(filepath)) {
-            writer.write("[\n");
-            
-            for (int i = 0; i < metrics.size(); i++) {
-                Metric m = metrics.get(i);
-                writer.write(String.format(
-                    "  {\"agentId\":\"%s\",\"timestamp\":%d,\"cpu\":%.2f,\"ram\":%.2f,\"disk\":%.2f}",
-                    m.getAgentId(), m.getTimestamp(), m.getCpuUsage(), m.getRamUsage(), m.getDiskUsage()
-                ));
-                
-                if (i < metrics.size() - 1) {
-                    writer.write(",");
-                }
-                writer.write("\n");
+        for (String agentId : dataManager.getAllAgentIds()) {
+            Long saved = savedUpdates.get(agentId);
+            if (saved == null || saved != dataManager.getUpdateCount(agentId)) {
+                roundAgents.add(agentId);
+            } else {
+                roundUnchanged++;
             }
-            
-            writer.write("]");
-            
+        }
+    }
+    
+    private void writeRound(int agents) {
+        for (int i = 0; i < agents && !roundAgents.isEmpty(); i++) {
+            roundComplete &= saveAgentMetrics(roundAgents.poll());
+            roundSaved++;
+        }
+    }
+    
+    private void finishRound() {
+        if (roundComplete && roundSegment > 0) {
+            try {
+                metricLog.deleteBefore(roundSegment);
+            } catch (IOException e) {
+                System.err.println("[MetricsPersistence] Failed to delete old log segments: " + e.getMessage());
+            }
+        }
+        
+        if (roundSaved > 0) {
+            System.out.println("[MetricsPersistence] Saved metrics for " + roundSaved + " agents ("
+                + roundUnchanged + " unchanged); " + segments.getStats()
+                + (metricLog != null ? "; " + metricLog.getStats() : ""));
+        }
+        roundSlicesLeft = 0;
+    }
+    
+    /**
+     * Start a new log segment before a snapshot.
+     * @return Its number, or 0 without a log
+     */
+    private long rollLog() {
+        if (metricLog == null) {
+            return 0;
+        }
+        try {
+            return metricLog.roll();
         } catch (IOException e) {
-            System.err.println("[MetricsPersistence] Failed to save metrics for " + agentId + ": " + e.getMessage());
+            System.err.println("[MetricsPersistence] Failed to roll the write-ahead log: " + e.getMessage());
+            return 0;
         }
     }
     
     /**
-     * Load all metrics from files.
+     * Open a new log segment and log every ingested sample, committing on a fixed interval.
      */
-    public void loadAllMetrics() {
+    private void openLog() {
         try {
-            Path dataPath = Paths.get(DATA_DIR);
-            
-            if (!Files.exists(dataPath)) {
-                System.out.println("[MetricsPersistence] No existing data directory");
-                return;
-            }
-            
-            Files.list(dataPath)
-                .filter(p -> p.toString().endsWith(".json"))
-                .forEach(this::loadAgentMetrics);
-                
+            metricLog = new MetricLog(Paths.get(WAL_DIR));
         } catch (IOException e) {
-            System.err.println("[MetricsPersistence] Failed to list data files: " + e.getMessage());
+            System.err.println("[MetricsPersistence] Write-ahead log disabled, cannot open " + WAL_DIR + ": " + e.getMessage());
+            return;
         }
+        dataManager.addIngestListener(metricLog::append);
+        
+        // Own thread, so a long snapshot does not hold up commits
+        logScheduler = executors.newScheduler("MetricLog");
+        logScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                metricLog.commit();
+            } catch (IOException e) {
+                System.err.println("[MetricsPersistence] Write-ahead log commit failed: " + e.getMessage());
+            }
+        }, WAL_COMMIT_MS, WAL_COMMIT_MS, TimeUnit.MILLISECONDS);
+        
+        System.out.println("[MetricsPersistence] Write-ahead log in " + WAL_DIR + ", group commit every " + WAL_COMMIT_MS + "ms");
     }
     
     /**
-     * Load metrics for a specific agent from file.
+     * Add the samples logged since the last complete snapshot: every segment
+     * after those it covers is replayed, late samples included. A save round
+     * cut short, or the one at shutdown, may have stored part of them already;
+     * a logged sample equal to a stored one in timestamp and values is such a
+     * duplicate and skipped.
      */
-    private void loadAgentMetrics(Path filepath) {
+    private void replayLog() {
+        Map<String, MetricSlice.Builder> logged = new HashMap<>();
         try {
-            String content = Files.readString(filepath);
-            List<Metric> metrics = parseMetricsJson(content);
-            
-            for (Metric metric : metrics) {
-                dataManager.addMetric(metric);
+            long replayed = MetricLog.replay(Paths.get(WAL_DIR), metric ->
+                logged.computeIfAbsent(metric.getAgentId(), id -> new MetricSlice.Builder(id, 256))
+                    .add(metric.getTimestamp(), (float) metric.getCpuUsage(),
+                        (float) metric.getRamUsage(), (float) metric.getDiskUsage()));
+            long duplicates = 0;
+            for (MetricSlice.Builder samples : logged.values()) {
+                MetricSlice all = samples.build();
+                MetricSlice fresh = withoutStored(all);
+                duplicates += all.size() - fresh.size();
+                dataManager.loadHistory(fresh);
+            }
+            if (replayed > 0) {
+                System.out.println("[MetricsPersistence] Replayed " + (replayed - duplicates) + " logged metrics ("
+                    + duplicates + " already in the snapshot)");
             }
-            
-            System.out.println("[MetricsPersistence] Loaded " + metrics.size() + " metrics from " + filepath.getFileName());
-            
         } catch (IOException e) {
-            System.err.println("[MetricsPersistence] Failed to load " + filepath + ": " + e.getMessage());
+            System.err.println("[MetricsPersistence] Failed to replay the write-ahead log: " + e.getMessage());
         }
     }
     
     /**
-     * Parse JSON array of metrics (simple parser, no external dependencies).
+     * Drop the samples, sorted by timestamp, that are stored with the same values.
      */
-    private List<Metric> parseMetricsJson(String json) {
-        List<Metric> metrics = new ArrayList<>();
+    private MetricSlice withoutStored(MetricSlice samples) throws IOException {
+        String agentId = samples.getAgentId();
+        MetricSlice.Builder found = new MetricSlice.Builder(agentId, samples.size());
+        segments.scan(agentId, samples.getTimestamp(0), samples.getTimestamp(samples.size() - 1), found::add);
+        MetricSlice stored = found.build();
         
-        // Simple parsing - find each object
-        int start = 0;
-        while ((start = json.indexOf("{", start)) != -1) {
-            int end = json.indexOf("}", start);
-            if (end == -1) break;
-            
-            String obj = json.substring(start, end + 1);
-            Metric metric = parseMetricObject(obj);
-            if (metric != null) {
-                metrics.add(metric);
+        MetricSlice.Builder fresh = new MetricSlice.Builder(agentId, samples.size());
+        int s = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            long timestamp = samples.getTimestamp(i);
+            while (s < stored.size() && stored.getTimestamp(s) < timestamp) {
+                s++;
+            }
+            boolean duplicate = false;
+            for (int k = s; k < stored.size() && stored.getTimestamp(k) == timestamp && !duplicate; k++) {
+                duplicate = stored.getCpu(k) == samples.getCpu(i) && stored.getRam(k) == samples.getRam(i)
+                    && stored.getDisk(k) == samples.getDisk(i);
+            }
+            if (!duplicate) {
+                fresh.add(timestamp, (float) samples.getCpu(i), (float) samples.getRam(i), (float) samples.getDisk(i));
             }
-            
-            start = end + 1;
         }
-        
-        return metrics;
+        return fresh.build();
     }
     
     /**
-     * Parse a single metric JSON object.
+     * Append the samples of an agent added since its last save.
      */
-    private Metric parseMetricObject(String obj) {
-        try {
-            String agentId = extractStringValue(obj, "agentId");
-            long timestamp = extractLongValue(obj, "timestamp");
-            double cpu = extractDoubleValue(obj, "cpu");
-            double ram = extractDoubleValue(obj, "ram");
-            double disk = extractDoubleValue(obj, "disk");
-            
-            Metric metric = new Metric(agentId, cpu, ram, disk);
-            metric.setTimestamp(timestamp);
-            return metric;
-            
-        } catch (Exception e) {
-            return null;
+    private boolean saveAgentMetrics(String agentId) {
+        // Samples added after this count are left for the next save
+        long updates = dataManager.getUpdateCount(agentId);
+        if (updates < 0) {
+            // Evicted since the round started, and written out then
+            return true;
         }
+        Long saved = savedUpdates.get(agentId);
+        if (!writeAgentMetrics(agentId, dataManager.getMetricsAdded(agentId, saved == null ? 0 : saved, updates))) {
+            return false;
+        }
+        savedUpdates.put(agentId, updates);
+        return true;
     }
     
-    private String extractStringValue(String json, String key) {
-        int keyIndex = json.indexOf("\"" + key + "\"");
-        if (keyIndex == -1) return null;
-        
-        int colonIndex = json.indexOf(":", keyIndex);
-        int startQuote = json.indexOf("\"", colonIndex);
-        int endQuote = json.indexOf("\"", startQuote + 1);
-        
-        return json.substring(startQuote + 1, endQuote);
+    /**
+     * Save the samples of an agent the store evicted that were not saved yet.
+     * The agent is still in the store while this runs, and saves of it wait
+     * on this object, so its update count cannot move meanwhile.
+     */
+    private synchronized void onEvict(String agentId, MetricSlice samples) {
+        Long saved = savedUpdates.remove(agentId);
+        MetricSlice unsaved = saved == null ? samples : dataManager.getMetricsAdded(agentId, saved, Long.MAX_VALUE);
+        if (!writeAgentMetrics(agentId, unsaved)) {
+            // Keep the log segments holding them until a retry succeeds
+            unsavedEvictions.add(unsaved);
+            roundComplete = false;
+        }
     }
     
-    private long extractLongValue(String json, String key) {
-        int keyIndex = json.indexOf("\"" + key + "\"");
-        if (keyIndex == -1) return 0;
-        
-        int colonIndex = json.indexOf(":", keyIndex);
-        int start = colonIndex + 1;
-        
-        // Skip whitespace
-        while (start < json.length() && Character.isWhitespace(json.charAt(start))) {
-            start++;
+    /**
+     * Append samples sorted by timestamp as new segments: those no newer than
+     * the agent's last stored one, which arrived late, apart from the rest.
+     */
+    private synchronized boolean writeAgentMetrics(String agentId, MetricSlice samples) {
+        if (samples.isEmpty()) {
+            return true;
         }
-        
-        int end = start;
-        while (end < json.length() && (Character.isDigit(json.charAt(end)) || json.charAt(end) == '-')) {
-            end++;
+        long stored = segments.newestTimestamp(agentId);
+        int late = 0;
+        while (late < samples.size() && samples.getTimestamp(late) <= stored) {
+            late++;
         }
         
-        return Long.parseLong(json.substring(start, end));
+        try {
+            if (late > 0) {
+                segments.append(agentId, late == samples.size() ? samples : samples.subSlice(0, late));
+            }
+            if (late < samples.size()) {
+                segments.append(agentId, late == 0 ? samples : samples.subSlice(late, samples.size()));
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("[MetricsPersistence] Failed to save metrics for " + agentId + ": " + e.getMessage());
+            return false;
+        }
     }
     
-    private double extractDoubleValue(String json, String key) {
-        int keyIndex = json.indexOf("\"" + key + "\"");
-        if (keyIndex == -1) return 0;
+    /**
+     * Index the stored segments of every agent, several agents at a time, and
+     * load only the newest samples of each into the store; older ones are read
+     * from disk when a query reaches back to them. The agents do not count as
+     * active until they report again.
+     */
+    public void loadAllMetrics() {
+        Path dataPath = Paths.get(DATA_DIR);
+        if (!Files.exists(dataPath)) {
+            System.out.println("[MetricsPersistence] No existing data directory");
+            return;
+        }
+        migrateFiles(dataPath);
         
-        int colonIndex = json.indexOf(":", keyIndex);
-        int start = colonIndex + 1;
+        List<Path> agentDirs;
+        try {
+            agentDirs = segments.agentDirectories();
+        } catch (IOException e) {
+            System.err.println("[MetricsPersistence] Failed to list data files: " + e.getMessage());
+            return;
+        }
+        if (agentDirs.isEmpty()) {
+            return;
+        }
         
-        // Skip whitespace
-        while (start < json.length() && Character.isWhitespace(json.charAt(start))) {
-            start++;
+        long startNanos = System.nanoTime();
+        int threads = Math.min(LOAD_THREADS, agentDirs.size());
+        ExecutorService loaders = executors.newWorkerPool("MetricsLoader", threads);
+        long samples = 0;
+        try {
+            // Index every directory first: one may move segments into another agent's
+            List<Future<List<String>>> indexed = new ArrayList<>(agentDirs.size());
+            for (Path agentDir : agentDirs) {
+                indexed.add(loaders.submit(() -> indexAgent(agentDir)));
+            }
+            Set<String> agentIds = new LinkedHashSet<>();
+            for (Future<List<String>> result : indexed) {
+                agentIds.addAll(result.get());
+            }
+            
+            List<Future<Integer>> results = new ArrayList<>(agentIds.size());
+            for (String agentId : agentIds) {
+                results.add(loaders.submit(() -> loadAgentMetrics(agentId)));
+            }
+            for (Future<Integer> result : results) {
+                samples += result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("[MetricsPersistence] Loading failed: " + e.getCause());
+        } finally {
+            loaders.shutdownNow();
         }
         
-        int end = start;
-        while (end < json.length() && (Character.isDigit(json.charAt(end)) || json.charAt(end) == '.' || json.charAt(end) == '-')) {
-            end++;
+        System.out.println(String.format("[MetricsPersistence] Indexed %d agents, loaded %d recent metrics in %d ms (%d threads)",
+            segments.agentIds().size(), samples, (System.nanoTime() - startNanos) / 1_000_000, threads));
+    }
+    
+    /**
+     * Index the segments in one agent directory.
+     * @return The agents they belong to
+     */
+    private List<String> indexAgent(Path agentDir) {
+        try {
+            return segments.openAgent(agentDir);
+        } catch (IOException e) {
+            System.err.println("[MetricsPersistence] Failed to load " + agentDir + ": " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+    
+    /**
+     * Load the newest samples of an indexed agent into the store.
+     * @return Number of samples loaded
+     */
+    private int loadAgentMetrics(String agentId) {
+        try {
+            MetricSlice recent = segments.latest(agentId, dataManager.getMetricsPerAgent(agentId));
+            dataManager.loadHistory(recent);
+            // Already stored as is
+            savedUpdates.put(agentId, dataManager.getUpdateCount(agentId));
+            return recent.size();
+        } catch (IOException e) {
+            System.err.println("[MetricsPersistence] Failed to load " + agentId + ": " + e.getMessage());
+            return 0;
+        }
+    }
+    
+    /**
+     * Move the files of earlier versions into the per-agent layout: a
+     * whole-history segment becomes the agent's first segment, a JSON file is
+     * converted into one.
+     */
+    private void migrateFiles(Path dataPath) {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dataPath)) {
+            files = listing.filter(Files::isRegularFile).collect(Collectors.toList());
+        } catch (IOException e) {
+            System.err.println("[MetricsPersistence] Failed to list data files: " + e.getMessage());
+            return;
         }
         
-        return Double.parseDouble(json.substring(start, end));
+        Set<String> names = new HashSet<>();
+        for (Path file : files) {
+            names.add(file.getFileName().toString());
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            try {
+                if (name.endsWith(SegmentWriter.TEMP_SUFFIX)) {
+                    // Left by a save cut short; the file it was to replace is intact
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                    segments.importFile(file);
+                } else if (name.endsWith(".json")) {
+                    // Already converted if the segment written from it is there
+                    if (!names.contains(name.substring(0, name.length() - 5) + SEGMENT_SUFFIX)) {
+                        MetricSlice samples = readLegacyJson(file);
+                        if (samples != null) {
+                            segments.append(samples.getAgentId(), samples);
+                        }
+                    }
+                    Files.delete(file);
+                }
+            } catch (IOException e) {
+                System.err.println("[MetricsPersistence] Failed to migrate " + file + ": " + e.getMessage());
+            }
+        }
     }
     
     /**
-     * Sanitize agent ID for use as filename.
+     * Stream a JSON file written by an earlier version into columns.
+     * @return The samples, or null if the file has none
      */
-    private String sanitizeFilename(String name) {
-        return name.replaceAll("[^a-zA-Z0-9.-]", "_");
+    private static MetricSlice readLegacyJson(Path filepath) throws IOException {
+        MetricSlice.Builder samples = null;
+        try (BufferedReader in = Files.newBufferedReader(filepath)) {
+            JsonMetricReader reader = new JsonMetricReader(in);
+            while (reader.next()) {
+                if (reader.agentId == null) {
+                    continue;
+                }
+                if (samples == null) {
+                    samples = new MetricSlice.Builder(reader.agentId, 1024);
+                }
+                samples.add(reader.timestamp, (float) reader.cpu, (float) reader.ram, (float) reader.disk);
+            }
+        }
+        return samples == null ? null : samples.build();
     }
 }
@@ -0,0 +1,368 @@
+package com.monitor.server.storage;
+
+import com.monitor.model.Metric;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Fixed-width time buckets of one agent's samples, kept as a bounded ring
+ * sorted by bucket start.
+ *
+ * Each incoming sample is folded into the bucket of its interval (count, and
+ * min, max, mean and sum of squared deviations per gauge, updated with
+ * Welford's method so floats keep the spread of a bucket precise), so a bucket
+ * is always up to date and costs the same whatever the number of samples in
+ * it. A sample for an older interval updates or inserts its bucket in place.
+ * Once the ring is full the oldest bucket is dropped.
+ *
+ * The columns start small and grow up to the capacity, so agents that have
+ * only been seen briefly do not hold months of empty buckets.
+ *
+ * Like {@link ColumnMetricRing}, writes are published with a sequence lock
+ * and readers copy optimistically, retrying if a write overlapped, so a query
+ * copying many buckets never holds up ingest.
+ */
+public class RollupRing {
+    
+    private static final int INITIAL_SIZE = 64;
+    
+    // Start and count, then min, max, mean and squared deviations of each gauge
+    private static final int BUCKET_BYTES = Long.BYTES + Integer.BYTES + RollupSlice.GAUGES * 4 * Float.BYTES;
+    
+    /**
+     * Bucket columns, replaced as a whole when they grow so a reader never
+     * sees some of them grown and others not.
+     */
+    private static final class Columns {
+        final long[] starts;
+        final int[] counts;
+        final float[][] min;
+        final float[][] max;
+        final float[][] mean;
+        final float[][] deviations;
+        
+        Columns(int length) {
+            this.starts = new long[length];
+            this.counts = new int[length];
+            this.min = new float[RollupSlice.GAUGES][length];
+            this.max = new float[RollupSlice.GAUGES][length];
+            this.mean = new float[RollupSlice.GAUGES][length];
+            this.deviations = new float[RollupSlice.GAUGES][length];
+        }
+        
+        Columns(Columns from, int length) {
+            this.starts = Arrays.copyOf(from.starts, length);
+            this.counts = Arrays.copyOf(from.counts, length);
+            this.min = new float[RollupSlice.GAUGES][];
+            this.max = new float[RollupSlice.GAUGES][];
+            this.mean = new float[RollupSlice.GAUGES][];
+            this.deviations = new float[RollupSlice.GAUGES][];
+            for (int g = 0; g < RollupSlice.GAUGES; g++) {
+                min[g] = Arrays.copyOf(from.min[g], length);
+                max[g] = Arrays.copyOf(from.max[g], length);
+                mean[g] = Arrays.copyOf(from.mean[g], length);
+                deviations[g] = Arrays.copyOf(from.deviations[g], length);
+            }
+        }
+        
+        int length() {
+            return starts.length;
+        }
+    }
+    
+    private final String agentId;
+    private final long width;
+    private final int capacity;
+    
+    private volatile Columns columns;
+    
+    // Index the next bucket is written to once full, and number of buckets held
+    private int head;
+    private int size;
+    
+    // Odd while a write is in progress
+    private volatile long version;
+    private final Object writeLock = new Object();
+    
+    /**
+     * @param width    Bucket width in milliseconds
+     * @param capacity Number of buckets kept
+     */
+    public RollupRing(String agentId, long width, int capacity) {
+        this.agentId = agentId;
+        this.width = width;
+        this.capacity = Math.max(1, capacity);
+        this.columns = new Columns(Math.min(INITIAL_SIZE, this.capacity));
+    }
+    
+    /**
+     * Fold a sample into the bucket of its interval.
+     */
+    public void add(Metric metric) {
+        synchronized (writeLock) {
+            long v = beginWrite();
+            addLocked(metric.getTimestamp(), metric.getCpuUsage(), metric.getRamUsage(), metric.getDiskUsage());
+            version = v + 2;
+        }
+    }
+    
+    /**
+     * Fold one sample into the bucket of its interval.
+     */
+    void add(long timestamp, float cpu, float ram, float disk) {
+        synchronized (writeLock) {
+            long v = beginWrite();
+            addLocked(timestamp, cpu, ram, disk);
+            version = v + 2;
+        }
+    }
+    
+    /**
+     * Fold samples sorted by timestamp, e.g. history loaded from disk, under one version change.
+     */
+    public void addAll(MetricSlice samples) {
+        synchronized (writeLock) {
+            long v = beginWrite();
+            for (int i = 0; i < samples.size(); i++) {
+                addLocked(samples.getTimestamp(i), samples.getCpu(i), samples.getRam(i), samples.getDisk(i));
+            }
+            version = v + 2;
+        }
+    }
+    
+    /**
+     * Make the version odd before any column write.
+     * @return The even version the write started from
+     */
+    private long beginWrite() {
+        long v = version;
+        version = v + 1;
+        // Keep the column writes from becoming visible before the odd version
+        VarHandle.storeStoreFence();
+        return v;
+    }
+    
+    private void addLocked(long timestamp, double cpu, double ram, double disk) {
+        Columns c = columns;
+        long start = timestamp - Math.floorMod(timestamp, width);
+        
+        // Logical position (0 = oldest) after the buckets not newer than this one
+        int position = size;
+        while (position > 0 && c.starts[physical(position - 1)] > start) {
+            position--;
+        }
+        
+        int slot;
+        if (position > 0 && c.starts[physical(position - 1)] == start) {
+            slot = physical(position - 1);
+        } else {
+            if (position == 0 && size == capacity) {
+                // Older than the retention of this tier
+                return;
+            }
+            slot = insert(position, start);
+            c = columns;
+        }
+        
+        int count = ++c.counts[slot];
+        fold(c, RollupSlice.CPU, slot, count, cpu);
+        fold(c, RollupSlice.RAM, slot, count, ram);
+        fold(c, RollupSlice.DISK, slot, count, disk);
+    }
+    
+    /**
+     * Open an empty bucket at a logical position, moving the newer ones up.
+     * @return Its physical index
+     */
+    private int insert(int position, long start) {
+        Columns c = columns;
+        if (size == c.length() && size < capacity) {
+            // Not wrapped yet, so the layout is linear and can simply be copied
+            c = new Columns(c, Math.min(capacity, c.length() * 2));
+            columns = c;
+        }
+        
+        // When full, the first move overwrites the oldest bucket
+        for (int i = size; i > position; i--) {
+            int to = physical(i);
+            int from = physical(i - 1);
+            c.starts[to] = c.starts[from];
+            c.counts[to] = c.counts[from];
+            for (int g = 0; g < RollupSlice.GAUGES; g++) {
+                c.min[g][to] = c.min[g][from];
+                c.max[g][to] = c.max[g][from];
+                c.mean[g][to] = c.mean[g][from];
+                c.deviations[g][to] = c.deviations[g][from];
+            }
+        }
+        
+        int slot = physical(position);
+        c.starts[slot] = start;
+        c.counts[slot] = 0;
+        for (int g = 0; g < RollupSlice.GAUGES; g++) {
+            c.min[g][slot] = Float.MAX_VALUE;
+            c.max[g][slot] = -Float.MAX_VALUE;
+            c.mean[g][slot] = 0;
+            c.deviations[g][slot] = 0;
+        }
+        
+        head = head + 1 == capacity ? 0 : head + 1;
+        if (size < capacity) {
+            size++;
+        }
+        return slot;
+    }
+    
+    private static void fold(Columns c, int gauge, int slot, int count, double value) {
+        float v = (float) value;
+        if (v < c.min[gauge][slot]) {
+            c.min[gauge][slot] = v;
+        }
+        if (v > c.max[gauge][slot]) {
+            c.max[gauge][slot] = v;
+        }
+        double mean = c.mean[gauge][slot];
+        double delta = value - mean;
+        mean += delta / count;
+        c.mean[gauge][slot] = (float) mean;
+        c.deviations[gauge][slot] += (float) (delta * (value - mean));
+    }
+    
+    /**
+     * Physical index of a logical position (0 = oldest).
+     */
+    private int physical(int position) {
+        return physical(position, head, size);
+    }
+    
+    private int physical(int position, int head, int size) {
+        int index = (size < capacity ? 0 : head) + position;
+        return index >= capacity ? index - capacity : index;
+    }
+    
+    public long getWidth() {
+        return width;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * Start of the oldest bucket held, or Long.MAX_VALUE when empty.
+     */
+    public long oldest() {
+        while (true) {
+            long v = version;
+            if ((v & 1) == 0) {
+                Columns c = columns;
+                int n = size;
+                int h = head;
+                if (n <= c.length()) {
+                    long oldest = n == 0 ? Long.MAX_VALUE : c.starts[physical(0, h, n)];
+                    VarHandle.acquireFence();
+                    if (version == v) {
+                        return oldest;
+                    }
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+    
+    /**
+     * Approximate heap memory held by the columns allocated so far.
+     */
+    public long heapBytes() {
+        return 256 + (long) columns.length() * BUCKET_BYTES;
+    }
+    
+    /**
+     * Whether this tier still holds the bucket of {@code fromTime}, i.e. it
+     * has not dropped anything from that point on.
+     */
+    public boolean covers(long fromTime) {
+        while (true) {
+            long v = version;
+            if ((v & 1) == 0) {
+                Columns c = columns;
+                int n = size;
+                int h = head;
+                if (n <= c.length()) {
+                    boolean covers = n < capacity || c.starts[physical(0, h, n)] <= fromTime;
+                    VarHandle.acquireFence();
+                    if (version == v) {
+                        return covers;
+                    }
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+    
+    /**
+     * Copy out the buckets overlapping [fromTime, toTime], oldest first,
+     * retrying until the copy did not overlap a write.
+     */
+    public RollupSlice range(long fromTime, long toTime) {
+        // A bucket overlaps the range if it starts after fromTime - width
+        long lowest = fromTime < Long.MIN_VALUE + width ? Long.MIN_VALUE : fromTime - width + 1;
+        while (true) {
+            long v = version;
+            if ((v & 1) == 0) {
+                Columns c = columns;
+                int n = size;
+                int h = head;
+                if (n <= c.length()) {
+                    int begin = firstAtOrAfter(c, h, n, lowest);
+                    int end = toTime == Long.MAX_VALUE ? n : firstAtOrAfter(c, h, n, toTime + 1);
+                    int length = Math.max(0, end - begin);
+                    
+                    RollupSlice slice = new RollupSlice(agentId, width, length);
+                    for (int i = 0; i < length; i++) {
+                        int from = physical(begin + i, h, n);
+                        int count = c.counts[from];
+                        slice.starts[i] = c.starts[from];
+                        slice.counts[i] = count;
+                        for (int g = 0; g < RollupSlice.GAUGES; g++) {
+                            double mean = c.mean[g][from];
+                            slice.min[g][i] = c.min[g][from];
+                            slice.max[g][i] = c.max[g][from];
+                            slice.sum[g][i] = mean * count;
+                            slice.sumSquares[g][i] = c.deviations[g][from] + mean * mean * count;
+                        }
+                    }
+                    
+                    // The copies must be complete before the version is checked again
+                    VarHandle.acquireFence();
+                    if (version == v) {
+                        return slice;
+                    }
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+    
+    /**
+     * First logical position whose bucket starts at or after {@code time}.
+     */
+    private int firstAtOrAfter(Columns c, int head, int size, long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (c.starts[physical(mid, head, size)] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,151 @@
+package com.monitor.server.storage;
+
+import com.monitor.model.Metric;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A copy of consecutive rollup buckets of one agent, oldest first. Each bucket
+ * holds the sample count and the min, max, sum and sum of squares of every
+ * gauge over its interval.
+ */
+public class RollupSlice {
+    
+    // Gauge indexes
+    public static final int CPU = 0;
+    public static final int RAM = 1;
+    public static final int DISK = 2;
+    static final int GAUGES = 3;
+    
+    private final String agentId;
+    private final long width;
+    final long[] starts;
+    final int[] counts;
+    final float[][] min;
+    final float[][] max;
+    final double[][] sum;
+    final double[][] sumSquares;
+    
+    RollupSlice(String agentId, long width, int size) {
+        this.agentId = agentId;
+        this.width = width;
+        this.starts = new long[size];
+        this.counts = new int[size];
+        this.min = new float[GAUGES][size];
+        this.max = new float[GAUGES][size];
+        this.sum = new double[GAUGES][size];
+        this.sumSquares = new double[GAUGES][size];
+    }
+    
+    /**
+     * One bucket per raw sample.
+     */
+    public static RollupSlice of(MetricSlice samples) {
+        int size = samples.size();
+        RollupSlice slice = new RollupSlice(samples.getAgentId(), 0, size);
+        for (int i = 0; i < size; i++) {
+            slice.starts[i] = samples.getTimestamp(i);
+            slice.counts[i] = 1;
+            slice.set(CPU, i, samples.getCpu(i));
+            slice.set(RAM, i, samples.getRam(i));
+            slice.set(DISK, i, samples.getDisk(i));
+        }
+        return slice;
+    }
+    
+    /**
+     * The buckets of {@code older} followed by those of {@code newer}, which all start later.
+     */
+    static RollupSlice concat(RollupSlice older, RollupSlice newer) {
+        if (older.isEmpty()) {
+            return newer;
+        }
+        if (newer.isEmpty()) {
+            return older;
+        }
+        int size = older.size() + newer.size();
+        RollupSlice slice = new RollupSlice(newer.agentId, newer.width, size);
+        int at = 0;
+        for (RollupSlice part : new RollupSlice[] { older, newer }) {
+            int length = part.size();
+            System.arraycopy(part.starts, 0, slice.starts, at, length);
+            System.arraycopy(part.counts, 0, slice.counts, at, length);
+            for (int g = 0; g < GAUGES; g++) {
+                System.arraycopy(part.min[g], 0, slice.min[g], at, length);
+                System.arraycopy(part.max[g], 0, slice.max[g], at, length);
+                System.arraycopy(part.sum[g], 0, slice.sum[g], at, length);
+                System.arraycopy(part.sumSquares[g], 0, slice.sumSquares[g], at, length);
+            }
+            at += length;
+        }
+        return slice;
+    }
+    
+    private void set(int gauge, int index, double value) {
+        min[gauge][index] = (float) value;
+        max[gauge][index] = (float) value;
+        sum[gauge][index] = value;
+        sumSquares[gauge][index] = value * value;
+    }
+    
+    public String getAgentId() {
+        return agentId;
+    }
+    
+    /**
+     * Bucket width in milliseconds, 0 for raw samples.
+     */
+    public long getWidth() {
+        return width;
+    }
+    
+    public int size() {
+        return starts.length;
+    }
+    
+    public boolean isEmpty() {
+        return starts.length == 0;
+    }
+    
+    public long getStart(int index) {
+        return starts[index];
+    }
+    
+    public int getCount(int index) {
+        return counts[index];
+    }
+    
+    public double getMin(int gauge, int index) {
+        return min[gauge][index];
+    }
+    
+    public double getMax(int gauge, int index) {
+        return max[gauge][index];
+    }
+    
+    public double getSum(int gauge, int index) {
+        return sum[gauge][index];
+    }
+    
+    public double getSumSquares(int gauge, int index) {
+        return sumSquares[gauge][index];
+    }
+    
+    public double getAverage(int gauge, int index) {
+        return counts[index] == 0 ? 0 : sum[gauge][index] / counts[index];
+    }
+    
+    /**
+     * Create one Metric per bucket, with the bucket start and average gauges.
+     */
+    public List<Metric> toMetrics() {
+        List<Metric> result = new ArrayList<>(starts.length);
+        for (int i = 0; i < starts.length; i++) {
+            Metric metric = new Metric(agentId, getAverage(CPU, i), getAverage(RAM, i), getAverage(DISK, i));
+            metric.setTimestamp(starts[i]);
+            result.add(metric);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,745 @@
+package com.monitor.server.storage;
+
+import com.monitor.server.storage.segment.BlockCache;
+import com.monitor.server.storage.segment.SegmentBlock;
+import com.monitor.server.storage.segment.SegmentReader;
+import com.monitor.server.storage.segment.SegmentWriter;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persisted metric history, kept on disk and read on demand.
+ *
+ * Each agent has a directory of segment files, named after the range of save
+ * numbers they hold ({@code <first>-<last>.seg}). A save appends a segment with
+ * the samples added since the last one, so files are never rewritten. Samples
+ * that arrived late get a segment of their own, overlapping older ones in
+ * time; reads merge overlapping segments by timestamp. When a run of small
+ * segments builds up at the end, it is merged into one; a merge cut short by a
+ * crash leaves segments covered by the merged one, which are deleted on the
+ * next start.
+ *
+ * Only the header and block index of each segment are kept in memory. Reads
+ * decode the blocks overlapping the requested range through a shared
+ * {@link BlockCache}, so repeated queries over the same period stay off disk.
+ */
+public class SegmentStore implements DataManager.HistorySource {
+    
+    private static final String SUFFIX = ".seg";
+    
+    // Merge a run of this many small segments (override with -Dmonitor.segments.mergeRun)
+    private static final int MERGE_RUN = Math.max(2, Integer.getInteger("monitor.segments.mergeRun", 8));
+    
+    // Segments with fewer samples count as small
+    private static final int SMALL_SAMPLES = 16 * SegmentWriter.DEFAULT_BLOCK_SAMPLES;
+    
+    /**
+     * One segment file: the save numbers it holds and its block index.
+     */
+    private static final class Segment {
+        final Path file;
+        final long first;
+        final long last;
+        final int samples;
+        final long minTimestamp;
+        final long maxTimestamp;
+        final int[] blockSize;
+        final long[] blockMin;
+        final long[] blockMax;
+        
+        Segment(Path file, long first, long last, SegmentReader reader) {
+            this.file = file;
+            this.first = first;
+            this.last = last;
+            this.samples = reader.getSampleCount();
+            this.minTimestamp = reader.getMinTimestamp();
+            this.maxTimestamp = reader.getMaxTimestamp();
+            int blocks = reader.getBlockCount();
+            this.blockSize = new int[blocks];
+            this.blockMin = new long[blocks];
+            this.blockMax = new long[blocks];
+            for (int b = 0; b < blocks; b++) {
+                blockSize[b] = reader.getBlockSize(b);
+                blockMin[b] = reader.getBlockMinTimestamp(b);
+                blockMax[b] = reader.getBlockMaxTimestamp(b);
+            }
+        }
+        
+        /**
+         * The same segment after its file was moved.
+         */
+        Segment(Segment from, Path file, long number) {
+            this.file = file;
+            this.first = number;
+            this.last = number;
+            this.samples = from.samples;
+            this.minTimestamp = from.minTimestamp;
+            this.maxTimestamp = from.maxTimestamp;
+            this.blockSize = from.blockSize;
+            this.blockMin = from.blockMin;
+            this.blockMax = from.blockMax;
+        }
+        
+        boolean overlaps(long fromTime, long toTime) {
+            return samples > 0 && maxTimestamp >= fromTime && minTimestamp <= toTime;
+        }
+    }
+    
+    /**
+     * Receives merged samples; unlike {@link SegmentReader.SampleConsumer} it may fail.
+     */
+    private interface SampleSink {
+        void accept(long timestamp, float cpu, float ram, float disk) throws IOException;
+    }
+    
+    /**
+     * Walks the samples of one segment within a time range, a block at a time.
+     */
+    private final class Cursor {
+        final Segment segment;
+        final int order;
+        final long fromTime;
+        final long toTime;
+        final boolean cached;
+        
+        // Opened only if a block is missing from the cache
+        SegmentReader reader;
+        int nextBlock;
+        SegmentBlock block;
+        int index = -1;
+        
+        Cursor(Segment segment, int order, long fromTime, long toTime, boolean cached) {
+            this.segment = segment;
+            this.order = order;
+            this.fromTime = fromTime;
+            this.toTime = toTime;
+            this.cached = cached;
+        }
+        
+        /**
+         * Move to the next sample in range.
+         * @return false once there is none left
+         */
+        boolean advance() throws IOException {
+            while (true) {
+                if (block != null) {
+                    while (++index < block.size()) {
+                        long timestamp = block.getTimestamp(index);
+                        if (timestamp >= fromTime && timestamp <= toTime) {
+                            return true;
+                        }
+                    }
+                    block = null;
+                }
+                while (nextBlock < segment.blockMin.length
+                        && (segment.blockMax[nextBlock] < fromTime || segment.blockMin[nextBlock] > toTime)) {
+                    nextBlock++;
+                }
+                if (nextBlock == segment.blockMin.length) {
+                    return false;
+                }
+                block = readBlock(nextBlock++);
+                index = -1;
+            }
+        }
+        
+        private SegmentBlock readBlock(int b) throws IOException {
+            SegmentBlock decoded = cached ? cache.get(segment.file, b) : null;
+            if (decoded == null) {
+                if (reader == null) {
+                    reader = SegmentReader.open(segment.file);
+                }
+                decoded = reader.readBlock(b);
+                if (cached) {
+                    cache.put(segment.file, b, decoded);
+                }
+            }
+            return decoded;
+        }
+        
+        long timestamp() {
+            return block.getTimestamp(index);
+        }
+        
+        void emit(SampleSink sink) throws IOException {
+            sink.accept(block.getTimestamp(index), block.getCpu(index), block.getRam(index), block.getDisk(index));
+        }
+        
+        void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+    
+    /**
+     * The segments of one agent, oldest first. Writers hold the monitor; the
+     * list is replaced, never modified, so readers use it without locking.
+     *
+     * Readers reading files {@link #acquire} the list and {@link #release} it
+     * when done. Segments merged away are only deleted once no reader is left
+     * that may still hold a list with them.
+     */
+    private static final class AgentSegments {
+        final String agentId;
+        final Path dir;
+        volatile List<Segment> segments = Collections.emptyList();
+        
+        // Guarded by readerLock: readers in progress, and segments to delete once there are none
+        private final Object readerLock = new Object();
+        private int readers;
+        private List<Segment> retired = new ArrayList<>();
+        
+        AgentSegments(String agentId, Path dir) {
+            this.agentId = agentId;
+            this.dir = dir;
+        }
+        
+        List<Segment> acquire() {
+            synchronized (readerLock) {
+                readers++;
+                return segments;
+            }
+        }
+        
+        /**
+         * @return Retired segments that can now be deleted
+         */
+        List<Segment> release() {
+            synchronized (readerLock) {
+                if (--readers > 0 || retired.isEmpty()) {
+                    return Collections.emptyList();
+                }
+                List<Segment> deletable = retired;
+                retired = new ArrayList<>();
+                return deletable;
+            }
+        }
+        
+        /**
+         * Hand over segments no longer in the list, once it has been replaced.
+         * @return Those that can be deleted right away
+         */
+        List<Segment> retire(List<Segment> removed) {
+            synchronized (readerLock) {
+                if (readers > 0) {
+                    retired.addAll(removed);
+                    return Collections.emptyList();
+                }
+                return removed;
+            }
+        }
+        
+        long nextNumber() {
+            List<Segment> current = segments;
+            return current.isEmpty() ? 1 : current.get(current.size() - 1).last + 1;
+        }
+    }
+    
+    private final Path dir;
+    private final BlockCache cache;
+    private final Map<String, AgentSegments> agents = new ConcurrentHashMap<>();
+    
+    // Held while an agent is given a directory, so two agents never get the same one
+    private final Object directoryLock = new Object();
+    
+    /**
+     * @param cacheBytes Capacity of the decoded block cache
+     */
+    public SegmentStore(Path dir, long cacheBytes) {
+        this.dir = dir;
+        this.cache = new BlockCache(cacheBytes);
+    }
+    
+    private static String segmentName(long first, long last) {
+        return String.format("%010d-%010d%s", first, last, SUFFIX);
+    }
+    
+    /**
+     * The segments of an agent about to be written to, indexing its directory
+     * first if it has one from a previous run.
+     */
+    private AgentSegments writable(String agentId) throws IOException {
+        AgentSegments agent = agents.get(agentId);
+        if (agent != null) {
+            return agent;
+        }
+        synchronized (directoryLock) {
+            // Earlier versions named the directory after the file-safe ID alone
+            Path legacy = dir.resolve(AgentFiles.safeName(agentId));
+            if (agents.get(agentId) == null && Files.isDirectory(legacy) && owner(legacy) == null) {
+                openAgent(legacy);
+            }
+            agent = agents.get(agentId);
+            if (agent == null) {
+                Path agentDir = directoryFor(agentId, null);
+                if (Files.isDirectory(agentDir)) {
+                    openAgent(agentDir);
+                }
+                agent = agents.computeIfAbsent(agentId, id -> new AgentSegments(id, agentDir));
+            }
+        }
+        return agent;
+    }
+    
+    /**
+     * A directory the agent can keep its segments in: the first of its
+     * numbered names that no other agent uses and holds no other agent's
+     * segments, as IDs made file-safe may still collide. Called with
+     * {@link #directoryLock} held.
+     * @param skip A directory not to use, or null
+     */
+    private Path directoryFor(String agentId, Path skip) throws IOException {
+        String base = AgentFiles.baseName(agentId);
+        for (int attempt = 0; ; attempt++) {
+            Path candidate = dir.resolve(attempt == 0 ? base : base + "-" + attempt);
+            if (candidate.equals(skip)) {
+                continue;
+            }
+            String owner = owner(candidate);
+            if (owner == null) {
+                owner = Files.isDirectory(candidate) ? storedAgentId(candidate) : null;
+            }
+            if (owner == null || owner.equals(agentId)) {
+                return candidate;
+            }
+        }
+    }
+    
+    /**
+     * The agent using a directory in this run, or null.
+     */
+    private String owner(Path agentDir) {
+        for (AgentSegments agent : agents.values()) {
+            if (agent.dir.equals(agentDir)) {
+                return agent.agentId;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * The agent ID in the header of the first readable segment of a directory, or null.
+     */
+    private static String storedAgentId(Path agentDir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(agentDir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                try (SegmentReader reader = SegmentReader.open(file)) {
+                    return reader.getAgentId();
+                } catch (IOException e) {
+                    // Try the next one
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Agent directories present on disk.
+     */
+    public List<Path> agentDirectories() throws IOException {
+        List<Path> dirs = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return dirs;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir, Files::isDirectory)) {
+            for (Path entry : entries) {
+                dirs.add(entry);
+            }
+        }
+        return dirs;
+    }
+    
+    /**
+     * Read the headers and block indexes of the segments in an agent directory,
+     * deleting files left by an interrupted save or merge.
+     *
+     * A directory of an earlier version may hold the segments of several
+     * agents whose IDs were made file-safe to the same name. Each of them then
+     * gets a directory of its own, as does an agent that already has one, its
+     * segments moved there as its next ones.
+     * @return The IDs of the agents whose segments the directory held
+     */
+    public List<String> openAgent(Path agentDir) throws IOException {
+        Map<String, List<Segment>> found = new LinkedHashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(agentDir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SegmentWriter.TEMP_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                if (!name.endsWith(SUFFIX)) {
+                    continue;
+                }
+                
+                long first;
+                long last;
+                try {
+                    int dash = name.indexOf('-');
+                    first = Long.parseLong(name.substring(0, dash));
+                    last = Long.parseLong(name.substring(dash + 1, name.length() - SUFFIX.length()));
+                } catch (RuntimeException e) {
+                    System.err.println("[SegmentStore] Ignoring " + file);
+                    continue;
+                }
+                try (SegmentReader reader = SegmentReader.open(file)) {
+                    found.computeIfAbsent(reader.getAgentId(), id -> new ArrayList<>())
+                        .add(new Segment(file, first, last, reader));
+                } catch (IOException e) {
+                    System.err.println("[SegmentStore] Skipping " + file + ": " + e.getMessage());
+                }
+            }
+        }
+        
+        List<String> agentIds = new ArrayList<>(found.keySet());
+        synchronized (directoryLock) {
+            for (Map.Entry<String, List<Segment>> entry : found.entrySet()) {
+                String agentId = entry.getKey();
+                List<Segment> segments = withoutMerged(entry.getValue());
+                AgentSegments agent = agents.get(agentId);
+                if (found.size() == 1 && (agent == null || agent.dir.equals(agentDir))) {
+                    agent = agents.computeIfAbsent(agentId, id -> new AgentSegments(id, agentDir));
+                    synchronized (agent) {
+                        agent.segments = Collections.unmodifiableList(segments);
+                    }
+                } else {
+                    if (agent == null) {
+                        Path own = directoryFor(agentId, agentDir);
+                        agent = agents.computeIfAbsent(agentId, id -> new AgentSegments(id, own));
+                    }
+                    moveTo(agent, segments);
+                }
+            }
+        }
+        if (found.size() > 1) {
+            System.out.println("[SegmentStore] Split " + agentDir + " between agents " + agentIds);
+            try {
+                Files.deleteIfExists(agentDir);
+            } catch (IOException e) {
+                // Other files left in it; harmless
+            }
+        }
+        return agentIds;
+    }
+    
+    /**
+     * Sort segments oldest first, deleting those inside another's range: a
+     * merge was cut short after writing the merged segment.
+     */
+    private static List<Segment> withoutMerged(List<Segment> found) throws IOException {
+        found.sort((a, b) -> a.first != b.first ? Long.compare(a.first, b.first) : Long.compare(b.last, a.last));
+        List<Segment> segments = new ArrayList<>(found.size());
+        for (Segment segment : found) {
+            if (!segments.isEmpty() && segment.last <= segments.get(segments.size() - 1).last) {
+                Files.deleteIfExists(segment.file);
+                continue;
+            }
+            segments.add(segment);
+        }
+        return segments;
+    }
+    
+    /**
+     * Move segments found elsewhere into an agent's directory, oldest first,
+     * numbered after its own.
+     */
+    private void moveTo(AgentSegments agent, List<Segment> segments) throws IOException {
+        synchronized (agent) {
+            Files.createDirectories(agent.dir);
+            for (Segment segment : segments) {
+                long number = agent.nextNumber();
+                Path target = agent.dir.resolve(segmentName(number, number));
+                Files.move(segment.file, target, StandardCopyOption.ATOMIC_MOVE);
+                add(agent, new Segment(segment, target, number));
+            }
+        }
+    }
+    
+    /**
+     * Move a whole-history segment file written by an earlier version into
+     * the agent's directory, as its next segment.
+     */
+    public void importFile(Path file) throws IOException {
+        String agentId;
+        try (SegmentReader reader = SegmentReader.open(file)) {
+            agentId = reader.getAgentId();
+        }
+        AgentSegments agent = writable(agentId);
+        synchronized (agent) {
+            Files.createDirectories(agent.dir);
+            long number = agent.nextNumber();
+            Path target = agent.dir.resolve(segmentName(number, number));
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            try (SegmentReader reader = SegmentReader.open(target)) {
+                add(agent, new Segment(target, number, number, reader));
+            }
+        }
+    }
+    
+    /**
+     * Write samples sorted by timestamp as a new segment of the agent; then
+     * merge the last segments if enough small ones have built up. Samples
+     * older than some already stored are best written apart from newer ones,
+     * so that only a small segment overlaps the others.
+     */
+    public void append(String agentId, MetricSlice samples) throws IOException {
+        if (samples.isEmpty()) {
+            return;
+        }
+        AgentSegments agent = writable(agentId);
+        synchronized (agent) {
+            Files.createDirectories(agent.dir);
+            long number = agent.nextNumber();
+            Path file = agent.dir.resolve(segmentName(number, number));
+            try (SegmentWriter writer = new SegmentWriter(file, agentId)) {
+                for (int i = 0; i < samples.size(); i++) {
+                    writer.append(samples.getTimestamp(i), (float) samples.getCpu(i), (float) samples.getRam(i),
+                        (float) samples.getDisk(i));
+                }
+            }
+            try (SegmentReader reader = SegmentReader.open(file)) {
+                add(agent, new Segment(file, number, number, reader));
+            }
+            
+            try {
+                mergeTail(agent);
+            } catch (IOException e) {
+                System.err.println("[SegmentStore] Failed to merge segments of " + agentId + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    private static void add(AgentSegments agent, Segment segment) {
+        List<Segment> segments = new ArrayList<>(agent.segments);
+        segments.add(segment);
+        agent.segments = Collections.unmodifiableList(segments);
+    }
+    
+    /**
+     * Merge the trailing run of small segments into one once it is
+     * {@link #MERGE_RUN} long, in timestamp order. Merged segments keep growing
+     * until they are no longer small, so each sample is rewritten a bounded
+     * number of times.
+     */
+    private void mergeTail(AgentSegments agent) throws IOException {
+        List<Segment> segments = agent.segments;
+        int start = segments.size();
+        while (start > 0 && segments.get(start - 1).samples < SMALL_SAMPLES) {
+            start--;
+        }
+        if (segments.size() - start < MERGE_RUN) {
+            return;
+        }
+        
+        List<Segment> run = segments.subList(start, segments.size());
+        Path file = agent.dir.resolve(segmentName(run.get(0).first, run.get(run.size() - 1).last));
+        try (SegmentWriter writer = new SegmentWriter(file, agent.agentId)) {
+            read(run, Long.MIN_VALUE, Long.MAX_VALUE, writer::append, false);
+        }
+        
+        List<Segment> merged = new ArrayList<>(segments.subList(0, start));
+        try (SegmentReader reader = SegmentReader.open(file)) {
+            merged.add(new Segment(file, run.get(0).first, run.get(run.size() - 1).last, reader));
+        }
+        agent.segments = Collections.unmodifiableList(merged);
+        
+        // Covered by the merged file, but readers may still hold the old list
+        delete(agent.retire(new ArrayList<>(run)));
+    }
+    
+    private void delete(List<Segment> segments) {
+        for (Segment segment : segments) {
+            try {
+                Files.deleteIfExists(segment.file);
+            } catch (IOException e) {
+                // Deleted on the next start, as the merged file covers it
+                System.err.println("[SegmentStore] Failed to delete " + segment.file + ": " + e.getMessage());
+            }
+            cache.invalidate(segment.file, segment.blockMin.length);
+        }
+    }
+    
+    /**
+     * Timestamp of the newest sample stored for an agent, or Long.MIN_VALUE if none.
+     */
+    public long newestTimestamp(String agentId) {
+        AgentSegments agent = agents.get(agentId);
+        long newest = Long.MIN_VALUE;
+        if (agent != null) {
+            for (Segment segment : agent.segments) {
+                if (segment.samples > 0) {
+                    newest = Math.max(newest, segment.maxTimestamp);
+                }
+            }
+        }
+        return newest;
+    }
+    
+    @Override
+    public long oldestTimestamp(String agentId) {
+        AgentSegments agent = agents.get(agentId);
+        long oldest = Long.MAX_VALUE;
+        if (agent != null) {
+            for (Segment segment : agent.segments) {
+                if (segment.samples > 0) {
+                    oldest = Math.min(oldest, segment.minTimestamp);
+                }
+            }
+        }
+        return oldest;
+    }
+    
+    @Override
+    public void scan(String agentId, long fromTime, long toTime, SegmentReader.SampleConsumer consumer)
+            throws IOException {
+        AgentSegments agent = agents.get(agentId);
+        if (agent == null) {
+            return;
+        }
+        try {
+            read(agent.acquire(), fromTime, toTime, consumer::accept, true);
+        } finally {
+            delete(agent.release());
+        }
+    }
+    
+    /**
+     * Stream the samples of segments within [fromTime, toTime] in timestamp
+     * order. Segments are read one after the other, except those whose time
+     * ranges overlap, which are merged.
+     * @param cached Whether to decode blocks through the cache
+     */
+    private void read(List<Segment> segments, long fromTime, long toTime, SampleSink sink, boolean cached)
+            throws IOException {
+        List<Segment> overlapping = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.overlaps(fromTime, toTime)) {
+                overlapping.add(segment);
+            }
+        }
+        // Stable, so samples with equal timestamps come in the order they were saved
+        overlapping.sort((a, b) -> Long.compare(a.minTimestamp, b.minTimestamp));
+        
+        int start = 0;
+        while (start < overlapping.size()) {
+            int end = start + 1;
+            long maxTimestamp = overlapping.get(start).maxTimestamp;
+            while (end < overlapping.size() && overlapping.get(end).minTimestamp <= maxTimestamp) {
+                maxTimestamp = Math.max(maxTimestamp, overlapping.get(end).maxTimestamp);
+                end++;
+            }
+            merge(overlapping.subList(start, end), fromTime, toTime, sink, cached);
+            start = end;
+        }
+    }
+    
+    /**
+     * Stream the samples of segments within [fromTime, toTime], merged by timestamp.
+     */
+    private void merge(List<Segment> segments, long fromTime, long toTime, SampleSink sink, boolean cached)
+            throws IOException {
+        List<Cursor> cursors = new ArrayList<>(segments.size());
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                cursors.add(new Cursor(segments.get(i), i, fromTime, toTime, cached));
+            }
+            if (cursors.size() == 1) {
+                Cursor cursor = cursors.get(0);
+                while (cursor.advance()) {
+                    cursor.emit(sink);
+                }
+                return;
+            }
+            
+            PriorityQueue<Cursor> next = new PriorityQueue<>(cursors.size(), (a, b) ->
+                a.timestamp() != b.timestamp() ? Long.compare(a.timestamp(), b.timestamp())
+                    : Integer.compare(a.order, b.order));
+            for (Cursor cursor : cursors) {
+                if (cursor.advance()) {
+                    next.add(cursor);
+                }
+            }
+            while (!next.isEmpty()) {
+                Cursor cursor = next.poll();
+                cursor.emit(sink);
+                if (cursor.advance()) {
+                    next.add(cursor);
+                }
+            }
+        } finally {
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+    
+    /**
+     * Read the newest samples of an agent, oldest first, decoding only the
+     * blocks they can be in. Bypasses the cache, as at startup nothing asked for them.
+     */
+    public MetricSlice latest(String agentId, int limit) throws IOException {
+        AgentSegments agent = agents.get(agentId);
+        if (agent == null || limit <= 0) {
+            return MetricSlice.empty(agentId);
+        }
+        List<Segment> segments = agent.acquire();
+        try {
+            return latest(agentId, segments, limit);
+        } finally {
+            delete(agent.release());
+        }
+    }
+    
+    private MetricSlice latest(String agentId, List<Segment> segments, int limit) throws IOException {
+        // Newest blocks first, until they hold enough samples; the newest samples are all at or after their start
+        List<long[]> blocks = new ArrayList<>();
+        for (Segment segment : segments) {
+            for (int b = 0; b < segment.blockMin.length; b++) {
+                blocks.add(new long[] {segment.blockMax[b], segment.blockMin[b], segment.blockSize[b]});
+            }
+        }
+        blocks.sort((a, b) -> Long.compare(b[0], a[0]));
+        long fromTime = Long.MAX_VALUE;
+        long total = 0;
+        for (int k = 0; k < blocks.size() && total < limit; k++) {
+            fromTime = Math.min(fromTime, blocks.get(k)[1]);
+            total += blocks.get(k)[2];
+        }
+        
+        MetricSlice.Builder samples = new MetricSlice.Builder(agentId, (int) Math.min(total, Integer.MAX_VALUE));
+        read(segments, fromTime, Long.MAX_VALUE, samples::add, false);
+        MetricSlice newest = samples.build();
+        return newest.size() <= limit ? newest : newest.subSlice(newest.size() - limit, newest.size());
+    }
+    
+    /**
+     * Agents with segments.
+     */
+    public Set<String> agentIds() {
+        return agents.keySet();
+    }
+    
+    /**
+     * Get statistics for logging.
+     */
+    public String getStats() {
+        int files = 0;
+        for (AgentSegments agent : agents.values()) {
+            files += agent.segments.size();
+        }
+        return String.format("Segments: %d files for %d agents, %s", files, agents.size(), cache.getStats());
+    }
+}
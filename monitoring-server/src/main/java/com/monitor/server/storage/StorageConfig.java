@@ -0,0 +1,263 @@
+package com.monitor.server.storage;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Capacities and options of a {@link DataManager}.
+ * Defaults match a small deployment; {@link #fromSystemProperties()} reads
+ * the {@code monitor.*} overrides.
+ *
+ * The per-agent capacities (raw samples and rollup buckets) apply to every
+ * shard unless a shard has its own, set with {@link #setShardCapacities} or
+ * {@code -Dmonitor.shard.<index>.metrics.perAgent}, {@code .rollup.minutes}
+ * and {@code .rollup.hours}; {@link #forShard} gives the result.
+ */
+public class StorageConfig {
+    
+    private int shards = 16;
+    private int metricsPerAgent = 1000;
+    private int minuteBuckets = 720;
+    private int hourBuckets = 720;
+    private int alertRetention = 500;
+    private boolean mapped;
+    private String mappedDir = "data/mmap";
+    private long agentStaleMs = 30_000;
+    private long agentDownMs = 120_000;
+    private int searchLimit = 100;
+    private long memoryBudgetBytes = 512L * 1024 * 1024;
+    
+    // Shard index -> capacities of that shard, when not the defaults above
+    private final Map<Integer, StorageConfig> shardConfigs = new TreeMap<>();
+    
+    /**
+     * Build a configuration from system properties, falling back to the defaults.
+     */
+    public static StorageConfig fromSystemProperties() {
+        StorageConfig config = new StorageConfig();
+        config.setShards(Integer.getInteger("monitor.storage.shards", config.shards));
+        config.setMetricsPerAgent(Integer.getInteger("monitor.metrics.perAgent", config.metricsPerAgent));
+        config.setMinuteBuckets(Integer.getInteger("monitor.rollup.minutes", config.minuteBuckets));
+        config.setHourBuckets(Integer.getInteger("monitor.rollup.hours", config.hourBuckets));
+        config.setAlertRetention(Integer.getInteger("monitor.alerts.retention", config.alertRetention));
+        config.setMapped("mmap".equalsIgnoreCase(System.getProperty("monitor.storage", "heap")));
+        config.setMappedDir(System.getProperty("monitor.storage.mmapDir", config.mappedDir));
+        config.setAgentStaleMs(Long.getLong("monitor.agents.staleMs", config.agentStaleMs));
+        config.setAgentDownMs(Long.getLong("monitor.agents.downMs", config.agentDownMs));
+        config.setSearchLimit(Integer.getInteger("monitor.agents.searchLimit", config.searchLimit));
+        config.setMemoryBudgetBytes(Long.getLong("monitor.storage.budgetMb", config.memoryBudgetBytes >> 20) << 20);
+        
+        String prefix = "monitor.shard.";
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (!name.startsWith(prefix)) {
+                continue;
+            }
+            int dot = name.indexOf('.', prefix.length());
+            int shard;
+            try {
+                shard = Integer.parseInt(name.substring(prefix.length(), dot < 0 ? name.length() : dot));
+            } catch (NumberFormatException e) {
+                System.err.println("[StorageConfig] Ignoring " + name + ": not a shard index");
+                continue;
+            }
+            if (config.shardConfigs.containsKey(shard)) {
+                continue;
+            }
+            String shardPrefix = prefix + shard + ".";
+            config.setShardCapacities(shard,
+                Integer.getInteger(shardPrefix + "metrics.perAgent", config.metricsPerAgent),
+                Integer.getInteger(shardPrefix + "rollup.minutes", config.minuteBuckets),
+                Integer.getInteger(shardPrefix + "rollup.hours", config.hourBuckets));
+        }
+        return config;
+    }
+    
+    /**
+     * Independent partitions of the agent histories, rounded up to a power of two.
+     */
+    public int getShards() {
+        return shards;
+    }
+    
+    public void setShards(int shards) {
+        this.shards = Math.max(1, shards);
+    }
+    
+    /**
+     * Raw samples kept per agent.
+     */
+    public int getMetricsPerAgent() {
+        return metricsPerAgent;
+    }
+    
+    public void setMetricsPerAgent(int metricsPerAgent) {
+        this.metricsPerAgent = Math.max(1, metricsPerAgent);
+    }
+    
+    /**
+     * One-minute rollup buckets kept per agent.
+     */
+    public int getMinuteBuckets() {
+        return minuteBuckets;
+    }
+    
+    public void setMinuteBuckets(int minuteBuckets) {
+        this.minuteBuckets = Math.max(1, minuteBuckets);
+    }
+    
+    /**
+     * One-hour rollup buckets kept per agent.
+     */
+    public int getHourBuckets() {
+        return hourBuckets;
+    }
+    
+    public void setHourBuckets(int hourBuckets) {
+        this.hourBuckets = Math.max(1, hourBuckets);
+    }
+    
+    /**
+     * Give one shard its own per-agent capacities.
+     * @param shard Shard index, below the shard count rounded up to a power of two
+     */
+    public void setShardCapacities(int shard, int metricsPerAgent, int minuteBuckets, int hourBuckets) {
+        StorageConfig capacities = copyWithoutShards();
+        capacities.setMetricsPerAgent(metricsPerAgent);
+        capacities.setMinuteBuckets(minuteBuckets);
+        capacities.setHourBuckets(hourBuckets);
+        shardConfigs.put(shard, capacities);
+    }
+    
+    /**
+     * The configuration of one shard: this one, with the shard's own
+     * capacities if it has some.
+     */
+    public StorageConfig forShard(int shard) {
+        StorageConfig capacities = shardConfigs.get(shard);
+        StorageConfig copy = copyWithoutShards();
+        if (capacities != null) {
+            copy.metricsPerAgent = capacities.metricsPerAgent;
+            copy.minuteBuckets = capacities.minuteBuckets;
+            copy.hourBuckets = capacities.hourBuckets;
+        }
+        return copy;
+    }
+    
+    /**
+     * Alerts kept in total.
+     */
+    public int getAlertRetention() {
+        return alertRetention;
+    }
+    
+    public void setAlertRetention(int alertRetention) {
+        this.alertRetention = Math.max(1, alertRetention);
+    }
+    
+    /**
+     * Whether raw samples live in memory-mapped files instead of the heap.
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+    
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+    }
+    
+    /**
+     * Directory of the memory-mapped ring files.
+     */
+    public String getMappedDir() {
+        return mappedDir;
+    }
+    
+    public void setMappedDir(String mappedDir) {
+        this.mappedDir = mappedDir;
+    }
+    
+    /**
+     * Silence after which an agent is STALE.
+     */
+    public long getAgentStaleMs() {
+        return agentStaleMs;
+    }
+    
+    public void setAgentStaleMs(long agentStaleMs) {
+        this.agentStaleMs = agentStaleMs;
+    }
+    
+    /**
+     * Silence after which an agent is DOWN.
+     */
+    public long getAgentDownMs() {
+        return agentDownMs;
+    }
+    
+    public void setAgentDownMs(long agentDownMs) {
+        this.agentDownMs = agentDownMs;
+    }
+    
+    /**
+     * Agent search results returned when no limit is given.
+     */
+    public int getSearchLimit() {
+        return searchLimit;
+    }
+    
+    public void setSearchLimit(int searchLimit) {
+        this.searchLimit = searchLimit;
+    }
+    
+    /**
+     * Estimated heap memory the agent histories may use before the longest
+     * silent agents are evicted; 0 for no limit.
+     */
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+    
+    public void setMemoryBudgetBytes(long memoryBudgetBytes) {
+        this.memoryBudgetBytes = Math.max(0, memoryBudgetBytes);
+    }
+    
+    /**
+     * A copy that can be changed without affecting this one.
+     */
+    public StorageConfig copy() {
+        StorageConfig copy = copyWithoutShards();
+        for (Map.Entry<Integer, StorageConfig> entry : shardConfigs.entrySet()) {
+            copy.shardConfigs.put(entry.getKey(), entry.getValue().copyWithoutShards());
+        }
+        return copy;
+    }
+    
+    private StorageConfig copyWithoutShards() {
+        StorageConfig copy = new StorageConfig();
+        copy.shards = shards;
+        copy.metricsPerAgent = metricsPerAgent;
+        copy.minuteBuckets = minuteBuckets;
+        copy.hourBuckets = hourBuckets;
+        copy.alertRetention = alertRetention;
+        copy.mapped = mapped;
+        copy.mappedDir = mappedDir;
+        copy.agentStaleMs = agentStaleMs;
+        copy.agentDownMs = agentDownMs;
+        copy.searchLimit = searchLimit;
+        copy.memoryBudgetBytes = memoryBudgetBytes;
+        return copy;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder overrides = new StringBuilder();
+        for (Map.Entry<Integer, StorageConfig> entry : shardConfigs.entrySet()) {
+            StorageConfig shard = entry.getValue();
+            overrides.append(String.format(", shard %d: %d metrics/agent, %d+%d rollup buckets",
+                entry.getKey(), shard.metricsPerAgent, shard.minuteBuckets, shard.hourBuckets));
+        }
+        return String.format("%d shards, %d metrics/agent, %d+%d rollup buckets, %d alerts, %s storage, %d MB budget%s",
+            shards, metricsPerAgent, minuteBuckets, hourBuckets, alertRetention, mapped ? "mmap" : "heap",
+            memoryBudgetBytes >> 20, overrides);
+    }
+}
@@ -0,0 +1,41 @@
+package com.monitor.server.storage.segment;
+
+/**
+ * Reads a bit stream written by {@link BitWriter}.
+ */
+final class BitReader {
+    
+    private final byte[] bytes;
+    private final long limit;
+    private long position;
+    
+    BitReader(byte[] bytes, int length) {
+        this.bytes = bytes;
+        this.limit = (long) length << 3;
+    }
+    
+    /**
+     * Read {@code count} bits (0 to 64) as an unsigned value.
+     * @throws IllegalStateException If the stream ends first
+     */
+    long read(int count) {
+        if (position + count > limit) {
+            throw new IllegalStateException("Block ends after " + position + " bits");
+        }
+        long value = 0;
+        while (count > 0) {
+            int index = (int) (position >>> 3);
+            int available = 8 - (int) (position & 7);
+            int take = Math.min(available, count);
+            int chunk = ((bytes[index] & 0xFF) >>> (available - take)) & ((1 << take) - 1);
+            value = (value << take) | chunk;
+            position += take;
+            count -= take;
+        }
+        return value;
+    }
+    
+    boolean readBit() {
+        return read(1) != 0;
+    }
+}
@@ -0,0 +1,59 @@
+package com.monitor.server.storage.segment;
+
+import java.util.Arrays;
+
+/**
+ * Growable bit stream, most significant bit first.
+ */
+final class BitWriter {
+    
+    private byte[] bytes;
+    private long bits;
+    
+    BitWriter(int initialBytes) {
+        this.bytes = new byte[Math.max(8, initialBytes)];
+    }
+    
+    /**
+     * Append the low {@code count} bits of {@code value} (0 to 64).
+     */
+    void write(long value, int count) {
+        ensure(bits + count);
+        while (count > 0) {
+            int index = (int) (bits >>> 3);
+            int free = 8 - (int) (bits & 7);
+            int take = Math.min(free, count);
+            int chunk = (int) (value >>> (count - take)) & ((1 << take) - 1);
+            bytes[index] |= (byte) (chunk << (free - take));
+            bits += take;
+            count -= take;
+        }
+    }
+    
+    void writeBit(boolean bit) {
+        write(bit ? 1 : 0, 1);
+    }
+    
+    private void ensure(long totalBits) {
+        int needed = (int) ((totalBits + 7) >>> 3);
+        if (needed > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(needed, bytes.length * 2));
+        }
+    }
+    
+    /**
+     * Bytes holding the bits written so far, the last one zero-padded.
+     */
+    int byteLength() {
+        return (int) ((bits + 7) >>> 3);
+    }
+    
+    byte[] buffer() {
+        return bytes;
+    }
+    
+    void reset() {
+        Arrays.fill(bytes, 0, byteLength(), (byte) 0);
+        bits = 0;
+    }
+}
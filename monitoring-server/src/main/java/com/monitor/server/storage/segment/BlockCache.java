@@ -0,0 +1,86 @@
+package com.monitor.server.storage.segment;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decoded segment blocks, least recently used first out once their estimated
+ * heap size exceeds the capacity.
+ *
+ * Blocks are keyed by file and block number. A segment file is never modified
+ * once written, only replaced by one with another name, so an entry cannot go
+ * stale; the blocks of a deleted file are {@link #invalidate dropped} to free
+ * their room early.
+ */
+public class BlockCache {
+    
+    private final long capacityBytes;
+    
+    // Guarded by this: access-ordered, eldest first
+    private final LinkedHashMap<String, SegmentBlock> blocks = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    
+    public BlockCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+    
+    private static String key(Path file, int block) {
+        return file.toString() + '#' + block;
+    }
+    
+    /**
+     * Get a block if it is cached.
+     * @return The block, or null on a miss
+     */
+    public synchronized SegmentBlock get(Path file, int block) {
+        SegmentBlock cached = blocks.get(key(file, block));
+        if (cached != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return cached;
+    }
+    
+    /**
+     * Add a decoded block, dropping the least recently used ones beyond the capacity.
+     */
+    public synchronized void put(Path file, int block, SegmentBlock decoded) {
+        SegmentBlock previous = blocks.put(key(file, block), decoded);
+        if (previous != null) {
+            bytes -= previous.heapBytes();
+        }
+        bytes += decoded.heapBytes();
+        Iterator<Map.Entry<String, SegmentBlock>> eldest = blocks.entrySet().iterator();
+        while (bytes > capacityBytes && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().heapBytes();
+            eldest.remove();
+        }
+    }
+    
+    /**
+     * Drop the blocks of a file.
+     */
+    public synchronized void invalidate(Path file, int blockCount) {
+        for (int i = 0; i < blockCount; i++) {
+            SegmentBlock removed = blocks.remove(key(file, i));
+            if (removed != null) {
+                bytes -= removed.heapBytes();
+            }
+        }
+    }
+    
+    /**
+     * Get statistics for logging.
+     */
+    public synchronized String getStats() {
+        long lookups = hits + misses;
+        return String.format("Block cache: %d blocks, %.1f/%d MB, %.0f%% hits",
+            blocks.size(), bytes / (1024.0 * 1024.0), capacityBytes >> 20,
+            lookups == 0 ? 0.0 : 100.0 * hits / lookups);
+    }
+}
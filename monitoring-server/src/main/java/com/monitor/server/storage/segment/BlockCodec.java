@@ -0,0 +1,193 @@
+package com.monitor.server.storage.segment;
+
+/**
+ * Gorilla-style compression of one block of samples.
+ *
+ * The first sample is stored as is. After it, each timestamp is stored as the
+ * change of its delta to the previous one (delta-of-delta): a single 0 bit for
+ * an agent reporting on a steady interval, a few bits for some jitter. Each
+ * gauge is stored as the XOR of its float bits with the previous value: a
+ * single 0 bit when unchanged, otherwise only the run of differing bits, reusing
+ * the previous run's position when it fits.
+ */
+final class BlockCodec {
+    
+    // Delta-of-delta classes: prefix bits, then a signed value of this many bits
+    private static final int[] DOD_BITS = { 7, 9, 12 };
+    
+    private BlockCodec() {
+    }
+    
+    /**
+     * Compresses samples appended one at a time into a bit stream.
+     */
+    static final class Encoder {
+        
+        private final BitWriter out = new BitWriter(4096);
+        private final int[] previousGauge = new int[3];
+        private final int[] previousLeading = new int[3];
+        private final int[] previousTrailing = new int[3];
+        private int count;
+        private long previousTimestamp;
+        private long previousDelta;
+        private long minTimestamp;
+        private long maxTimestamp;
+        
+        void add(long timestamp, float cpu, float ram, float disk) {
+            if (count == 0) {
+                out.write(timestamp, 64);
+                writeFirst(0, cpu);
+                writeFirst(1, ram);
+                writeFirst(2, disk);
+                minTimestamp = timestamp;
+                maxTimestamp = timestamp;
+            } else {
+                long delta = timestamp - previousTimestamp;
+                writeDeltaOfDelta(delta - previousDelta);
+                previousDelta = delta;
+                writeGauge(0, cpu);
+                writeGauge(1, ram);
+                writeGauge(2, disk);
+                minTimestamp = Math.min(minTimestamp, timestamp);
+                maxTimestamp = Math.max(maxTimestamp, timestamp);
+            }
+            previousTimestamp = timestamp;
+            count++;
+        }
+        
+        private void writeFirst(int gauge, float value) {
+            int bits = Float.floatToRawIntBits(value);
+            out.write(bits, 32);
+            previousGauge[gauge] = bits;
+            previousLeading[gauge] = -1;
+        }
+        
+        private void writeDeltaOfDelta(long dod) {
+            if (dod == 0) {
+                out.writeBit(false);
+                return;
+            }
+            for (int i = 0; i < DOD_BITS.length; i++) {
+                int bits = DOD_BITS[i];
+                if (dod >= -(1L << (bits - 1)) && dod < (1L << (bits - 1))) {
+                    // i + 1 one bits, then a zero
+                    out.write((1L << (i + 2)) - 2, i + 2);
+                    out.write(dod, bits);
+                    return;
+                }
+            }
+            out.write(0b1111, 4);
+            out.write(dod, 64);
+        }
+        
+        private void writeGauge(int gauge, float value) {
+            int bits = Float.floatToRawIntBits(value);
+            int xor = bits ^ previousGauge[gauge];
+            previousGauge[gauge] = bits;
+            if (xor == 0) {
+                out.writeBit(false);
+                return;
+            }
+            out.writeBit(true);
+            
+            int leading = Integer.numberOfLeadingZeros(xor);
+            int trailing = Integer.numberOfTrailingZeros(xor);
+            if (previousLeading[gauge] >= 0 && leading >= previousLeading[gauge]
+                    && trailing >= previousTrailing[gauge]) {
+                // Fits in the previous window
+                out.writeBit(false);
+                out.write(xor >>> previousTrailing[gauge], 32 - previousLeading[gauge] - previousTrailing[gauge]);
+                return;
+            }
+            int length = 32 - leading - trailing;
+            out.writeBit(true);
+            out.write(leading, 5);
+            out.write(length - 1, 5);
+            out.write(xor >>> trailing, length);
+            previousLeading[gauge] = leading;
+            previousTrailing[gauge] = trailing;
+        }
+        
+        int size() {
+            return count;
+        }
+        
+        long minTimestamp() {
+            return minTimestamp;
+        }
+        
+        long maxTimestamp() {
+            return maxTimestamp;
+        }
+        
+        byte[] buffer() {
+            return out.buffer();
+        }
+        
+        int byteLength() {
+            return out.byteLength();
+        }
+        
+        void reset() {
+            out.reset();
+            count = 0;
+            previousDelta = 0;
+        }
+    }
+    
+    /**
+     * Decompress a block of {@code count} samples.
+     * @throws IllegalStateException If the data ends early
+     */
+    static SegmentBlock decode(byte[] data, int length, int count) {
+        SegmentBlock block = new SegmentBlock(count);
+        if (count == 0) {
+            return block;
+        }
+        BitReader in = new BitReader(data, length);
+        int[] gauge = new int[3];
+        int[] leading = new int[3];
+        int[] trailing = new int[3];
+        
+        long timestamp = in.read(64);
+        for (int g = 0; g < 3; g++) {
+            gauge[g] = (int) in.read(32);
+        }
+        block.set(0, timestamp, gauge);
+        
+        long delta = 0;
+        for (int i = 1; i < count; i++) {
+            delta += readDeltaOfDelta(in);
+            timestamp += delta;
+            for (int g = 0; g < 3; g++) {
+                if (in.readBit()) {
+                    if (in.readBit()) {
+                        leading[g] = (int) in.read(5);
+                        int meaningful = (int) in.read(5) + 1;
+                        trailing[g] = 32 - leading[g] - meaningful;
+                    }
+                    int meaningful = 32 - leading[g] - trailing[g];
+                    gauge[g] ^= (int) in.read(meaningful) << trailing[g];
+                }
+            }
+            block.set(i, timestamp, gauge);
+        }
+        return block;
+    }
+    
+    private static long readDeltaOfDelta(BitReader in) {
+        int ones = 0;
+        while (ones < 4 && in.readBit()) {
+            ones++;
+        }
+        if (ones == 0) {
+            return 0;
+        }
+        if (ones == 4) {
+            return in.read(64);
+        }
+        int bits = DOD_BITS[ones - 1];
+        // Sign-extend
+        return (in.read(bits) << (64 - bits)) >> (64 - bits);
+    }
+}
@@ -0,0 +1,53 @@
+package com.monitor.server.storage.segment;
+
+/**
+ * Decoded samples of one segment block, in primitive columns, oldest first.
+ */
+public class SegmentBlock {
+    
+    private final long[] timestamps;
+    private final float[] cpu;
+    private final float[] ram;
+    private final float[] disk;
+    
+    SegmentBlock(int size) {
+        this.timestamps = new long[size];
+        this.cpu = new float[size];
+        this.ram = new float[size];
+        this.disk = new float[size];
+    }
+    
+    void set(int index, long timestamp, int[] gaugeBits) {
+        timestamps[index] = timestamp;
+        cpu[index] = Float.intBitsToFloat(gaugeBits[0]);
+        ram[index] = Float.intBitsToFloat(gaugeBits[1]);
+        disk[index] = Float.intBitsToFloat(gaugeBits[2]);
+    }
+    
+    public int size() {
+        return timestamps.length;
+    }
+    
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+    
+    public float getCpu(int index) {
+        return cpu[index];
+    }
+    
+    public float getRam(int index) {
+        return ram[index];
+    }
+    
+    public float getDisk(int index) {
+        return disk[index];
+    }
+    
+    /**
+     * Approximate heap memory held, for cache accounting.
+     */
+    public long heapBytes() {
+        return 64 + (long) timestamps.length * (Long.BYTES + 3 * Float.BYTES);
+    }
+}
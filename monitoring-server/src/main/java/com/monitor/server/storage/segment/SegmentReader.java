@@ -0,0 +1,189 @@
+package com.monitor.server.storage.segment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a segment file written by {@link SegmentWriter}.
+ *
+ * Layout (little-endian): a header with magic, format version, sample count,
+ * block count, minimum and maximum timestamp, index offset and agent ID; the
+ * compressed blocks; then the block index, one entry per block with its offset,
+ * byte length, sample count and time range.
+ *
+ * Opening reads only the header and the index, so the time range of a segment
+ * and of each block is known without decoding anything. Blocks are decoded one
+ * at a time on request.
+ */
+public class SegmentReader implements Closeable {
+    
+    static final int MAGIC = 0x4D534547; // "MSEG"
+    static final short FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 40;
+    static final int INDEX_ENTRY_SIZE = 32;
+    static final int MAX_AGENT_ID_BYTES = Short.MAX_VALUE;
+    
+    /**
+     * Receives samples streamed out of a segment.
+     */
+    public interface SampleConsumer {
+        void accept(long timestamp, float cpu, float ram, float disk);
+    }
+    
+    private final Path file;
+    private final FileChannel channel;
+    private final String agentId;
+    private final int samples;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+    private final int[] blockCounts;
+    private final long[] blockMin;
+    private final long[] blockMax;
+    
+    private SegmentReader(Path file, FileChannel channel) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        
+        ByteBuffer header = read(0, HEADER_SIZE);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a segment file: " + file);
+        }
+        short format = header.getShort();
+        if (format != FORMAT_VERSION) {
+            throw new IOException("Unsupported segment format " + format + ": " + file);
+        }
+        int idLength = header.getShort() & 0xFFFF;
+        this.samples = header.getInt();
+        int blocks = header.getInt();
+        this.minTimestamp = header.getLong();
+        this.maxTimestamp = header.getLong();
+        long indexOffset = header.getLong();
+        if (indexOffset == 0) {
+            throw new IOException("Incomplete segment file: " + file);
+        }
+        if (samples < 0 || blocks < 0 || indexOffset < HEADER_SIZE + idLength
+                || indexOffset + (long) blocks * INDEX_ENTRY_SIZE > channel.size()) {
+            throw new IOException("Corrupt segment header: " + file);
+        }
+        
+        ByteBuffer id = read(HEADER_SIZE, idLength);
+        this.agentId = StandardCharsets.UTF_8.decode(id).toString();
+        
+        this.blockOffsets = new long[blocks];
+        this.blockLengths = new int[blocks];
+        this.blockCounts = new int[blocks];
+        this.blockMin = new long[blocks];
+        this.blockMax = new long[blocks];
+        ByteBuffer index = read(indexOffset, blocks * INDEX_ENTRY_SIZE);
+        for (int i = 0; i < blocks; i++) {
+            blockOffsets[i] = index.getLong();
+            blockLengths[i] = index.getInt();
+            blockCounts[i] = index.getInt();
+            blockMin[i] = index.getLong();
+            blockMax[i] = index.getLong();
+            if (blockOffsets[i] < HEADER_SIZE || blockLengths[i] < 0
+                    || blockOffsets[i] + blockLengths[i] > indexOffset) {
+                throw new IOException("Corrupt segment index: " + file);
+            }
+        }
+    }
+    
+    /**
+     * Open a segment and read its header and block index.
+     */
+    public static SegmentReader open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new SegmentReader(file, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    private ByteBuffer read(long at, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, at + buffer.position());
+            if (read < 0) {
+                throw new IOException("Truncated segment file: " + file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+    
+    public Path getFile() {
+        return file;
+    }
+    
+    public String getAgentId() {
+        return agentId;
+    }
+    
+    public int getSampleCount() {
+        return samples;
+    }
+    
+    public long getMinTimestamp() {
+        return minTimestamp;
+    }
+    
+    public long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+    
+    public int getBlockCount() {
+        return blockOffsets.length;
+    }
+    
+    public int getBlockSize(int block) {
+        return blockCounts[block];
+    }
+    
+    public long getBlockMinTimestamp(int block) {
+        return blockMin[block];
+    }
+    
+    public long getBlockMaxTimestamp(int block) {
+        return blockMax[block];
+    }
+    
+    /**
+     * Read and decode one block.
+     */
+    public SegmentBlock readBlock(int block) throws IOException {
+        ByteBuffer data = read(blockOffsets[block], blockLengths[block]);
+        try {
+            return BlockCodec.decode(data.array(), blockLengths[block], blockCounts[block]);
+        } catch (IllegalStateException e) {
+            throw new IOException("Corrupt block " + block + " in " + file + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Stream every sample, oldest block first, decoding one block at a time.
+     */
+    public void forEach(SampleConsumer consumer) throws IOException {
+        for (int b = 0; b < blockOffsets.length; b++) {
+            SegmentBlock block = readBlock(b);
+            for (int i = 0; i < block.size(); i++) {
+                consumer.accept(block.getTimestamp(i), block.getCpu(i), block.getRam(i), block.getDisk(i));
+            }
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
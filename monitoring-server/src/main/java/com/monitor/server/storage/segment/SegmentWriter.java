@@ -0,0 +1,202 @@
+package com.monitor.server.storage.segment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streams samples of one agent into a segment file.
+ *
+ * Samples are compressed into blocks of a fixed number of samples (see
+ * {@link BlockCodec}); only the block being filled is held in memory. On
+ * {@link #close()} the block index is appended and the header is completed
+ * with the sample count, time range and index position, so a file whose
+ * writer did not finish has no index and is rejected by {@link SegmentReader}.
+ *
+ * Samples should be appended in timestamp order, which keeps the blocks
+ * disjoint and the encoding compact.
+ *
+ * The file is written under a temporary name and renamed over the target
+ * once complete, so a crash mid-write leaves the previous version intact.
+ */
+public class SegmentWriter implements Closeable {
+    
+    public static final int DEFAULT_BLOCK_SAMPLES = 1024;
+    
+    // Suffix of a file still being written
+    public static final String TEMP_SUFFIX = ".tmp";
+    
+    private final Path file;
+    private final Path temp;
+    private final FileChannel channel;
+    private final int blockSamples;
+    private final int headerSize;
+    private final byte[] agentId;
+    private final BlockCodec.Encoder encoder = new BlockCodec.Encoder();
+    
+    private long position;
+    private int samples;
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+    
+    // Block index: file offset, byte length, sample count, time range
+    private int blocks;
+    private long[] blockOffsets = new long[16];
+    private int[] blockLengths = new int[16];
+    private int[] blockCounts = new int[16];
+    private long[] blockMin = new long[16];
+    private long[] blockMax = new long[16];
+    
+    private boolean closed;
+    private boolean failed;
+    
+    public SegmentWriter(Path file, String agentId) throws IOException {
+        this(file, agentId, DEFAULT_BLOCK_SAMPLES);
+    }
+    
+    /**
+     * Create or replace {@code file} on {@link #close()}.
+     * @param blockSamples Samples per compressed block
+     */
+    public SegmentWriter(Path file, String agentId, int blockSamples) throws IOException {
+        this.agentId = agentId.getBytes(StandardCharsets.UTF_8);
+        if (this.agentId.length > SegmentReader.MAX_AGENT_ID_BYTES) {
+            throw new IOException("Agent ID too long for a segment: " + agentId);
+        }
+        this.blockSamples = Math.max(1, blockSamples);
+        this.headerSize = SegmentReader.HEADER_SIZE + this.agentId.length;
+        this.file = file;
+        this.temp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+        // Incomplete header until close
+        writeHeader(0);
+        this.position = headerSize;
+    }
+    
+    /**
+     * Add one sample.
+     */
+    public void append(long timestamp, float cpu, float ram, float disk) throws IOException {
+        encoder.add(timestamp, cpu, ram, disk);
+        samples++;
+        minTimestamp = Math.min(minTimestamp, timestamp);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+        if (encoder.size() == blockSamples) {
+            flushBlock();
+        }
+    }
+    
+    /**
+     * Samples appended so far.
+     */
+    public int size() {
+        return samples;
+    }
+    
+    private void flushBlock() throws IOException {
+        if (encoder.size() == 0) {
+            return;
+        }
+        if (blocks == blockOffsets.length) {
+            int length = blocks * 2;
+            blockOffsets = Arrays.copyOf(blockOffsets, length);
+            blockLengths = Arrays.copyOf(blockLengths, length);
+            blockCounts = Arrays.copyOf(blockCounts, length);
+            blockMin = Arrays.copyOf(blockMin, length);
+            blockMax = Arrays.copyOf(blockMax, length);
+        }
+        int length = encoder.byteLength();
+        blockOffsets[blocks] = position;
+        blockLengths[blocks] = length;
+        blockCounts[blocks] = encoder.size();
+        blockMin[blocks] = encoder.minTimestamp();
+        blockMax[blocks] = encoder.maxTimestamp();
+        blocks++;
+        
+        writeFully(ByteBuffer.wrap(encoder.buffer(), 0, length), position);
+        position += length;
+        encoder.reset();
+    }
+    
+    private void writeHeader(long indexOffset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(SegmentReader.MAGIC);
+        header.putShort(SegmentReader.FORMAT_VERSION);
+        header.putShort((short) agentId.length);
+        header.putInt(samples);
+        header.putInt(blocks);
+        header.putLong(samples == 0 ? 0 : minTimestamp);
+        header.putLong(samples == 0 ? 0 : maxTimestamp);
+        header.putLong(indexOffset);
+        header.put(agentId);
+        header.flip();
+        writeFully(header, 0);
+    }
+    
+    private void writeFully(ByteBuffer buffer, long at) throws IOException {
+        try {
+            while (buffer.hasRemaining()) {
+                at += channel.write(buffer, at);
+            }
+        } catch (IOException e) {
+            // Never put a file missing samples in place of the target
+            failed = true;
+            throw e;
+        }
+    }
+    
+    /**
+     * Write the last block, the index and the final header, force the file
+     * to disk and rename it over the target.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        boolean complete = false;
+        try {
+            if (failed) {
+                return;
+            }
+            flushBlock();
+            long indexOffset = position;
+            ByteBuffer index = ByteBuffer.allocate(blocks * SegmentReader.INDEX_ENTRY_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < blocks; i++) {
+                index.putLong(blockOffsets[i]);
+                index.putInt(blockLengths[i]);
+                index.putInt(blockCounts[i]);
+                index.putLong(blockMin[i]);
+                index.putLong(blockMax[i]);
+            }
+            index.flip();
+            writeFully(index, indexOffset);
+            writeHeader(indexOffset);
+            channel.force(false);
+            complete = true;
+        } finally {
+            channel.close();
+            if (!complete) {
+                Files.deleteIfExists(temp);
+            }
+        }
+        
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.monitor.ui.controller;
 
+import com.monitor.model.AgentLinkStats;
 import com.monitor.model.Alert;
 import com.monitor.model.AlertConfig;
 import com.monitor.model.Metric;
@@ -35,7 +36,9 @@ import java.text.SimpleDateFormat;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.ResourceBundle;
 
@@ -51,6 +54,7 @@ public class DashboardController implements Initializable {
     private static final String RMI_SERVICE_NAME = "MonitoringService";
     private static final int POLL_INTERVAL_MS = 2000;
     private static final int MAX_DATA_POINTS = 30;
+    private static final double HIGH_LOSS_PERCENT = 5.0;
     
     // FXML components - Header
     @FXML private Label statusLabel;
@@ -108,6 +112,9 @@ public class DashboardController implements Initializable {
     // Selected agent
     private String selectedAgentId = null;
     
+    // UDP delivery stats per agent, shown in the agents list
+    private Map<String, AgentLinkStats> linkStats = new HashMap<>();
+    
     // Date formatter
     private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
     
@@ -117,6 +124,7 @@ public class DashboardController implements Initializable {
         
         // Initialize components
         initializeCharts();
+        initializeAgentsList();
         initializeAlertsTable();
         initializeDatePickers();
         initializeSeverityFilter();
@@ -142,6 +150,29 @@ public class DashboardController implements Initializable {
         diskChart.getData().add(diskSeries);
     }
     
+    private void initializeAgentsList() {
+        agentsList.setCellFactory(list -> new ListCell<String>() {
+            @Override
+            protected void updateItem(String agentId, boolean empty) {
+                super.updateItem(agentId, empty);
+                if (empty || agentId == null) {
+                    setText(null);
+                    setStyle("");
+                    return;
+                }
+                
+                AgentLinkStats stats = linkStats.get(agentId);
+                if (stats == null || stats.getExpected() == 0) {
+                    setText(agentId);
+                    setStyle("");
+                } else {
+                    setText(String.format("%s  (loss %.1f%%)", agentId, stats.getLossRate()));
+                    setStyle(stats.getLossRate() >= HIGH_LOSS_PERCENT ? "-fx-text-fill: #ef4444;" : "");
+                }
+            }
+        });
+    }
+    
     private void initializeAlertsTable() {
         alertTimeCol.setCellValueFactory(data -> 
             new SimpleStringProperty(timeFormat.format(new Date(data.getValue().getTimestamp()))));
@@ -243,7 +274,13 @@ public class DashboardController implements Initializable {
                 ? monitoringService.searchAgents(query)
                 : monitoringService.getActiveAgents();
             
+            Map<String, AgentLinkStats> stats = new HashMap<>();
+            for (AgentLinkStats s : monitoringService.getAgentLinkStats()) {
+                stats.put(s.getAgentId(), s);
+            }
+            
             Platform.runLater(() -> {
+                linkStats = stats;
                 ObservableList<String> items = FXCollections.observableArrayList(agents);
                 String currentSelection = agentsList.getSelectionModel().getSelectedItem();
                 agentsList.setItems(items);